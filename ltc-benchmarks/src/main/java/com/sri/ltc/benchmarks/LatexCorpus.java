@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic LaTeX documents and their revision histories for benchmarking.
+ * The same seed and parameters always produce the same texts, so that results of different runs and
+ * different versions of LTC are comparable.
+ * <p>
+ * A document consists of a preamble and a number of paragraphs of words, commands, numbers, inline math
+ * and comments.  Each following revision changes about the given fraction of tokens of the prior revision
+ * by replacing them with a similar or a new token, deleting them, or inserting new tokens after them.
+ *
+ * @author linda
+ */
+public final class LatexCorpus {
+
+    private final static String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim",
+            "ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip",
+            "ex", "ea", "commodo", "consequat", "duis", "aute", "irure", "in", "reprehenderit", "voluptate",
+            "velit", "esse", "cillum", "fugiat", "nulla", "pariatur", "excepteur", "sint", "occaecat", "non-proident"};
+    private final static String[] COMMANDS = {
+            "\\textbf{", "\\emph{", "\\cite{", "\\ref{", "\\label{", "\\footnote{"};
+    private final static String[] SYMBOLS = {".", ",", ";", ":", "(", ")", "~", "$x^2$"};
+    private final static String PREAMBLE =
+            "\\documentclass[11pt]{article}\n" +
+            "\\usepackage{amsmath}\n" +
+            "\\usepackage{graphicx}\n\n" +
+            "\\title{Synthetic Corpus}\n" +
+            "\\author{LTC}\n\n" +
+            "\\begin{document}\n" +
+            "\\maketitle\n\n";
+    private final static String PARAGRAPH = "\n\n";
+    private final static String END = "\n\\end{document}\n";
+
+    private final long seed;
+    private final int paragraphs;
+    private final double editDensity;
+    private final int authors;
+
+    /**
+     * @param seed seed for the random generator
+     * @param paragraphs number of paragraphs of about 60 tokens each in the first revision
+     * @param editDensity fraction of tokens changed in each revision (between 0 and 1)
+     * @param authors number of authors that take turns in making revisions (at least 1)
+     */
+    public LatexCorpus(long seed, int paragraphs, double editDensity, int authors) {
+        if (paragraphs < 0)
+            throw new IllegalArgumentException("Number of paragraphs must not be negative");
+        if (editDensity < 0 || editDensity > 1)
+            throw new IllegalArgumentException("Edit density must be between 0 and 1");
+        if (authors < 1)
+            throw new IllegalArgumentException("Need at least 1 author");
+        this.seed = seed;
+        this.paragraphs = paragraphs;
+        this.editDensity = editDensity;
+        this.authors = authors;
+    }
+
+    /**
+     * Generate a revision history.
+     *
+     * @param count number of revisions
+     * @return texts of revisions from oldest to newest
+     */
+    public String[] revisions(int count) {
+        Random random = new Random(seed);
+        String[] result = new String[count];
+        List<String> tokens = firstRevision(random);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                tokens = edit(random, tokens);
+            result[i] = join(tokens);
+        }
+        return result;
+    }
+
+    /**
+     * @param count number of revisions
+     * @return author indices (starting with 1) for the given number of revisions with authors taking turns
+     */
+    public Integer[] authorIndices(int count) {
+        Integer[] result = new Integer[count];
+        for (int i = 0; i < count; i++)
+            result[i] = 1 + i % authors;
+        return result;
+    }
+
+    private List<String> firstRevision(Random random) {
+        List<String> tokens = new ArrayList<String>();
+        for (int p = 0; p < paragraphs; p++) {
+            if (p > 0)
+                tokens.add(PARAGRAPH);
+            for (int t = 0; t < 60; t++)
+                tokens.add(token(random));
+        }
+        return tokens;
+    }
+
+    private List<String> edit(Random random, List<String> tokens) {
+        List<String> result = new ArrayList<String>(tokens.size() + 8);
+        for (String token : tokens) {
+            if (PARAGRAPH.equals(token) || random.nextDouble() >= editDensity) {
+                result.add(token);
+                continue;
+            }
+            switch (random.nextInt(4)) {
+                case 0: // small change, such as a typo
+                    result.add(typo(random, token));
+                    break;
+                case 1: // replacement
+                    result.add(token(random));
+                    break;
+                case 2: // deletion
+                    break;
+                default: // insertion
+                    result.add(token);
+                    result.add(token(random));
+                    if (random.nextInt(20) == 0)
+                        result.add(PARAGRAPH);
+            }
+        }
+        return result;
+    }
+
+    private static String token(Random random) {
+        int kind = random.nextInt(20);
+        if (kind < 14)
+            return WORDS[random.nextInt(WORDS.length)];
+        if (kind < 16)
+            return COMMANDS[random.nextInt(COMMANDS.length)] + WORDS[random.nextInt(WORDS.length)] + "}";
+        if (kind < 18)
+            return SYMBOLS[random.nextInt(SYMBOLS.length)];
+        if (kind < 19)
+            return Integer.toString(random.nextInt(2013));
+        return "% " + WORDS[random.nextInt(WORDS.length)] + "\n";
+    }
+
+    private static String typo(Random random, String token) {
+        if (token.length() < 2)
+            return token + token;
+        int i = random.nextInt(token.length());
+        return token.substring(0, i) + (char) ('a' + random.nextInt(26)) + token.substring(i + 1);
+    }
+
+    private static String join(List<String> tokens) {
+        StringBuilder text = new StringBuilder(PREAMBLE);
+        String last = PARAGRAPH;
+        for (String token : tokens) {
+            if (!PARAGRAPH.equals(token) && !PARAGRAPH.equals(last) && !last.endsWith("\n"))
+                text.append(' ');
+            text.append(token);
+            last = token;
+        }
+        return text.append(END).toString();
+    }
+}
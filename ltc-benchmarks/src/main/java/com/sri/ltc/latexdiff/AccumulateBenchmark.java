@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.sri.ltc.benchmarks.LatexCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulating the changes over a number of revisions with {@link Accumulate#perform}.
+ * The shared memory of {@link DiffCache} is cleared before each invocation, so that all changes are calculated.
+ *
+ * @author linda
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccumulateBenchmark {
+
+    @Param({"10", "100"})
+    public int paragraphs;
+
+    @Param({"5", "25"})
+    public int revisions;
+
+    @Param({"0.05"})
+    public double editDensity;
+
+    @Param({"3"})
+    public int authors;
+
+    private String[] texts;
+    private Integer[] authorIndices;
+
+    @Setup
+    public void setUp() {
+        LatexCorpus corpus = new LatexCorpus(42L, paragraphs, editDensity, authors);
+        texts = corpus.revisions(revisions);
+        authorIndices = corpus.authorIndices(revisions);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDiffCache() {
+        DiffCache.clearMemory();
+    }
+
+    @Benchmark
+    public Map perform() throws Exception {
+        ReaderWrapper[] readers = new ReaderWrapper[texts.length];
+        for (int i = 0; i < texts.length; i++)
+            readers[i] = new StringReaderWrapper(texts[i]);
+        return new Accumulate(new DiffCache(null)).perform(readers, authorIndices,
+                EnumSet.noneOf(Change.Flag.class), null, 0);
+    }
+}
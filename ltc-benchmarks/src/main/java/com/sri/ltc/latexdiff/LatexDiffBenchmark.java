@@ -0,0 +1,63 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.sri.ltc.benchmarks.LatexCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculating the changes between two consecutive revisions with {@link LatexDiff#getChanges(ReaderWrapper, ReaderWrapper)}.
+ *
+ * @author linda
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatexDiffBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double editDensity;
+
+    private final LatexDiff latexDiff = new LatexDiff();
+    private String oldText, newText;
+
+    @Setup
+    public void setUp() {
+        String[] revisions = new LatexCorpus(42L, paragraphs, editDensity, 1).revisions(2);
+        oldText = revisions[0];
+        newText = revisions[1];
+    }
+
+    @Benchmark
+    public List<Change> getChanges() throws Exception {
+        return latexDiff.getChanges(new StringReaderWrapper(oldText), new StringReaderWrapper(newText));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.sri.ltc.benchmarks.LatexCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the lexer alone and of the lexical analysis in {@link LatexDiff#analyze(ReaderWrapper)},
+ * which also removes whitespace and paragraphs in the preamble.
+ *
+ * @author linda
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    private final LatexDiff latexDiff = new LatexDiff();
+    private String text;
+
+    @Setup
+    public void setUp() {
+        text = new LatexCorpus(42L, paragraphs, 0.0, 1).revisions(1)[0];
+    }
+
+    @Benchmark
+    public int lex() throws IOException {
+        LexemeBuffer lexemes = new LexemeBuffer(text);
+        Lexer scanner = new Lexer(new StringReader(text), lexemes);
+        while (scanner.yylex() != Lexer.YYEOF)
+            ;
+        scanner.yyclose();
+        return lexemes.size();
+    }
+
+    @Benchmark
+    public int analyze() throws Exception {
+        return latexDiff.analyze(new StringReaderWrapper(text)).size();
+    }
+}
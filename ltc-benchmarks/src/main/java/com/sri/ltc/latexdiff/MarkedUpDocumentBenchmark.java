@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.sri.ltc.benchmarks.LatexCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering a marked up document with {@link MarkedUpDocument#applyFiltering(Set, Set, int)} and converting
+ * its markup into styles with {@link MarkedUpDocument#getStyles()}.  The document is the newest revision of
+ * the corpus with additions and deletions of all authors marked up at random positions.
+ *
+ * @author linda
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkedUpDocumentBenchmark {
+
+    private final static Color[] COLORS = {Color.red, Color.blue, Color.green, Color.magenta, Color.orange};
+
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    @Param({"0.05"})
+    public double editDensity;
+
+    @Param({"3"})
+    public int authors;
+
+    private final Set<Change.Flag> flagsToHide = EnumSet.of(Change.Flag.DELETION, Change.Flag.SMALL);
+    private MarkedUpDocument markedUp, filtered, document;
+
+    @Setup
+    public void setUp() throws BadLocationException {
+        String text = new LatexCorpus(42L, paragraphs, editDensity, authors).revisions(1)[0];
+        Random random = new Random(42L);
+        markedUp = new MarkedUpDocument();
+        markedUp.insertString(0, text);
+        int changes = (int) (editDensity * text.length() / 6); // edit density applied to tokens of about 6 characters
+        for (int i = 0; i < changes; i++) {
+            int author = 1 + random.nextInt(authors);
+            markedUp.updateStyles(author, COLORS[author % COLORS.length], author);
+            int position = random.nextInt(markedUp.getLength());
+            if (random.nextBoolean())
+                markedUp.markupAddition(position, position + 1 + random.nextInt(12),
+                        EnumSet.noneOf(Change.Flag.class));
+            else {
+                int offset = random.nextInt(text.length() - 6);
+                markedUp.insertDeletion(position, text.substring(offset, offset + 1 + random.nextInt(6)),
+                        random.nextInt(4) == 0 ?
+                                EnumSet.of(Change.Flag.DELETION, Change.Flag.SMALL) :
+                                EnumSet.of(Change.Flag.DELETION));
+            }
+        }
+        filtered = markedUp.copy();
+        filtered.applyFiltering(flagsToHide, null, 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyDocument() throws BadLocationException {
+        document = markedUp.copy(); // filtering can only be applied once per document
+    }
+
+    @Benchmark
+    public int applyFiltering() throws BadLocationException {
+        return document.applyFiltering(flagsToHide, null, document.getLength() / 2);
+    }
+
+    @Benchmark
+    public List<Integer[]> getStyles() {
+        return filtered.getStyles();
+    }
+}
@@ -53,6 +53,7 @@ import java.util.logging.Level;
  */
 public final class LTCSession {
 
+    private final static long POLLING_INTERVAL = 100; // milliseconds between polling for changes
     private final LTCEditor editor;
 
     private int ID = -1;
@@ -197,10 +198,10 @@ public final class LTCSession {
                             final List<Object[]> deletions, final int caretPosition) {
         if (!isValid()) return;
 
-        // create new worker to update session
-        // TODO: decide if and how to make get_changes interruptible in order to support cancel button
+        // create new worker to update session, which polls for changes being computed in the background
+        // so that the cancel button stops the computation
         (new LTCWorker<Map,Void>(editor.getFrame(), ID,
-                "Updating...", "<html>Updating changes of<br>"+getCanonicalPath()+"</html>", false) {
+                "Updating...", "<html>Updating changes of<br>"+getCanonicalPath()+"</html>", true) {
             java.util.List<Object[]> commits = null;
 
             @SuppressWarnings("unchecked")
@@ -212,8 +213,25 @@ public final class LTCSession {
                 setProgress(1);
                 if (isCancelled()) return null;
                 // get changes
-                Map map = LTC.get_changes(sessionID, isModified, Base64.encodeBase64(currentText.getBytes()), deletions, caretPosition);
+                int jobID = LTC.start_changes(sessionID, isModified, Base64.encodeBase64(currentText.getBytes()), deletions, caretPosition);
+                Map map = LTC.poll_changes(jobID);
+                while (!(Boolean) map.get(LTCserverInterface.KEY_DONE)) {
+                    if (isCancelled()) {
+                        LTC.cancel_changes(jobID);
+                        return null;
+                    }
+                    setProgress(Math.max(1, (Integer) map.get(LTCserverInterface.KEY_PROGRESS) * 90 / 100));
+                    setStage((String) map.get(LTCserverInterface.KEY_STAGE));
+                    try {
+                        Thread.sleep(POLLING_INTERVAL);
+                    } catch (InterruptedException e) {
+                        LTC.cancel_changes(jobID);
+                        return null;
+                    }
+                    map = LTC.poll_changes(jobID);
+                }
                 setProgress(90);
+                setStage("Updating commits");
                 if (isCancelled()) return null;
                 // update commit graph
                 commits = LTC.get_commits(sessionID);
@@ -226,7 +244,7 @@ public final class LTCSession {
             @Override
             protected void done() {
                 if (isCancelled()) {
-                    // TODO: reset everything?
+                    editor.textPane.startFiltering(); // keep showing the previous changes
                 } else
                     try {
                         Map map = get();
@@ -47,6 +47,7 @@ public abstract class LTCWorker<T,V> extends SwingWorker<T,V> implements Progres
     }
     protected final LTCserverInterface LTC = new LTCserverImpl();
     protected final int sessionID;
+    private String stage = null;
 
     protected LTCWorker(JFrame frame, int sessionID, String progressTitle, String progressText, boolean withCancel) {
         this.sessionID = sessionID;
@@ -57,6 +58,8 @@ public abstract class LTCWorker<T,V> extends SwingWorker<T,V> implements Progres
             public void propertyChange(PropertyChangeEvent e) {
                 if ("progress".equals(e.getPropertyName()))
                     ProgressDialog.setProgress((Integer) e.getNewValue());
+                if ("stage".equals(e.getPropertyName()))
+                    ProgressDialog.setStage((String) e.getNewValue());
                 if ("state".equals(e.getPropertyName()) && StateValue.DONE.equals(e.getNewValue()))
                     ProgressDialog.done(); // also covering any exceptions occurring here as well!
             }
@@ -77,8 +80,21 @@ public abstract class LTCWorker<T,V> extends SwingWorker<T,V> implements Progres
 
     protected abstract T callLTCinBackground() throws XmlRpcException;
 
+    /**
+     * Set the name of the current stage, which is shown with the progress.  Like the progress,
+     * the stage is delivered to the progress dialog on the event dispatching thread.
+     *
+     * @param stage name of the current stage or <code>null</code> to only show the progress
+     */
+    protected final void setStage(String stage) {
+        String old = this.stage;
+        this.stage = stage;
+        firePropertyChange("stage", old, stage);
+    }
+
     @Override
-    public final void updateProgress(int percent) {
+    public final void updateProgress(int percent, String stage) {
         setProgress(percent);
+        setStage(stage);
     }
 }
@@ -23,17 +23,22 @@ package com.sri.ltc.editor;
  */
 
 import articles.showpar.ShowParEditorKit;
+import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.sri.ltc.CommonUtils;
+import com.sri.ltc.server.ChangesDelta;
 
 import javax.swing.*;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -80,6 +85,13 @@ public final class LatexPane extends JTextPane {
     private final boolean editable;
     private Point clickLocation = new Point();
     private DotMark selectionLocation = new DotMark();
+    // last text and styles shown with their colors, revisions and commits
+    private String shownText = null;
+    private List<Integer[]> shownStyles = null;
+    private Map<Integer, Color> shownColors = null;
+    private List<String> shownIDs = null;
+    private List<Object[]> shownCommits = null;
+    private boolean updating = false;
 
     public LatexPane(boolean editable) {
         this.editable = editable;
@@ -117,6 +129,22 @@ public final class LatexPane extends JTextPane {
         setJTextPaneFont(this, font, Color.black);
 
         ((AbstractDocument) document).setDocumentFilter(documentFilter);
+        // any other modification of the document means that the next update cannot reuse what was shown:
+        document.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                modified();
+            }
+            public void removeUpdate(DocumentEvent e) {
+                modified();
+            }
+            public void changedUpdate(DocumentEvent e) {
+                modified();
+            }
+            private void modified() {
+                if (!updating)
+                    shownText = null;
+            }
+        });
 
         setToolTipText(""); // turns on tool tips
         // show tool tips almost immediately
@@ -271,38 +299,42 @@ public final class LatexPane extends JTextPane {
 
     public void updateFromMaps(String text, List<Integer[]> styles, Map<Integer, Color> colors,
                                int caretPosition, List<String> orderedIDs, List<Object[]> commits) {
+        updating = true;
         try {
-            StyledDocument document = clearAndGetDocument();
-            if (text != null)
-                document.insertString(0, text, null);
-            if (styles != null) {
-                Style style;
-                for (Integer[] tuple : styles) {
-                    if (tuple != null && tuple.length >= 5) {
-                        style = document.getStyle(LTCStyle.values()[tuple[2]].getName());
-                        StyleConstants.setForeground(style, colors.get(tuple[3]));
-                        if (orderedIDs != null) {  // add meta data about this change
-                            String revision = orderedIDs.get(tuple[4]);
-                            style.addAttribute(REVISION_ATTR, revision);
-                            if (commits != null) {
-                                for (Object[] commit : commits)
-                                    if (revision.equals(commit[0])) {
-                                        try {
-                                            style.addAttribute(DATE_ATTR,
-                                                    CommonUtils.deSerializeDate(commit[4].toString()));
-                                        } catch (ParseException e) {
-                                            LOGGER.log(Level.SEVERE, "while parsing date for revision", e);
-                                        }
-                                        break;
-                                    }
-                            }
-                        }
-                        document.setCharacterAttributes(tuple[0], tuple[1]-tuple[0],
-                                style,
-                                true);
-                    }
-                }
+            // only update the changed part if the document is unchanged since the last update
+            // and the styles mean the same
+            ChangesDelta delta = null;
+            if (text != null && styles != null && shownText != null &&
+                    colors.equals(shownColors) && Objects.equal(orderedIDs, shownIDs) && sameCommits(commits))
+                delta = ChangesDelta.create(shownText, shownStyles, text, styles);
+
+            if (delta != null) {
+                stopFiltering();
+                StyledDocument document = getStyledDocument();
+                document.remove(delta.textStart, delta.removedLength);
+                document.insertString(delta.textStart, delta.insertedText, null);
+                // mark up dirty range anew
+                document.setCharacterAttributes(delta.dirtyStart, delta.dirtyEnd - delta.dirtyStart,
+                        SimpleAttributeSet.EMPTY, true);
+                for (Integer[] tuple : styles)
+                    if (tuple != null && tuple.length >= 5 && tuple[0] < delta.dirtyEnd && tuple[1] > delta.dirtyStart)
+                        markup(document, tuple, Math.max(tuple[0], delta.dirtyStart), Math.min(tuple[1], delta.dirtyEnd),
+                                colors, orderedIDs, commits);
+            } else {
+                StyledDocument document = clearAndGetDocument();
+                if (text != null)
+                    document.insertString(0, text, null);
+                if (styles != null)
+                    for (Integer[] tuple : styles)
+                        if (tuple != null && tuple.length >= 5)
+                            markup(document, tuple, tuple[0], tuple[1], colors, orderedIDs, commits);
             }
+            shownText = text;
+            shownStyles = styles;
+            shownColors = colors;
+            shownIDs = orderedIDs;
+            shownCommits = commits;
+
             // set proper caret position and scroll to it
             if (caretPosition < 0)
                 caretPosition = 0;
@@ -313,10 +345,50 @@ public final class LatexPane extends JTextPane {
             requestFocusInWindow();
         } catch (BadLocationException e) {
             LOGGER.log(Level.SEVERE, "while updating text", e);
+            shownText = null; // update everything next time
+        } finally {
+            updating = false;
         }
         startFiltering();
     }
 
+    // mark up text from start to end with the given style tuple
+    private void markup(StyledDocument document, Integer[] tuple, int start, int end,
+                        Map<Integer, Color> colors, List<String> orderedIDs, List<Object[]> commits) {
+        Style style = document.getStyle(LTCStyle.values()[tuple[2]].getName());
+        StyleConstants.setForeground(style, colors.get(tuple[3]));
+        if (orderedIDs != null) {  // add meta data about this change
+            String revision = orderedIDs.get(tuple[4]);
+            style.addAttribute(REVISION_ATTR, revision);
+            if (commits != null) {
+                for (Object[] commit : commits)
+                    if (revision.equals(commit[0])) {
+                        try {
+                            style.addAttribute(DATE_ATTR,
+                                    CommonUtils.deSerializeDate(commit[4].toString()));
+                        } catch (ParseException e) {
+                            LOGGER.log(Level.SEVERE, "while parsing date for revision", e);
+                        }
+                        break;
+                    }
+            }
+        }
+        document.setCharacterAttributes(start, end - start,
+                style,
+                true);
+    }
+
+    private boolean sameCommits(List<Object[]> commits) {
+        if (commits == null || shownCommits == null)
+            return commits == shownCommits;
+        if (commits.size() != shownCommits.size())
+            return false;
+        for (int i = 0; i < commits.size(); i++)
+            if (!Arrays.equals(commits.get(i), shownCommits.get(i)))
+                return false;
+        return true;
+    }
+
     /**
      * Compare text attributes at given indices whether or not they are equal.
      *
@@ -39,6 +39,7 @@ public final class ProgressDialog extends JDialog implements ActionListener {
     private static ProgressDialog dialog;
     private final JProgressBar progressBar = new JProgressBar(0, 100);
     private final SwingWorker worker;
+    private String stage = null;
 
     /**
      * Set up and show the dialog.  The first Component argument
@@ -106,9 +107,29 @@ public final class ProgressDialog extends JDialog implements ActionListener {
         if (progress > 0 && dialog != null) {
             dialog.progressBar.setIndeterminate(false);
             dialog.progressBar.setValue(progress);
+            dialog.updateString();
         }
     }
 
+    /**
+     * Show the name of the current stage with the progress.
+     *
+     * @param stage name of the current stage or <code>null</code> to only show the progress
+     */
+    public static void setStage(String stage) {
+        if (dialog != null) {
+            dialog.stage = stage;
+            dialog.updateString();
+        }
+    }
+
+    private void updateString() {
+        if (stage == null || "".equals(stage))
+            progressBar.setString(null); // show percentage
+        else
+            progressBar.setString(stage+" ("+progressBar.getValue()+"%)");
+    }
+
     public static void done() {
         if (SwingUtilities.isEventDispatchThread())
             doneInEDT();
@@ -76,6 +76,19 @@ public class Diff {
     filevec[1] = new file_data(b,h);
   }
 
+  /** Prepare to find differences between two arrays of equivalence
+      numbers.  Equal elements must have the same number and all numbers
+      must be positive.  Tables are allocated by the largest number, so
+      numbers should be dense, for example, from interning the elements
+      in a symbol table first.
+   * @param a
+   * @param b
+   */
+  public Diff(int[] a,int[] b) {
+    filevec[0] = new file_data(a);
+    filevec[1] = new file_data(b);
+  }
+
   /** 1 more than the maximum equivalence value used for this or its
      sibling file. */
   private int equiv_max = 1;
@@ -769,6 +782,22 @@ public class Diff {
       nondiscarded_lines = j;
     }
 
+    file_data(int[] data) {
+      buffered_lines = data.length;
+
+      equivs = new int[buffered_lines];
+      undiscarded = new int[buffered_lines];
+      realindexes = new int[buffered_lines];
+
+      for (int i = 0; i < data.length; ++i) {
+	if (data[i] < 1)
+	  throw new IllegalArgumentException("Equivalence numbers must be positive");
+	equivs[i] = data[i];
+	if (data[i] >= equiv_max)
+	  equiv_max = data[i] + 1;
+      }
+    }
+
     file_data(Object[] data,Hashtable h) {
       buffered_lines = data.length;
 
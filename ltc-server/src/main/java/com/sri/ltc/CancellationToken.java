@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A flag to request cancellation of a long running computation, which checks the flag
+ * cooperatively at convenient points and then stops with a {@link CancellationException}.
+ *
+ * @author linda
+ */
+public final class CancellationToken {
+
+    private final CancellationToken parent;
+    private volatile boolean cancelled = false;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    /**
+     * Create a token that is also cancelled when the given parent token is cancelled.
+     *
+     * @param parent token whose cancellation also cancels this token or <code>null</code>
+     */
+    public CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Stop the calling computation if cancellation was requested.
+     *
+     * @throws CancellationException if this token has been cancelled
+     */
+    public void check() {
+        if (isCancelled())
+            throw new CancellationException("computation cancelled");
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of a long running computation as primitive counters, which the computation updates cheaply and
+ * which are sampled at a fixed rate to deliver the progress to a {@link ProgressReceiver}.  The computation
+ * goes through named stages, each of which covers a range of percentages and is divided into a number of steps.
+ * <p>
+ * Only the computation updates the counters, while the sampling happens in the background, so that a receiver
+ * obtains at most one update per sampling interval and only if the progress or stage changed.
+ *
+ * @author linda
+ */
+public final class Progress {
+
+    public final static long SAMPLING_INTERVAL = 100; // in milliseconds
+    private final static ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ltc-progress-%d").build());
+
+    private final ProgressReceiver receiver;
+    private volatile String stage = "";
+    private volatile int from = 0, to = 0; // range of percentages of current stage
+    private volatile long steps = 1L, done = 0L; // steps of current stage
+
+    // state of sampling, guarded by this:
+    private ScheduledFuture<?> sampling = null;
+    private int sentPercent = -1;
+    private String sentStage = null;
+
+    /**
+     * Create progress that is delivered to the given receiver once started.
+     *
+     * @param receiver receiver of progress or <code>null</code> if progress is not delivered
+     */
+    public Progress(ProgressReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Start sampling the progress and delivering it to the receiver at a fixed rate.
+     *
+     * @return this progress
+     */
+    public synchronized Progress start() {
+        if (receiver != null && sampling == null)
+            sampling = SAMPLER.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sample();
+                }
+            }, 0L, SAMPLING_INTERVAL, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Stop sampling and deliver the current progress to the receiver if it changed since the last sample.
+     */
+    public synchronized void finish() {
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+        if (receiver != null)
+            sample();
+    }
+
+    private synchronized void sample() {
+        String currentStage = stage;
+        int percent = Math.max(sentPercent, getPercent()); // progress never goes back
+        if (percent != sentPercent || !currentStage.equals(sentStage)) {
+            sentPercent = percent;
+            sentStage = currentStage;
+            receiver.updateProgress(percent, currentStage);
+        }
+    }
+
+    /**
+     * Enter a new stage with a single step.
+     *
+     * @param stage name of stage
+     * @param from percentage at the beginning of the stage
+     * @param to percentage at the end of the stage
+     */
+    public void stage(String stage, int from, int to) {
+        if (from < 0 || to < from || to > 100)
+            throw new IllegalArgumentException("Invalid range of percentages for stage "+stage);
+        this.done = 0L;
+        this.steps = 1L;
+        this.from = from;
+        this.to = to;
+        this.stage = stage == null ? "" : stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    /**
+     * Divide the current stage into the given number of steps and start over with none of them done.
+     *
+     * @param steps number of steps of current stage
+     */
+    public void setSteps(long steps) {
+        this.done = 0L;
+        this.steps = Math.max(1L, steps);
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public void setDone(long done) {
+        this.done = done;
+    }
+
+    /**
+     * @return current progress in percent
+     */
+    public int getPercent() {
+        long total = steps;
+        long current = Math.max(0L, Math.min(done, total));
+        int start = from;
+        return start + (int) ((to - start) * current / total);
+    }
+}
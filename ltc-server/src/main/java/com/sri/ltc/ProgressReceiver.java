@@ -26,7 +26,14 @@ package com.sri.ltc;
  */
 public interface ProgressReceiver {
 
-    public void updateProgress(int percent);
+    /**
+     * Receive the progress of a computation.
+     *
+     * @param percent progress in percent
+     * @param stage name of the current stage of the computation
+     * @see Progress
+     */
+    public void updateProgress(int percent, String stage);
 
     //setResult
 }
@@ -36,7 +36,11 @@ public abstract class AbstractReaderWrapper<T> {
         return wrapped;
     }
 
-    public Lexeme removeAdditions(Lexeme lexeme) {
-        return lexeme;
+    public boolean removeAdditions(LexemeBuffer lexemes, int index) {
+        return true;
+    }
+
+    public String getContentKey() {
+        return null;
     }
 }
@@ -21,34 +21,83 @@
  */
 package com.sri.ltc.latexdiff;
 
+import com.google.common.util.concurrent.ForwardingFuture;
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.CommonUtils;
+import com.sri.ltc.Progress;
+import com.sri.ltc.server.FlightRecorder;
 import com.sri.ltc.server.LTCserverInterface;
+import com.sri.ltc.server.Metrics;
 import org.apache.commons.codec.binary.Base64;
 
 import javax.swing.text.*;
 import java.awt.*;
-import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
 
 /**
  * @author linda
  */
 public final class Accumulate {
 
+    private final static Logger LOGGER = Logger.getLogger(Accumulate.class.getName());
     private final static LatexDiff latexDiff = new LatexDiff();
+    // lexing earlier versions in parallel and ahead of the sequential merge of changes:
+    private final static int LEXING_THREADS = Runtime.getRuntime().availableProcessors();
+    private final static ExecutorService LEXING_POOL = new ForkJoinPool(LEXING_THREADS);
+    private final DiffCache diffCache;
 
-    // in order to keep track of progress
-    private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
-    public final static String PROGRESS_PROPERTY = "float_progress";
+    // cache of the mark up accumulated up to the version before the newest in the last call:
+    private final Object cacheLock = new Object();
+    private String cachedKey = null;
+    private String cachedText = null; // version before the newest, which the newest is compared with
+    private MarkedUpDocument cachedDocument = null; // never modified
 
-    public void addPropertyChangeListener(PropertyChangeListener listener) {
-        pcs.addPropertyChangeListener(listener);
+    // names of stages to report progress
+    public final static String STAGE_ACCUMULATE = "Accumulating changes";
+    public final static String STAGE_FILTERING = "Filtering changes";
+    private final static long STEPS_PER_VERSION = 1024L; // to report progress within comparing a version
+
+    public Accumulate() {
+        this(new DiffCache(null));
     }
 
-    public void removePropertyChangeListener(PropertyChangeListener listener) {
-        pcs.removePropertyChangeListener(listener);
+    /**
+     * Create an accumulator that obtains the changes between versions from the given diff cache.
+     *
+     * @param diffCache cache of changes between versions
+     */
+    public Accumulate(DiffCache diffCache) {
+        if (diffCache == null)
+            throw new IllegalArgumentException("Cannot create accumulate with NULL as diff cache");
+        this.diffCache = diffCache;
+    }
+
+    /**
+     * Estimate the memory in bytes held by the cache of the last accumulation.
+     *
+     * @return estimated number of bytes of the cached mark up or 0 if nothing is cached
+     */
+    public long estimateCacheMemory() {
+        synchronized (cacheLock) {
+            if (cachedDocument == null)
+                return 0L;
+            return 2L * (cachedDocument.getLength() + cachedKey.length() + cachedText.length())
+                    + 32L * cachedDocument.getRunCount();
+        }
+    }
+
+    /**
+     * Discard the cache of the last accumulation, so that the next call accumulates all changes anew.
+     */
+    public void clearCache() {
+        synchronized (cacheLock) {
+            cachedKey = null;
+            cachedText = null;
+            cachedDocument = null;
+        }
     }
 
     /**
@@ -84,11 +133,68 @@ public final class Accumulate {
      * @throws IllegalStateException if the given array <code>authorIndices</code> is not empty,
      *                               but its length does not match the one of <code>priorText</code>
      */
-    @SuppressWarnings("unchecked")
     public Map perform(ReaderWrapper[] priorText,
                        Integer[] authorIndices,
                        Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors,
                        int caretPosition) throws Exception {
+        return perform(priorText, authorIndices, flagsToHide, limitedAuthors, caretPosition, null);
+    }
+
+    /**
+     * Perform accumulation of changes as in {@link #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int)}
+     * but reuse the mark up accumulated up to the version before the newest in the last call, if the given cache
+     * key and author indices are the same.  The cache key must identify the contents of all given texts but the
+     * newest, for example, by revision IDs of committed versions.  Then only the newest text, which may be
+     * modified in the editor or on disk, is compared with the version before and the cached mark up is carried
+     * forward.  Filters and the caret position are applied anew in every call, so they don't need to be part of
+     * the key.
+     *
+     * @param cacheKey key identifying the contents of <code>priorText</code> except the newest one or
+     *                 <code>null</code> to not use any cached mark up
+     * @see #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int)
+     */
+    public Map perform(ReaderWrapper[] priorText,
+                       Integer[] authorIndices,
+                       Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors,
+                       int caretPosition, String cacheKey) throws Exception {
+        return perform(priorText, authorIndices, flagsToHide, limitedAuthors, caretPosition, cacheKey,
+                new CancellationToken());
+    }
+
+    /**
+     * Perform accumulation of changes as in {@link #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int, String)}
+     * but stop as soon as the given token is cancelled.  The token is checked before each version is compared
+     * and before filtering.  A cancelled accumulation never caches partial mark up.
+     *
+     * @param token token to request cancellation of this accumulation
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled while accumulating
+     * @see #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int, String)
+     */
+    public Map perform(ReaderWrapper[] priorText,
+                       Integer[] authorIndices,
+                       Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors,
+                       int caretPosition, String cacheKey, CancellationToken token) throws Exception {
+        return perform(priorText, authorIndices, flagsToHide, limitedAuthors, caretPosition, cacheKey, token,
+                new Progress(null));
+    }
+
+    /**
+     * Perform accumulation of changes as in
+     * {@link #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int, String, CancellationToken)}
+     * while updating the given progress.  The range of percentages of the current stage of the given progress
+     * is divided into the stages {@link #STAGE_ACCUMULATE} and {@link #STAGE_FILTERING}.
+     *
+     * @param progress progress to update
+     * @see #perform(ReaderWrapper[], Integer[], java.util.Set, java.util.Set, int, String, CancellationToken)
+     */
+    @SuppressWarnings("unchecked")
+    public Map perform(ReaderWrapper[] priorText,
+                       Integer[] authorIndices,
+                       Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors,
+                       int caretPosition, String cacheKey, CancellationToken token, Progress progress)
+            throws Exception {
+        if (token == null)
+            throw new IllegalArgumentException("Cannot perform accumulation with NULL as cancellation token");
 
         // init return value:
         Map map = new HashMap();
@@ -100,6 +206,10 @@ public final class Accumulate {
         if (priorText == null || priorText.length == 0)
             return map;
 
+        // divide range of progress: 90% for accumulating and the rest for filtering
+        int from = progress.getFrom(), to = progress.getTo(), split = from + 9 * (to - from) / 10;
+        progress.stage(STAGE_ACCUMULATE, from, split);
+
         // test author array and initialize if needed
         if (authorIndices == null || authorIndices.length == 0) {
             // init with ascending numbers
@@ -110,88 +220,270 @@ public final class Accumulate {
         if (authorIndices.length != priorText.length)
             throw new IllegalStateException("author indices is not empty but also not the right size");
 
+        // reuse mark up accumulated up to the version before the newest if the same texts and authors are given:
+        if (cacheKey != null)
+            cacheKey = cacheKey+" "+Arrays.toString(authorIndices);
+        long start = System.nanoTime(); // to observe the duration of stages
+        MarkedUpDocument document = null;
+        String baseText = null;
+        synchronized (cacheLock) {
+            if (cacheKey != null && priorText.length > 1 && cacheKey.equals(cachedKey)) {
+                document = cachedDocument; // never modified
+                baseText = cachedText;
+            }
+        }
+
+        if (cacheKey != null) {
+            if (document == null)
+                Metrics.CACHE_MISSES.increment(Metrics.CACHE_ACCUMULATION);
+            else
+                Metrics.CACHE_HITS.increment(Metrics.CACHE_ACCUMULATION);
+        }
+
+        document = accumulate(priorText, authorIndices, document, baseText, cacheKey, caretPosition, token, progress);
+        caretPosition = document.getCaretPosition();
+        start = Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_ACCUMULATE, start);
+
+        // after changes are accumulated, apply the filters
+        token.check();
+        progress.stage(STAGE_FILTERING, split, to);
+        caretPosition = document.applyFiltering(flagsToHide, limitedAuthors, caretPosition);
+        start = Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_FILTERING, start);
+
+        // create return value:
+        map.put(LTCserverInterface.KEY_TEXT, Base64.encodeBase64(document.getText(0, document.getLength()).getBytes()));
+        map.put(LTCserverInterface.KEY_STYLES, document.getStyles());
+        map.put(LTCserverInterface.KEY_CARET, caretPosition);
+        map.put(LTCserverInterface.KEY_REV_INDICES, document.getSortedRevisionIndices());
+        Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_SERIALIZATION, start);
+
+        progress.setDone(progress.getSteps());
+        return map;
+    }
+
+    // accumulate changes into a marked up document: unless given from the cache, the changes up to the version
+    // before the newest are accumulated from latest to earliest version into a document with the text of the
+    // version before the newest and remembered under the given cache key; then the newest version is compared
+    // with the version before and the accumulated mark up is carried forward
+    private MarkedUpDocument accumulate(ReaderWrapper[] priorText, Integer[] authorIndices,
+                                        MarkedUpDocument accumulated, String baseText, String cacheKey,
+                                        int caretPosition, CancellationToken token, Progress progress)
+            throws Exception {
         // generate color palette for the largest author index +1, as the indices may start with 0
         int n = new TreeSet<Integer>(Arrays.asList(authorIndices)).last()+1;
         Color[] colors = new Color[n];
         for(int i = 0; i < n; i++)
             colors[i] = Color.getHSBColor((float) i / (float) n, 0.85f, 1.0f);
 
+        int last = priorText.length - 1;
+        String newestText = CommonUtils.copyText(priorText[last].createReader());
+        if (last == 0)
+            return new MarkedUpDocument(newestText, null, caretPosition);
+
+        // track progress through the loops below
+        progress.setSteps((accumulated == null ? last : 1) * STEPS_PER_VERSION);
+        int[] counts = {0, 0}; // lexemes of earlier versions and changes that are compared
+        // context with the revision IDs of all versions to derive the context of each step for events
+        FlightRecorder.Context context = FlightRecorder.getContext();
+        Future<LexemeBuffer> baseLexemes = null;
+
+        try {
+            if (accumulated == null) {
+                baseText = CommonUtils.copyText(priorText[last - 1].createReader());
+                accumulated = accumulate(priorText, authorIndices, colors, baseText, counts, token, progress);
+                if (cacheKey != null)
+                    synchronized (cacheLock) {
+                        cachedKey = cacheKey;
+                        cachedText = baseText;
+                        cachedDocument = accumulated;
+                    }
+            }
+
+            // compare newest version with the one before in a new document
+            token.check();
+            FlightRecorder.setContext(revisions(context, last - 1, last));
+            FlightRecorder.Event step = FlightRecorder.ACCUMULATE.begin();
+            MarkedUpDocument newer = new MarkedUpDocument(newestText, null, 0);
+            String key = DiffCache.getKey(priorText[last - 1].getContentKey(), priorText[last].getContentKey());
+            List<Change> changes = diffCache.get(key);
+            if (changes == null) {
+                baseLexemes = submitLexing(baseText, revisions(context, last - 1));
+                changes = diffCache.calculate(
+                        latexDiff,
+                        key,
+                        baseText,
+                        counting(baseLexemes, counts),
+                        newer);
+            }
+            counts[1] += changes.size();
+            int authorIndex = authorIndices[last];
+            newer.updateStyles(authorIndex, colors[authorIndex], last - 1);
+            int[] markedUp = markup(newer, changes, progress, progress.getSteps() - STEPS_PER_VERSION);
+
+            // carry mark up of earlier versions forward
+            MarkedUpDocument document = newer.carry(accumulated, caretPosition);
+            if (document == null) {
+                LOGGER.warning("Cannot match newest version with the one before to carry earlier changes forward");
+                document = newer.carry(null, caretPosition);
+            }
+            step.set("changes", changes.size()).set("deletions", markedUp[0]).set("additions", markedUp[1]).commit();
+
+            Metrics.LEXEMES.observe(counts[0]);
+            Metrics.CHANGES.observe(counts[1]);
+            return document;
+        } finally {
+            FlightRecorder.setContext(context);
+            if (baseLexemes != null)
+                baseLexemes.cancel(true);
+        }
+    }
+
+    // accumulate changes from the version before the newest to the earliest version into a document with the
+    // given text of the version before the newest, while counting lexemes and changes
+    private MarkedUpDocument accumulate(ReaderWrapper[] priorText, Integer[] authorIndices, Color[] colors,
+                                        String baseText, int[] counts, CancellationToken token, Progress progress)
+            throws Exception {
         // merge everything into one styled document: init document with latest text
         final MarkedUpDocument document = new MarkedUpDocument();
-        document.insertString(0, CommonUtils.copyText(priorText[priorText.length - 1].createReader()), null);
+        document.insertString(0, baseText);
 
-        float progress = 0f; // track progress through the loops below
+        // earlier versions are read in order but lexed concurrently, up to a bounded number ahead of the merge
+        int base = priorText.length - 2; // index of version before the newest
+        String[] texts = new String[base];
+        List<Future<LexemeBuffer>> lexemes = new ArrayList<Future<LexemeBuffer>>(
+                Collections.<Future<LexemeBuffer>>nCopies(base, null));
+        List<List<Change>> stored = new ArrayList<List<Change>>(Collections.<List<Change>>nCopies(base + 1, null));
+        int next = base - 1; // index of next version to look up and lex
+        FlightRecorder.Context context = FlightRecorder.getContext();
 
-        // go from latest to earliest version: start with comparing current document with second latest
-        float outer_step_increment = 0.9f/(float) (priorText.length - 1); // calculate increment of progress for each outer loop
-        for (int index = priorText.length - 1; index > 0; index--) {
+        // key of changes in each step chains the content keys of all revisions that the document depends on
+        String[] keys = new String[base + 1];
+        String key = priorText[base].getContentKey();
+        for (int index = base; index > 0; index--)
+            keys[index] = key = DiffCache.getKey(priorText[index - 1].getContentKey(), key);
 
-            // compare current document with next version
-            List<Change> changes = latexDiff.getChanges(
-                    priorText[index - 1],
-                    new DocumentReaderWrapper(document)); // removes additions from current text but maintains positions
+        try {
+            // go from latest to earliest version: start with comparing current document with second latest
+            for (int index = base; index > 0; index--) {
+                token.check();
+                FlightRecorder.setContext(revisions(context, index - 1, index));
+                FlightRecorder.Event step = FlightRecorder.ACCUMULATE.begin();
 
-            // prepare styles with color and author index and revision number
-            int authorIndex = authorIndices[index];
-            document.updateStyles(authorIndex, colors[authorIndex], index - 1);
+                // look up changes with upcoming versions and only read and submit lexing of those not stored
+                for (; next >= 0 && next >= index - 1 - 2 * LEXING_THREADS; next--) {
+                    stored.set(next + 1, diffCache.get(keys[next + 1]));
+                    if (stored.get(next + 1) == null) {
+                        texts[next] = CommonUtils.copyText(priorText[next].createReader());
+                        lexemes.set(next, submitLexing(texts[next], revisions(context, next)));
+                    }
+                }
 
-            int current_offset = 0;
+                // compare current document with next version
+                List<Change> changes = stored.get(index);
+                stored.set(index, null);
+                if (changes == null)
+                    changes = diffCache.calculate(
+                            latexDiff,
+                            keys[index],
+                            texts[index - 1],
+                            counting(lexemes.get(index - 1), counts),
+                            document); // removes additions from current text but maintains positions
+                counts[1] += changes.size();
+                texts[index - 1] = null; // no longer needed
+                lexemes.set(index - 1, null);
 
-            // go through changes and markup document
-            if (changes.isEmpty()) {
-                progress = updateProgress(progress, outer_step_increment);
-                continue; // skip to next version if no changes
+                // prepare styles with color and author index and revision number
+                int authorIndex = authorIndices[index];
+                document.updateStyles(authorIndex, colors[authorIndex], index - 1);
+
+                // go through changes and markup document
+                int[] markedUp = markup(document, changes, progress, (base - index) * STEPS_PER_VERSION);
+                step.set("changes", changes.size()).set("deletions", markedUp[0]).set("additions", markedUp[1]).commit();
             }
+        } finally {
+            FlightRecorder.setContext(context);
+            // cancel any lexing that is not needed anymore
+            for (Future<LexemeBuffer> future : lexemes)
+                if (future != null)
+                    future.cancel(true);
+        }
 
-            float inner_step_increment = outer_step_increment/(float) changes.size(); // increment of progress for each inner loop
-            for (Change change : changes) {
-
-                if (change instanceof Deletion) {
-                    for (IndexFlagsPair<String> pair : ((Deletion) change).flags) {
-                        document.insertDeletion(
-                                change.start_position + current_offset,
-                                pair.index,
-                                pair.flags
-                        );
-                        // update caret position:
-                        if (change.start_position + current_offset <= caretPosition)
-                            caretPosition += pair.index.length();
-                        current_offset += pair.index.length();
-                    }
-                }
+        return document;
+    }
 
-                if (change instanceof Addition) {
-                    int start_position = change.start_position + current_offset;
-                    for (IndexFlagsPair<Integer> pair : ((Addition) change).flags) {
-                        document.markupAddition(
-                                start_position,
-                                pair.index + current_offset,
-                                pair.flags
-                        );
-                        start_position = pair.index + current_offset; // next fragment starts at current end position
-                    }
+    // mark up the given changes in the given document and report progress from the given steps on,
+    // return the number of deletions and additions
+    private static int[] markup(MarkedUpDocument document, List<Change> changes, Progress progress, long done)
+            throws BadLocationException {
+        int current_offset = 0;
+        int deletions = 0, additions = 0;
+        int changeIndex = 0;
+        for (Change change : changes) {
+
+            if (change instanceof Deletion) {
+                deletions++;
+                for (IndexFlagsPair<String> pair : ((Deletion) change).flags) {
+                    document.insertDeletion(
+                            change.start_position + current_offset,
+                            pair.index,
+                            pair.flags
+                    );
+                    current_offset += pair.index.length();
                 }
+            }
 
-                progress = updateProgress(progress, inner_step_increment);
+            if (change instanceof Addition) {
+                additions++;
+                int start_position = change.start_position + current_offset;
+                for (IndexFlagsPair<Integer> pair : ((Addition) change).flags) {
+                    document.markupAddition(
+                            start_position,
+                            pair.index + current_offset,
+                            pair.flags
+                    );
+                    start_position = pair.index + current_offset; // next fragment starts at current end position
+                }
             }
-        }
 
-        // after changes are accumulated, apply the filters
-        caretPosition = document.applyFiltering(flagsToHide, limitedAuthors, caretPosition);
-        progress = updateProgress(0.9f, 0.05f);
+            progress.setDone(done + ++changeIndex * STEPS_PER_VERSION / changes.size());
+        }
+        progress.setDone(done + STEPS_PER_VERSION);
+        return new int[] {deletions, additions};
+    }
 
-        // create return value:
-        map.put(LTCserverInterface.KEY_TEXT, Base64.encodeBase64(document.getText(0, document.getLength()).getBytes()));
-        map.put(LTCserverInterface.KEY_STYLES, document.getStyles());
-        map.put(LTCserverInterface.KEY_CARET, caretPosition);
-        map.put(LTCserverInterface.KEY_REV_INDICES, document.getSortedRevisionIndices());
+    // count the lexemes of the given future in the first of the given counts, if they are obtained
+    private static Future<LexemeBuffer> counting(Future<LexemeBuffer> lexemes, final int[] count) {
+        return new ForwardingFuture.SimpleForwardingFuture<LexemeBuffer>(lexemes) {
+            @Override
+            public LexemeBuffer get() throws InterruptedException, ExecutionException {
+                LexemeBuffer buffer = super.get();
+                count[0] += buffer.size();
+                return buffer;
+            }
+        };
+    }
 
-        updateProgress(0.95f, 0.05f);
-        return map;
+    private static Future<LexemeBuffer> submitLexing(final String text, final FlightRecorder.Context context) {
+        return LEXING_POOL.submit(new Callable<LexemeBuffer>() {
+            @Override
+            public LexemeBuffer call() throws Exception {
+                FlightRecorder.Context previous = FlightRecorder.setContext(context);
+                try {
+                    return latexDiff.analyze(new StringReaderWrapper(text));
+                } finally {
+                    FlightRecorder.setContext(previous);
+                }
+            }
+        });
     }
 
-    private final float updateProgress(float progress, float increment) {
-        pcs.firePropertyChange(PROGRESS_PROPERTY, new Float(progress), new Float(progress+increment));
-        return progress+increment;
+    // derive context with the revision IDs of the versions at the given indices
+    private static FlightRecorder.Context revisions(FlightRecorder.Context context, int... indices) {
+        if (context == null)
+            return null;
+        List<String> revisions = new ArrayList<String>();
+        for (int index : indices)
+            revisions.add(context.getRevision(index));
+        return context.withRevisions(revisions);
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.bmsi.gnudiff.Diff;
+
+import java.util.Arrays;
+
+/**
+ * Diff of two arrays of interned lexemes in chunks, which is used for large texts.  Similar to patience and
+ * histogram diff, lexemes that occur equally rarely in both ranges (ideally exactly once) are paired in order of
+ * their occurrence and the longest sequence of pairs in the same order serves as anchors.  Anchors are found
+ * recursively in the ranges between anchors together with common prefixes and suffixes.  Only the gaps between
+ * anchors are compared with the GNU diff, so that texts that are mostly unchanged are compared in about
+ * linear time and the resulting edit script can be processed gap by gap.
+ * <p>
+ * The resulting alignment may differ from the one of the GNU diff over the whole arrays, but it is always a
+ * valid edit script from the first to the second array.
+ *
+ * @author linda
+ */
+final class AnchoredDiff {
+
+    private final static int MIN_RANGE = 32; // do not look for anchors in ranges smaller than this
+    private final static int MAX_OCCURRENCES = 64; // do not use lexemes as anchors that occur more often
+
+    private final int[] symbols0, symbols1;
+
+    // anchors as sorted (index0 << 32 | index1) with sentinels before the first and after the last lexemes:
+    private final long[] anchors;
+
+    // temporary tables indexed by symbol and the chain of occurrences in new text:
+    private final int[] count0, count1, index0, index1, next1;
+
+    /**
+     * Find anchors in the given arrays of positive numbers.
+     *
+     * @param symbols0 numbers of lexemes of old text
+     * @param symbols1 numbers of lexemes of new text
+     */
+    AnchoredDiff(int[] symbols0, int[] symbols1) {
+        this.symbols0 = symbols0;
+        this.symbols1 = symbols1;
+
+        int max = 0;
+        for (int symbol : symbols0) max = Math.max(max, symbol);
+        for (int symbol : symbols1) max = Math.max(max, symbol);
+        count0 = new int[max + 1];
+        count1 = new int[max + 1];
+        index0 = new int[max + 1];
+        index1 = new int[max + 1];
+        next1 = new int[symbols1.length];
+
+        LongList found = new LongList();
+        found.add(pair(-1, -1));
+        found.add(pair(symbols0.length, symbols1.length));
+        // work list of ranges [lo0, hi0) x [lo1, hi1) to find anchors in
+        int[] work = new int[64];
+        int size = 0;
+        work[size++] = 0; work[size++] = symbols0.length; work[size++] = 0; work[size++] = symbols1.length;
+        while (size > 0) {
+            int hi1 = work[--size], lo1 = work[--size], hi0 = work[--size], lo0 = work[--size];
+            // common prefix and suffix:
+            while (lo0 < hi0 && lo1 < hi1 && symbols0[lo0] == symbols1[lo1])
+                found.add(pair(lo0++, lo1++));
+            while (lo0 < hi0 && lo1 < hi1 && symbols0[hi0 - 1] == symbols1[hi1 - 1])
+                found.add(pair(--hi0, --hi1));
+            if (hi0 - lo0 + hi1 - lo1 < MIN_RANGE || lo0 == hi0 || lo1 == hi1)
+                continue;
+            long[] unique = rareAnchors(lo0, hi0, lo1, hi1);
+            if (unique.length == 0)
+                continue;
+            // recurse into ranges between unique anchors:
+            if (size + 4 * (unique.length + 1) > work.length)
+                work = Arrays.copyOf(work, Math.max(2 * work.length, size + 4 * (unique.length + 1)));
+            int last0 = lo0, last1 = lo1;
+            for (long anchor : unique) {
+                found.add(anchor);
+                int i0 = (int) (anchor >>> 32), i1 = (int) anchor;
+                work[size++] = last0; work[size++] = i0; work[size++] = last1; work[size++] = i1;
+                last0 = i0 + 1;
+                last1 = i1 + 1;
+            }
+            work[size++] = last0; work[size++] = hi0; work[size++] = last1; work[size++] = hi1;
+        }
+        anchors = found.toSortedArray();
+    }
+
+    private static long pair(int i0, int i1) {
+        return ((long) i0 << 32) | (i1 & 0xFFFFFFFFL);
+    }
+
+    // pairs of lexemes that occur least often but equally often in both ranges
+    // and that form the longest sequence in the same order
+    private long[] rareAnchors(int lo0, int hi0, int lo1, int hi1) {
+        for (int i = lo0; i < hi0; i++)
+            count0[symbols0[i]]++;
+        // count and chain occurrences in new text (heads and links are stored as index + 1):
+        for (int i = hi1 - 1; i >= lo1; i--) {
+            int symbol = symbols1[i];
+            count1[symbol]++;
+            next1[i] = index1[symbol];
+            index1[symbol] = i + 1;
+        }
+        int lowest = Integer.MAX_VALUE;
+        for (int i = lo0; i < hi0; i++) {
+            int symbol = symbols0[i];
+            if (count0[symbol] == count1[symbol])
+                lowest = Math.min(lowest, count0[symbol]);
+        }
+        // candidates in order of old text with their index in new text:
+        int n = 0;
+        int[] candidates0 = null, candidates1 = null;
+        if (lowest <= MAX_OCCURRENCES) {
+            candidates0 = new int[Math.min(hi0 - lo0, hi1 - lo1)];
+            candidates1 = new int[candidates0.length];
+            for (int i = lo0; i < hi0; i++) {
+                int symbol = symbols0[i];
+                if (count0[symbol] == lowest && count1[symbol] == lowest) {
+                    candidates0[n] = i;
+                    candidates1[n] = index1[symbol] - 1;
+                    index1[symbol] = next1[index1[symbol] - 1]; // pair next occurrences next time
+                    n++;
+                }
+            }
+        }
+        for (int i = lo0; i < hi0; i++) count0[symbols0[i]] = 0;
+        for (int i = lo1; i < hi1; i++) count1[symbols1[i]] = index1[symbols1[i]] = 0;
+
+        // longest increasing subsequence of indices in new text with patience sorting:
+        int[] tails = new int[n]; // candidate with smallest index in new text ending a sequence of length k+1
+        int[] previous = new int[n];
+        int length = 0;
+        for (int c = 0; c < n; c++) {
+            int low = 0, high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (candidates1[tails[middle]] < candidates1[c])
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            previous[c] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = c;
+            if (low == length)
+                length++;
+        }
+        long[] result = new long[length];
+        for (int k = length - 1, c = length > 0 ? tails[length - 1] : -1; k >= 0; k--, c = previous[c])
+            result[k] = pair(candidates0[c], candidates1[c]);
+        return result;
+    }
+
+    /**
+     * @return number of gaps between anchors, some of which may be empty
+     */
+    int gaps() {
+        return anchors.length - 1;
+    }
+
+    /**
+     * Compare the lexemes in the given gap between anchors.
+     *
+     * @param gap index of gap between 0 and {@link #gaps()} (exclusive)
+     * @return chain of hunks with indices into the whole arrays or <code>null</code> if the gap has no changes
+     */
+    Diff.change diff(int gap) {
+        int lo0 = (int) (anchors[gap] >>> 32) + 1, lo1 = (int) anchors[gap] + 1;
+        int hi0 = (int) (anchors[gap + 1] >>> 32), hi1 = (int) anchors[gap + 1];
+        if (lo0 == hi0 && lo1 == hi1)
+            return null;
+        if (lo0 == hi0 || lo1 == hi1)
+            return new Diff.change(lo0, lo1, hi0 - lo0, hi1 - lo1, null);
+
+        // renumber symbols of gap densely as the diff allocates tables up to the largest number
+        int[] gap0 = new int[hi0 - lo0], gap1 = new int[hi1 - lo1];
+        int next = 1;
+        for (int i = lo0; i < hi0; i++) {
+            int symbol = symbols0[i];
+            if (index0[symbol] == 0)
+                index0[symbol] = next++;
+            gap0[i - lo0] = index0[symbol];
+        }
+        for (int i = lo1; i < hi1; i++) {
+            int symbol = symbols1[i];
+            if (index0[symbol] == 0)
+                index0[symbol] = next++;
+            gap1[i - lo1] = index0[symbol];
+        }
+        for (int i = lo0; i < hi0; i++) index0[symbols0[i]] = 0;
+        for (int i = lo1; i < hi1; i++) index0[symbols1[i]] = 0;
+
+        // shift hunks to indices of whole arrays
+        Diff.change script = new Diff(gap0, gap1).diff_2(false);
+        Diff.change result = null, last = null;
+        for (Diff.change hunk = script; hunk != null; hunk = hunk.link) {
+            Diff.change shifted = new Diff.change(
+                    hunk.line0 + lo0, hunk.line1 + lo1, hunk.deleted, hunk.inserted, null);
+            if (last == null)
+                result = shifted;
+            else
+                last.link = shifted;
+            last = shifted;
+        }
+        return result;
+    }
+
+    // growable array of primitive longs
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = value;
+        }
+
+        long[] toSortedArray() {
+            long[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
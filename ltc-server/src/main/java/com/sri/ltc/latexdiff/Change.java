@@ -24,6 +24,7 @@ package com.sri.ltc.latexdiff;
 import com.google.common.collect.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Super class for addition and deletion changes when comparing two LaTeX texts.
@@ -34,7 +35,7 @@ public abstract class Change<T> implements Comparable<Change> {
 
     public final int start_position;
     public final ImmutableList<IndexFlagsPair<T>> flags; // a list of flags by position/string fragments
-    private final Integer sequenceNumber;
+    private final long sequenceNumber;
 
     public enum Flag {
         DELETION('D'),
@@ -65,13 +66,9 @@ public abstract class Change<T> implements Comparable<Change> {
         return result;
     }
 
-    // sequence numbering for any Change object created
-    private static Integer sequence = 0;
-    public static void resetSequenceNumbering() {
-        synchronized (sequence) {
-            sequence = 0;
-        }
-    }
+    // sequence numbering for any Change object created, which only increases so that changes created
+    // concurrently by different threads keep their order of creation within each thread
+    private final static AtomicLong SEQUENCE = new AtomicLong();
 
     protected Change(int start_position, List<IndexFlagsPair<T>> flags) {
         if (start_position < 0) throw new IllegalArgumentException("Start position of change cannot be negative");
@@ -82,9 +79,7 @@ public abstract class Change<T> implements Comparable<Change> {
                 .addAll(flags)
                 .build();
         // set and update sequence number:
-        synchronized (sequence) {
-            sequenceNumber = sequence++;
-        }
+        sequenceNumber = SEQUENCE.getAndIncrement();
     }
 
     public int compareTo(Change o) {
@@ -92,7 +87,7 @@ public abstract class Change<T> implements Comparable<Change> {
         if (result == 0) // if start position is the same, use class information: Addition smaller than Deletion
             result = this.getClass().getName().compareTo(o.getClass().getName());
         if (result == 0) // if class information is the same, compare using creation time
-            result = sequenceNumber.compareTo(o.sequenceNumber);
+            result = sequenceNumber < o.sequenceNumber ? -1 : (sequenceNumber == o.sequenceNumber ? 0 : 1);
         return result;
     }
 
@@ -105,7 +100,7 @@ public abstract class Change<T> implements Comparable<Change> {
 
         if (start_position != change.start_position) return false;
         if (!flags.equals(change.flags)) return false;
-        if (!sequenceNumber.equals(change.sequenceNumber)) return false;
+        if (sequenceNumber != change.sequenceNumber) return false;
 
         return true;
     }
@@ -114,7 +109,7 @@ public abstract class Change<T> implements Comparable<Change> {
     public int hashCode() {
         int result = start_position;
         result = 31 * result + flags.hashCode();
-        result = 31 * result + sequenceNumber.hashCode();
+        result = 31 * result + (int) (sequenceNumber ^ (sequenceNumber >>> 32));
         return result;
     }
 
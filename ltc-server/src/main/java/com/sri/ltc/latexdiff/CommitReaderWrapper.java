@@ -39,4 +39,9 @@ public final class CommitReaderWrapper extends AbstractReaderWrapper<Commit> imp
     public Reader createReader() throws VersionControlException {
         return getWrapped().getContents();
     }
+
+    @Override
+    public String getContentKey() {
+        return getWrapped().getContentKey();
+    }
 }
@@ -0,0 +1,372 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.sri.ltc.server.Metrics;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Memoizing the changes between two versions of a text, where the latter is given as a marked up document.
+ * Results are keyed by the content keys of the committed revisions that the changes depend on, as obtained
+ * from {@link ReaderWrapper#getContentKey()}, and by the settings of {@link LatexDiff}.  A marked up document
+ * with changes accumulated from several revisions is keyed by chaining the keys with {@link #getKey(String, String)},
+ * so that the same revisions are only compared once, no matter which versions are newer.  As keys are known
+ * without reading any text, changes are looked up with {@link #get(String)} before the earlier version is read
+ * and lexed, and only missing changes are calculated.
+ * <p>
+ * All caches share a memory store bounded by the estimated size of the changes; if the disk store is enabled
+ * and a directory is given at construction, the results are also persisted in files in that directory.  Each
+ * directory is bounded by removing the least recently used files once its files exceed the limit of the disk
+ * store.
+ *
+ * @author linda
+ */
+public final class DiffCache {
+
+    private final static Logger LOGGER = Logger.getLogger(DiffCache.class.getName());
+    private final static int FORMAT_VERSION = 1;
+    private final static String SUFFIX = ".diff";
+    private final static long MEMORY_BYTES = 32L << 20; // bound of memory store
+    private final static Cache<String,List<Change>> MEMORY = CacheBuilder.newBuilder()
+            .maximumWeight(MEMORY_BYTES)
+            .weigher(new Weigher<String,List<Change>>() {
+                @Override
+                public int weigh(String key, List<Change> changes) {
+                    return (int) Math.min(Integer.MAX_VALUE, estimateMemory(changes));
+                }
+            })
+            .build();
+    public final static long DEFAULT_DISK_STORE_LIMIT = 64L << 20;
+
+    private static boolean diskStoreEnabled = false;
+    private static long diskStoreLimit = DEFAULT_DISK_STORE_LIMIT;
+    private final static Map<File,Long> DISK_USAGE = new HashMap<File,Long>(); // bytes stored by directory
+
+    private final File directory;
+
+    /**
+     * Create a diff cache that uses the shared memory store and, if enabled, a disk store in the given directory.
+     *
+     * @param directory directory for the disk store or <code>null</code> if only the memory store is used
+     */
+    public DiffCache(File directory) {
+        this.directory = directory;
+    }
+
+    public static synchronized void setDiskStoreEnabled(boolean enabled) {
+        diskStoreEnabled = enabled;
+    }
+
+    public static synchronized boolean isDiskStoreEnabled() {
+        return diskStoreEnabled;
+    }
+
+    /**
+     * Set the number of bytes that the stored changes may occupy in each directory.  Once exceeded, the least
+     * recently used files are removed.
+     *
+     * @param bytes limit of the disk store per directory
+     */
+    public static synchronized void setDiskStoreLimit(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Cannot limit disk store to negative number of bytes");
+        diskStoreLimit = bytes;
+    }
+
+    public static synchronized long getDiskStoreLimit() {
+        return diskStoreLimit;
+    }
+
+    public static void clearMemory() {
+        MEMORY.invalidateAll();
+    }
+
+    /**
+     * Obtain the key of comparing the earlier revision with the given content key to the later one.  The key of
+     * the later revision may be a content key or the key of changes accumulated into a marked up document.
+     *
+     * @param earlier content key of the earlier revision or <code>null</code> if not committed
+     * @param later key of the later revision or <code>null</code> if not committed
+     * @return key of the changes or <code>null</code> if any of the given keys is <code>null</code>
+     */
+    public static String getKey(String earlier, String later) {
+        if (earlier == null || later == null)
+            return null;
+        return digest(earlier+" "+later+" "+LatexDiff.getPairingLimit()+" "+LatexDiff.getChunkingThreshold());
+    }
+
+    /**
+     * Obtain the changes stored under the given key, so that the versions need not be read or lexed if found.
+     *
+     * @param key key of the changes as obtained from {@link #getKey(String, String)} or <code>null</code>
+     * @return list of changes or <code>null</code> if none are stored under the given key
+     */
+    public List<Change> get(String key) {
+        if (key == null)
+            return null;
+
+        List<Change> changes = MEMORY.getIfPresent(key);
+        if (changes != null) {
+            Metrics.CACHE_HITS.increment(Metrics.CACHE_DIFF_MEMORY);
+            return changes;
+        }
+        Metrics.CACHE_MISSES.increment(Metrics.CACHE_DIFF_MEMORY);
+
+        File file = getFile(key);
+        if (file != null) {
+            if (file.exists())
+                try {
+                    changes = read(file);
+                    file.setLastModified(System.currentTimeMillis()); // recently used
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot read stored changes from "+file, e);
+                }
+            if (changes == null)
+                Metrics.CACHE_MISSES.increment(Metrics.CACHE_DIFF_DISK);
+            else {
+                Metrics.CACHE_HITS.increment(Metrics.CACHE_DIFF_DISK);
+                MEMORY.put(key, changes);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Calculate the changes between the given text and the given marked up document by calling
+     * {@link LatexDiff#getChanges(LexemeBuffer, String, ReaderWrapper)} and store them under the given key.
+     *
+     * @param latexDiff instance to calculate changes
+     * @param key key of the changes as obtained from {@link #getKey(String, String)} or <code>null</code>
+     *            if the changes cannot be stored
+     * @param text text of earlier version
+     * @param lexemes lexemes of earlier version, which may still be in analysis
+     * @param document marked up document of later version
+     * @return list of changes as returned by {@link LatexDiff#getChanges(ReaderWrapper, ReaderWrapper)}
+     * @throws Exception if the text cannot be analyzed or the changes cannot be calculated
+     */
+    public List<Change> calculate(LatexDiff latexDiff, String key, String text, Future<LexemeBuffer> lexemes,
+                                  MarkedUpDocument document)
+            throws Exception {
+        LexemeBuffer analyzed;
+        try {
+            analyzed = lexemes.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        List<Change> changes = latexDiff.getChanges(analyzed, text, new DocumentReaderWrapper(document));
+        if (key == null)
+            return changes;
+
+        File file = getFile(key);
+        if (file != null)
+            try {
+                write(file, changes);
+                recordUsage(directory, file.length());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot store changes in "+file, e);
+            }
+        MEMORY.put(key, changes);
+        return changes;
+    }
+
+    private File getFile(String key) {
+        if (directory == null || !isDiskStoreEnabled())
+            return null;
+        return new File(directory, key+SUFFIX);
+    }
+
+    // estimate bytes held by given changes in memory
+    private static long estimateMemory(List<Change> changes) {
+        long bytes = 64L;
+        for (Change change : changes) {
+            bytes += 48L + 32L * change.flags.size();
+            if (change instanceof Deletion)
+                for (IndexFlagsPair<String> pair : ((Deletion) change).flags)
+                    bytes += 2L * pair.index.length();
+        }
+        return bytes;
+    }
+
+    private static String digest(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new String(Hex.encodeHex(digest.digest(text.getBytes("UTF-8"))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // --- disk store ---
+
+    // add given bytes to the usage of given directory and remove least recently used files if over limit;
+    // the usage of a directory is obtained when first storing changes in it
+    private static void recordUsage(File directory, long bytes) {
+        synchronized (DISK_USAGE) {
+            Long usage = DISK_USAGE.get(directory);
+            if (usage == null || usage + bytes > getDiskStoreLimit())
+                usage = prune(directory, getDiskStoreLimit());
+            else
+                usage += bytes;
+            DISK_USAGE.put(directory, usage);
+        }
+    }
+
+    // remove least recently used files of given directory until they occupy at most 3/4 of given limit,
+    // if they exceed the limit, and return the bytes still stored
+    private static long prune(File directory, long limit) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null)
+            return 0L;
+        long usage = 0L;
+        final Map<File,Long> modified = new HashMap<File,Long>();
+        for (File file : files) {
+            usage += file.length();
+            modified.put(file, file.lastModified());
+        }
+        if (usage <= limit)
+            return usage;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return modified.get(file1).compareTo(modified.get(file2));
+            }
+        });
+        int removed = 0;
+        for (int i = 0; i < files.length && usage > 3 * limit / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                usage -= length;
+                removed++;
+            }
+        }
+        LOGGER.fine("Removed "+removed+" files of stored changes in "+directory);
+        return usage;
+    }
+
+    private static List<Change> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown format of stored changes");
+            int size = in.readInt();
+            List<Change> changes = Lists.newArrayListWithCapacity(size);
+            for (int i = 0; i < size; i++) {
+                boolean isDeletion = in.readBoolean();
+                int start_position = in.readInt();
+                int pairs = in.readInt();
+                if (isDeletion) {
+                    List<IndexFlagsPair<String>> flags = Lists.newArrayListWithCapacity(pairs);
+                    for (int j = 0; j < pairs; j++) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        flags.add(new IndexFlagsPair<String>(new String(bytes, "UTF-8"), readFlags(in)));
+                    }
+                    changes.add(new Deletion(start_position, flags));
+                } else {
+                    List<IndexFlagsPair<Integer>> flags = Lists.newArrayListWithCapacity(pairs);
+                    for (int j = 0; j < pairs; j++) {
+                        int index = in.readInt();
+                        flags.add(new IndexFlagsPair<Integer>(index, readFlags(in)));
+                    }
+                    changes.add(new Addition(start_position, flags));
+                }
+            }
+            return changes;
+        } finally {
+            in.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(File file, List<Change> changes) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory for stored changes");
+        // write to temporary file first and then rename to avoid reading partial files
+        File temp = File.createTempFile("changes", ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(changes.size());
+            for (Change change : changes) {
+                out.writeBoolean(change instanceof Deletion);
+                out.writeInt(change.start_position);
+                out.writeInt(change.flags.size());
+                if (change instanceof Deletion)
+                    for (IndexFlagsPair<String> pair : ((Deletion) change).flags) {
+                        byte[] bytes = pair.index.getBytes("UTF-8");
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                        writeFlags(out, pair.flags);
+                    }
+                else
+                    for (IndexFlagsPair<Integer> pair : ((Addition) change).flags) {
+                        out.writeInt(pair.index);
+                        writeFlags(out, pair.flags);
+                    }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            if (!file.exists())
+                throw new IOException("Cannot rename temporary file to "+file);
+        }
+    }
+
+    private static Set<Change.Flag> readFlags(DataInputStream in) throws IOException {
+        int bits = in.readInt();
+        Set<Change.Flag> flags = EnumSet.noneOf(Change.Flag.class);
+        for (Change.Flag flag : Change.Flag.values())
+            if ((bits & (1 << flag.ordinal())) != 0)
+                flags.add(flag);
+        return flags;
+    }
+
+    private static void writeFlags(DataOutputStream out, Set<Change.Flag> flags) throws IOException {
+        int bits = 0;
+        for (Change.Flag flag : flags)
+            bits |= 1 << flag.ordinal();
+        out.writeInt(bits);
+    }
+}
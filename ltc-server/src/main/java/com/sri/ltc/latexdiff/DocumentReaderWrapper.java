@@ -23,8 +23,6 @@ package com.sri.ltc.latexdiff;
 
 import javax.swing.text.BadLocationException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Wrapping a marked up document, which implements a method to remove any characters that are marked up as
@@ -44,29 +42,23 @@ public final class DocumentReaderWrapper extends AbstractReaderWrapper<MarkedUpD
     }
 
     @Override
-    public Lexeme removeAdditions(Lexeme lexeme) {
-        // remove any characters marked as additions
-        StringBuilder newContents = new StringBuilder();
-        List<Integer> removed = new ArrayList<Integer>(); // collect removed character positions
+    public boolean removeAdditions(LexemeBuffer lexemes, int index) {
+        // collect offsets of characters marked as additions
+        int pos = lexemes.getPosition(index);
+        int length = lexemes.getLength(index);
+        int[] removed = null;
+        int count = 0;
 
-        for (int i = 0; i < lexeme.length; i++)
-            if (getWrapped().isAddition(lexeme.pos+i))
-                removed.add(i);
-            else
-                newContents.append(lexeme.contents.charAt(i));
-        if (removed.isEmpty())
-            return lexeme;
-        else {
-            if (newContents.length() == 0)
-                return null; // the whole lexeme was an addition
-            else
-                return new Lexeme(
-                        lexeme.type,
-                        newContents.toString(),
-                        lexeme.pos,
-                        lexeme.preambleSeen,
-                        removed.toArray(new Integer[removed.size()])
-                );
-        }
+        for (int i = 0; i < length; i++)
+            if (getWrapped().isAddition(pos+i)) {
+                if (removed == null)
+                    removed = new int[length];
+                removed[count++] = i;
+            }
+        if (count == length && length > 0)
+            return false; // the whole lexeme was an addition
+        if (count > 0)
+            lexemes.removeCharacters(index, removed, count);
+        return true;
     }
 }
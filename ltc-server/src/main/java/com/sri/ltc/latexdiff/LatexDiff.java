@@ -26,6 +26,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.sri.ltc.CommonUtils;
 import com.sri.ltc.logging.LevelOptionHandler;
+import com.sri.ltc.server.FlightRecorder;
 import org.kohsuke.args4j.*;
 
 import java.io.*;
@@ -33,6 +34,9 @@ import java.util.*;
 import java.util.logging.Level;
 
 /**
+ * Calculating changes between two LaTeX texts.  An instance keeps no state between calls, so that the
+ * same instance can be used by multiple threads concurrently.
+ *
  * @author linda
  */
 public final class LatexDiff {
@@ -41,76 +45,118 @@ public final class LatexDiff {
             LexemeType.WORD,
             LexemeType.NUMERAL);
 
-    // variables to contain parts for diff'ing
-    private List<List<Lexeme>> lexemLists = new ArrayList<List<Lexeme>>();
-    private String[][] diffInputs = new String[3][];
-    Diff.change script;
+    /**
+     * Default number of lexemes in both texts combined, above which the texts are compared in chunks
+     * between anchors instead of as a whole.
+     */
+    public static final int DEFAULT_CHUNKING_THRESHOLD = 20000;
+    private static volatile int chunkingThreshold = DEFAULT_CHUNKING_THRESHOLD;
+
+    /**
+     * Set the number of lexemes in both texts combined, above which {@link AnchoredDiff} compares the texts
+     * in chunks between anchor lexemes that occur exactly once in both texts.  The resulting changes may differ
+     * from comparing the whole texts but calculating them takes about linear time for mostly unchanged texts.
+     *
+     * @param threshold number of lexemes; use 0 to always compare in chunks
+     *                  and {@link Integer#MAX_VALUE} to never do so
+     */
+    public static void setChunkingThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Chunking threshold must not be negative");
+        chunkingThreshold = threshold;
+    }
+
+    public static int getChunkingThreshold() {
+        return chunkingThreshold;
+    }
+
+    /**
+     * Default number of pairs of deleted and inserted lexemes in a replacement, above which no small changes
+     * are detected.
+     */
+    public static final int DEFAULT_PAIRING_LIMIT = 250000;
+    private static volatile int pairingLimit = DEFAULT_PAIRING_LIMIT;
+
+    /**
+     * Set the maximum number of pairs of deleted and inserted lexemes that are compared to detect small changes
+     * in a replacement.  Larger replacements, such as a pasted-over section, are treated as plain deletions
+     * and additions.
+     *
+     * @param limit maximum number of pairs; use 0 to never detect small changes
+     */
+    public static void setPairingLimit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("Pairing limit must not be negative");
+        pairingLimit = limit;
+    }
+
+    public static int getPairingLimit() {
+        return pairingLimit;
+    }
 
     // TODO: make this private (and unit test via reflection?)
     /**
      * Perform lexical analysis on the text given as a wrapper of a reader.
      * Remove whitespace in the whole text and paragraphs in the preamble.
-     * Also removes any lexemes that are marked as additions if the wrapper changes them into NULL.
+     * Also removes any lexemes that are marked as additions if the wrapper reports them as completely added.
      * Closes the reader after analysis.
      * <p>
-     * The return value is a pair of the resulting list of lexemes and an
-     * index of the preamble, even if the preamble was removed during analysis
-     * due to being marked as an addition.  If the preamble index is -1, then
-     * no preamble was seen.
-     *
+     * The lexer appends to the returned buffer directly and removals are done by compacting the buffer
+     * in place, so that no objects are created per lexeme.
      *
      * @param wrapper Wrapper of reader pointing to text to be analyzed
-     * @return List of Lexemes obtained from analysis (never null) and preamble index.
+     * @return Buffer of lexemes obtained from analysis (never null)
      * @throws IOException if the scanner encounters an IOException
      */
-    public List<Lexeme> analyze(ReaderWrapper wrapper) throws Exception {
-        List<Lexeme> list = new ArrayList<Lexeme>(Arrays.asList(new Lexeme[]{
-                new Lexeme(LexemeType.START_OF_FILE, "", 0, false)}));
-        Lexer scanner = new Lexer(wrapper.createReader());
-        List<Lexeme> lexemes;
-
-        while ((lexemes = scanner.yylex()) != null)
-            for (Lexeme lexeme : lexemes)
-                if (!LexemeType.WHITESPACE.equals(lexeme.type)) { // ignore whitespace
-                    lexeme = wrapper.removeAdditions(lexeme); // remove any additions
-                    if (lexeme != null)
-                        list.add(lexeme);
-                }
+    public LexemeBuffer analyze(ReaderWrapper wrapper) throws Exception {
+        FlightRecorder.Event event = FlightRecorder.ANALYZE.begin();
+        String text = CommonUtils.copyText(wrapper.createReader());
+        LexemeBuffer lexemes = new LexemeBuffer(text);
+        lexemes.add(LexemeType.START_OF_FILE, 0, 0, false);
+        Lexer scanner = new Lexer(new StringReader(text), lexemes);
+
+        // compact lexemes appended by the scanner in place:
+        int size = lexemes.size();
+        while (scanner.yylex() != Lexer.YYEOF) {
+            for (int i = size; i < lexemes.size(); i++)
+                if (!LexemeType.WHITESPACE.equals(lexemes.getType(i)) // ignore whitespace
+                        && wrapper.removeAdditions(lexemes, i)) // remove any additions
+                    lexemes.move(i, size++);
+            lexemes.truncate(size);
+        }
         scanner.yyclose();
 
         // remove paragraphs in the preamble if there is one:
-        if (list.get(list.size() - 1).preambleSeen) { // EOF Lexeme has seen preamble
-            for (ListIterator<Lexeme> i = list.listIterator(); i.hasNext(); ) {
-                Lexeme lexeme = i.next();
-                if (lexeme.preambleSeen)
-                    break; // done with preamble
-                if (LexemeType.PARAGRAPH.equals(lexeme.type))
-                    i.remove();
+        if (lexemes.isPreambleSeen(lexemes.size() - 1)) { // EOF Lexeme has seen preamble
+            size = 0;
+            boolean inPreamble = true;
+            for (int i = 0; i < lexemes.size(); i++) {
+                if (lexemes.isPreambleSeen(i))
+                    inPreamble = false; // done with preamble
+                if (!inPreamble || !LexemeType.PARAGRAPH.equals(lexemes.getType(i)))
+                    lexemes.move(i, size++);
             }
+            lexemes.truncate(size);
         }
-        return list;
-    }
-
-    private Character[] toCharacters(char[] chars) {
-        Character[] characters = new Character[chars.length];
-        for (int i = 0; i < chars.length; i++) characters[i] = chars[i];
-        return characters;
+        event.set("characters", text.length()).set("lexemes", lexemes.size()).commit();
+        return lexemes;
     }
 
-    private EnumSet<Change.Flag> buildFlags(boolean isDeletion, boolean isSmall, Lexeme lexeme, boolean preamblePresent) {
+    private EnumSet<Change.Flag> buildFlags(boolean isDeletion, boolean isSmall, LexemeBuffer lexemes, int index,
+                                            boolean preamblePresent) {
         EnumSet<Change.Flag> flags = EnumSet.noneOf(Change.Flag.class);
         if (isDeletion) flags.add(Change.Flag.DELETION);
         if (isSmall) flags.add(Change.Flag.SMALL);
-        if (preamblePresent && !lexeme.preambleSeen) flags.add(Change.Flag.PREAMBLE);
-        if (LexemeType.COMMAND.equals(lexeme.type)) flags.add(Change.Flag.COMMAND);
+        if (preamblePresent && !lexemes.isPreambleSeen(index)) flags.add(Change.Flag.PREAMBLE);
+        if (LexemeType.COMMAND.equals(lexemes.getType(index))) flags.add(Change.Flag.COMMAND);
         return flags;
     }
 
-    @SuppressWarnings("unchecked")
-    private SortedSet<Change> mergeSmallDiffResult(Diff.change changes, String text0, Lexeme lexeme1, boolean preamblePresent) {
+    private SortedSet<Change> mergeSmallDiffResult(Diff.change changes, String text0,
+                                                   LexemeBuffer list1, int i1, boolean preamblePresent) {
         SortedSet<Change> result = new TreeSet<Change>();
 
-        Queue<Integer> removed = Lists.newLinkedList(Lists.newArrayList(lexeme1.removed));
+        int removed = 0, removedCount = list1.getRemovedCount(i1); // next and number of removed characters
         int offset = 0; // keep track of current offset to be applied to transforming positions
 
         // go through linked list of changes
@@ -119,17 +165,17 @@ public final class LatexDiff {
                 continue;
 
             // transform hunk.line1 into position taking 'removed' into account
-            while (removed.peek() != null && hunk.line1 + offset >= removed.peek()) {
-                Integer head;
+            while (removed < removedCount && hunk.line1 + offset >= list1.getRemoved(i1, removed)) {
+                int head;
                 int n_removed = 0;
                 do {
                     n_removed++;
-                    head = removed.poll();
-                } while (head != null && removed.peek() != null && (head + 1) == removed.peek());
+                    head = list1.getRemoved(i1, removed++);
+                } while (removed < removedCount && (head + 1) == list1.getRemoved(i1, removed));
                 offset += n_removed;
             }
 
-            int start_position = lexeme1.pos + hunk.line1 + offset;
+            int start_position = list1.getPosition(i1) + hunk.line1 + offset;
 
             // Additions
             if (hunk.inserted > 0) {
@@ -137,7 +183,7 @@ public final class LatexDiff {
                         start_position,
                         Arrays.asList(new IndexFlagsPair<Integer>(
                                 start_position + hunk.inserted,
-                                buildFlags(false, true, lexeme1, preamblePresent)))));
+                                buildFlags(false, true, list1, i1, preamblePresent)))));
             }
 
             // Deletions
@@ -146,14 +192,14 @@ public final class LatexDiff {
                         start_position,
                         Arrays.asList(new IndexFlagsPair<String>(
                                 text0.substring(hunk.line0, hunk.line0 + hunk.deleted),
-                                buildFlags(true, true, lexeme1, preamblePresent)))));
+                                buildFlags(true, true, list1, i1, preamblePresent)))));
             }
         }
 
         return result;
     }
 
-    private boolean isSmallChange(Lexeme lexeme0, Lexeme lexeme1) {
+    private boolean isSmallChange(LexemeBuffer list0, int i0, LexemeBuffer list1, int i1) {
         // small changes := lexemes are not both PARAGRAPHS
         //   and are of the same type
         //   and have a Levenshtein distance less than 3 and less than the length of shorter lexeme
@@ -161,23 +207,25 @@ public final class LatexDiff {
         // TODO: consider using Damerau-Levenshtein and limit to 1 instead!
         // see (http://spider.my/static/contrib/Levenshtein.java)
 
-        if (LexemeType.PARAGRAPH.equals(lexeme0.type)) return false;
-        if (!lexeme0.type.equals(lexeme1.type)) return false;
+        if (LexemeType.PARAGRAPH.equals(list0.getType(i0))) return false;
+        if (!list0.getType(i0).equals(list1.getType(i1))) return false;
 
-        int distance = Levenshtein.getLevenshteinDistance(lexeme0.contents, lexeme1.contents);
-        if (distance >= 3) return false;
+        int limit = Math.min(3, Math.min(list0.getLength(i0), list1.getLength(i1)));
+        if (limit == 0) return false;
 
-        int shorterLength = Math.min(lexeme0.contents.length(), lexeme1.contents.length());
-        if (distance >= shorterLength) return false;
-
-        return true;
+        // bounded calculation stops as soon as distance reaches limit
+        int distance = Levenshtein.getLevenshteinDistance(
+                list0.getChars(), list0.getStart(i0), list0.getLength(i0),
+                list1.getChars(), list1.getStart(i1), list1.getLength(i1),
+                limit);
+        return distance < limit;
     }
 
     // for positioning details refer to tables in specification/tech report
-    private List<Change> mergeDiffResult(Diff.change changes, List<Lexeme> list0, List<Lexeme> list1,
+    private List<Change> mergeDiffResult(Diff.change changes, LexemeBuffer list0, LexemeBuffer list1,
                                          String contents0) {
         SortedSet<Change> result = new TreeSet<Change>();
-        boolean preamblePresent = list1.get(list1.size() - 1).preambleSeen; // whether list1 has seen preamble
+        boolean preamblePresent = list1.isPreambleSeen(list1.size() - 1); // whether list1 has seen preamble
 
         // go through linked list of changes and convert each hunk into Change(s):
         int last_i0 = 0, last_i1 = 0; // remember last position of replacements to avoid checking them again
@@ -189,7 +237,9 @@ public final class LatexDiff {
 
             // determine, if this could be a replacement containing small changes:
             // compare each lexeme from list0 to each in list1
-            if (hunk.line0 >= last_i0 && hunk.line1 >= last_i1 && hunk.deleted > 0 && hunk.inserted > 0) {
+            // (unless the replacement is too large to compare all pairs)
+            if (hunk.line0 >= last_i0 && hunk.line1 >= last_i1 && hunk.deleted > 0 && hunk.inserted > 0 &&
+                    (long) hunk.deleted * hunk.inserted <= pairingLimit) {
                 // collect hunks that are not small here to insert for further processing:
                 List<IndexLengthPair> newHunks = new ArrayList<IndexLengthPair>();
                 int i0 = hunk.line0, i1 = hunk.line1;
@@ -198,17 +248,16 @@ public final class LatexDiff {
                 int start_i1 = hunk.line1; // shorten inner loop after matching small changes
                 for (; i0 < hunk.line0 + hunk.deleted; i0++) {
                     for (i1 = start_i1; i1 < hunk.line1 + hunk.inserted; i1++) {
-                        Lexeme lexeme0 = list0.get(i0);
-                        Lexeme lexeme1 = list1.get(i1);
-                        if (isSmallChange(lexeme0, lexeme1)) {
+                        if (isSmallChange(list0, i0, list1, i1)) {
                             // small change: determine character diff using arrays of characters from contents
-                            Diff chardiff = new Diff(
-                                    toCharacters(lexeme0.contents.toCharArray()),
-                                    toCharacters(lexeme1.contents.toCharArray()));
+                            int[][] characters = SymbolTable.intern(
+                                    list0.getChars(), list0.getStart(i0), list0.getLength(i0),
+                                    list1.getChars(), list1.getStart(i1), list1.getLength(i1));
+                            Diff chardiff = new Diff(characters[0], characters[1]);
                             result.addAll(
                                     mergeSmallDiffResult(chardiff.diff_2(false),
-                                            lexeme0.contents,
-                                            lexeme1,
+                                            list0.getContents(i0),
+                                            list1, i1,
                                             preamblePresent));
                             // prepare new hunks (if needed)
                             if (i0 > last_i0 || i1 > last_i1)
@@ -259,7 +308,7 @@ public final class LatexDiff {
             if (hunk.inserted > 0) {
                 // build list of flags:
                 List<IndexFlagsPair<Integer>> flags = new ArrayList<IndexFlagsPair<Integer>>();
-                List<IndexPair> indices = getIndices(list1.subList(hunk.line1, hunk.line1 + hunk.inserted), preamblePresent, hunk.line1, false);
+                List<IndexPair> indices = getIndices(list1, hunk.line1, hunk.line1 + hunk.inserted, preamblePresent, false);
                 for (IndexPair indexPair : indices) {
                     if (indexPair.left.equals(indexPair.right)) { // extra pair to indicate change in flags
                         int ix = calcPosition(list1, indexPair.left - 1, true);
@@ -292,12 +341,12 @@ public final class LatexDiff {
                 // add one space after deletion if replacement without bordering space and next lexeme is a WORD or NUMERAL:
                 // (starred cases in replacement position table)
                 boolean addSpace = (hunk.inserted > 0 &&
-                        WORDS.contains(list1.get(hunk.line1).type) &&
+                        WORDS.contains(list1.getType(hunk.line1)) &&
                         ex0 == ey0 && sx1 == sy1);
 
                 // build list of flags:
                 List<IndexFlagsPair<String>> flags = new ArrayList<IndexFlagsPair<String>>();
-                List<IndexPair> indices = getIndices(list0.subList(hunk.line0, hunk.line0 + hunk.deleted), preamblePresent, hunk.line0, true);
+                List<IndexPair> indices = getIndices(list0, hunk.line0, hunk.line0 + hunk.deleted, preamblePresent, true);
 
                 for (IndexPair indexPair : indices) {
                     if (indexPair.left.equals(indexPair.right)) { // extra pair to indicate change in flags
@@ -331,32 +380,33 @@ public final class LatexDiff {
         return new ArrayList<Change>(result);
     } // end of mergeDiffResult()
 
-    // calculate pairs of indices that indicate successive lexemes in given input list
+    // calculate pairs of indices that indicate successive lexemes in given range of lexemes
     // with the same settings for PREAMBLE and COMMAND.
     // also evaluates the difference between inner regions:
     // if the intersection is neither the left nor the right set of flags, add additional region of length = 0
-    private List<IndexPair> getIndices(List<Lexeme> list, boolean preamblePresent, int offset, boolean isDeletion) {
-        if (list == null || list.isEmpty())
+    private List<IndexPair> getIndices(LexemeBuffer lexemes, int start, int end, boolean preamblePresent,
+                                       boolean isDeletion) {
+        if (start >= end)
             return Lists.newArrayList();
         SortedSet<IndexPair> result = new TreeSet<IndexPair>();
-        // go through list and collect pairs of indices for regions with the same flags:
-        int lastIndex = 0;
+        // go through range and collect pairs of indices for regions with the same flags:
+        int lastIndex = start;
         Set<Change.Flag> lastFlags = buildFlags(isDeletion, false,
-                list.get(0), preamblePresent);
-        for (int i = 1; i < list.size(); i++) {
+                lexemes, start, preamblePresent);
+        for (int i = start + 1; i < end; i++) {
             Set<Change.Flag> currentFlags = buildFlags(isDeletion, false,
-                    list.get(i), preamblePresent);
+                    lexemes, i, preamblePresent);
             if (!lastFlags.equals(currentFlags)) {
                 // evaluate difference to next region:
                 Set<Change.Flag> intersection = Sets.intersection(lastFlags, currentFlags);
                 if (intersection.equals(lastFlags)) {
-                    result.add(new IndexPair(lastIndex + offset, i + offset, true, lastFlags));
+                    result.add(new IndexPair(lastIndex, i, true, lastFlags));
                 } else {
                     if (!intersection.equals(currentFlags)) {
                         // change in flags that cannot be reconciled: add extra index pair
-                        result.add(new IndexPair(i + offset, i + offset, false, intersection));
+                        result.add(new IndexPair(i, i, false, intersection));
                     }
-                    result.add(new IndexPair(lastIndex + offset, i + offset, false, lastFlags));
+                    result.add(new IndexPair(lastIndex, i, false, lastFlags));
                 }
                 // the following will be sorted before any extra index pairs:
                 lastIndex = i;
@@ -364,16 +414,16 @@ public final class LatexDiff {
             }
         }
         // add last pair
-        result.add(new IndexPair(lastIndex + offset, list.size() + offset, true, lastFlags)); // last one often extends to next lexeme
+        result.add(new IndexPair(lastIndex, end, true, lastFlags)); // last one often extends to next lexeme
         return new ArrayList<IndexPair>(result);
     } // end of getIndices()
 
-    // calc position in given lexeme list at index (either beginning or end of lexeme)
-    private int calcPosition(List<Lexeme> list, int index, boolean atEnd) {
+    // calc position in given lexemes at index (either beginning or end of lexeme in the analyzed text)
+    private int calcPosition(LexemeBuffer lexemes, int index, boolean atEnd) {
         if (atEnd)
-            return list.get(index).pos + list.get(index).length;
+            return lexemes.getPosition(index) + lexemes.getLength(index);
         else
-            return list.get(index).pos;
+            return lexemes.getPosition(index);
     }
 
     /**
@@ -387,34 +437,69 @@ public final class LatexDiff {
      * @return an ordered list of changes from old to new version
      * @throws IOException if the text cannot be extracted from the wrapped reader
      */
-    public synchronized List<Change> getChanges(ReaderWrapper readerWrapper1, ReaderWrapper readerWrapper2)
+    public List<Change> getChanges(ReaderWrapper readerWrapper1, ReaderWrapper readerWrapper2)
             throws Exception {
+        return getChanges(analyze(readerWrapper1), CommonUtils.copyText(readerWrapper1.createReader()), readerWrapper2);
+    }
 
-        // Run lexical analyzer over both files to get lexeme and locations
-        Change.resetSequenceNumbering();
-        lexemLists.clear(); // start with empty lists
-        lexemLists.add(analyze(readerWrapper1));
-        lexemLists.add(analyze(readerWrapper2));
-
-        // Diff between lexeme (without locations):
-        // collect relevant lexemes into arrays
-        for (int i = 0; i < 2; i++) {
-            // go through each lexeme list and build up string arrays:
-            List<Lexeme> lexemes = lexemLists.get(i);
-            diffInputs[i] = new String[lexemes.size()];
-            int j = 0;
-            for (Lexeme lexeme : lexemes) {
-                diffInputs[i][j] = lexeme.type + " " + lexeme.displayContents();
-                j++;
-            }
+    /**
+     * Obtain changes from an old text that has already been analyzed and a new text given as wrapped reader.
+     * This allows to perform the lexical analysis of old texts in advance and concurrently.
+     *
+     * @param lexemes1 lexemes of old version as obtained from {@link #analyze(ReaderWrapper)}
+     * @param contents1 text of old version
+     * @param readerWrapper2 text that denotes new version
+     * @return an ordered list of changes from old to new version
+     * @throws IOException if the text cannot be extracted from the wrapped reader
+     * @see #getChanges(ReaderWrapper, ReaderWrapper)
+     */
+    public List<Change> getChanges(LexemeBuffer lexemes1, String contents1, ReaderWrapper readerWrapper2)
+            throws Exception {
+        FlightRecorder.Event event = FlightRecorder.DIFF.begin();
+        List<Change> changes = diff(lexemes1, contents1, readerWrapper2);
+        event.set("lexemes", lexemes1.size()).set("changes", changes.size()).commit();
+        return changes;
+    }
+
+    private List<Change> diff(LexemeBuffer lexemes1, String contents1, ReaderWrapper readerWrapper2)
+            throws Exception {
+
+        // Run lexical analyzer over new file to get lexeme and locations
+        LexemeBuffer lexemes2 = analyze(readerWrapper2);
+
+        // Diff between lexeme (without locations) as interned numbers
+        SymbolTable symbols = new SymbolTable();
+        int[] symbols1 = symbols.intern(lexemes1);
+        int[] symbols2 = symbols.intern(lexemes2);
+
+        if (symbols1.length + symbols2.length <= chunkingThreshold) {
+            Diff.change script = new Diff(symbols1, symbols2).diff_2(false);
+
+            // merge diff result with location information and convert into list of changes
+            return mergeDiffResult(script, lexemes1, lexemes2, contents1);
         }
-        // create and save change script
-        script = new Diff(diffInputs[0], diffInputs[1]).diff_2(false);
 
-        // merge diff result with location information and convert into list of changes
-        return mergeDiffResult(script,
-                lexemLists.get(0), lexemLists.get(1),
-                CommonUtils.copyText(readerWrapper1.createReader()));
+        // large texts: diff and merge one gap between anchors at a time;
+        // as gaps are separated by at least one unchanged lexeme, the changes of later gaps come after earlier ones
+        AnchoredDiff anchoredDiff = new AnchoredDiff(symbols1, symbols2);
+        List<Change> result = new ArrayList<Change>();
+        for (int gap = 0; gap < anchoredDiff.gaps(); gap++) {
+            Diff.change script = anchoredDiff.diff(gap);
+            if (script != null)
+                result.addAll(mergeDiffResult(script, lexemes1, lexemes2, contents1));
+        }
+        return result;
+    }
+
+    // collect relevant parts of lexemes into array for printing
+    private static String[] toDiffInput(List<Lexeme> lexemes) {
+        String[] diffInput = new String[lexemes.size()];
+        int j = 0;
+        for (Lexeme lexeme : lexemes) {
+            diffInput[j] = lexeme.type + " " + lexeme.displayContents();
+            j++;
+        }
+        return diffInput;
     }
 
     private static void printUsage(PrintStream out, CmdLineParser parser) {
@@ -447,16 +532,19 @@ public final class LatexDiff {
 
         try {
             LatexDiff latexDiff = new LatexDiff();
-            List<Change> changes = latexDiff.getChanges(
-                    new FileReaderWrapper(options.file1),
-                    new FileReaderWrapper(options.file2));
             // Convert to output
             if (options.asXML)
-                for (Change c : changes)
+                for (Change c : latexDiff.getChanges(
+                        new FileReaderWrapper(options.file1),
+                        new FileReaderWrapper(options.file2)))
                     System.out.println(c);
-            else
-                new LocationPrint(latexDiff.diffInputs[0], latexDiff.diffInputs[1],
-                        latexDiff.lexemLists.get(0), latexDiff.lexemLists.get(1)).print_script(latexDiff.script);
+            else {
+                List<Lexeme> list0 = latexDiff.analyze(new FileReaderWrapper(options.file1)).asList();
+                List<Lexeme> list1 = latexDiff.analyze(new FileReaderWrapper(options.file2)).asList();
+                String[] a = toDiffInput(list0);
+                String[] b = toDiffInput(list1);
+                new LocationPrint(a, b, list0, list1).print_script(new Diff(a, b).diff_2(false));
+            }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
             System.exit(ReturnCodes.FILE_NOT_FOUND.ordinal());
@@ -38,6 +38,22 @@ public class Levenshtein {
             throw new IllegalArgumentException("Strings must not be null");
         }
 
+        return getLevenshteinDistance(s.toCharArray(), 0, s.length(), t.toCharArray(), 0, t.length());
+    }
+
+    /**
+     * Same as {@link #getLevenshteinDistance(String, String)} but for ranges of character arrays,
+     * so that lexemes do not have to be copied into strings.
+     *
+     * @param s characters of first range
+     * @param sStart start of first range
+     * @param n length of first range
+     * @param t characters of second range
+     * @param tStart start of second range
+     * @param m length of second range
+     * @return Levenshtein distance between both ranges
+     */
+    public static int getLevenshteinDistance (char[] s, int sStart, int n, char[] t, int tStart, int m) {
         /*
           The difference between this impl. and the previous is that, rather
            than creating and retaining a matrix of size s.length()+1 by t.length()+1,
@@ -55,9 +71,6 @@ public class Levenshtein {
            cause an out of memory condition when calculating the LD over two very large strings.
         */
 
-        int n = s.length(); // length of s
-        int m = t.length(); // length of t
-
         if (n == 0) {
             return m;
         } else if (m == 0) {
@@ -81,11 +94,11 @@ public class Levenshtein {
         }
 
         for (j = 1; j<=m; j++) {
-            t_j = t.charAt(j-1);
+            t_j = t[tStart+j-1];
             d[0] = j;
 
             for (i=1; i<=n; i++) {
-                cost = s.charAt(i-1)==t_j ? 0 : 1;
+                cost = s[sStart+i-1]==t_j ? 0 : 1;
                 // minimum of cell to the left+1, to the top+1, diagonally left and up +cost
                 d[i] = Math.min(Math.min(d[i-1]+1, p[i]+1),  p[i-1]+cost);
             }
@@ -101,4 +114,68 @@ public class Levenshtein {
         return p[n];
     }
 
+    /**
+     * Bounded version of {@link #getLevenshteinDistance(char[], int, int, char[], int, int)}, which only
+     * determines whether the distance is less than the given limit.  As any alignment with a smaller distance
+     * stays within limit-1 diagonals, only this band of the cost matrix is calculated, and the calculation ends
+     * as soon as all costs in a row reach the limit.  This takes O(limit * length) time instead of O(length^2).
+     *
+     * @param s characters of first range
+     * @param sStart start of first range
+     * @param n length of first range
+     * @param t characters of second range
+     * @param tStart start of second range
+     * @param m length of second range
+     * @param limit positive bound on distance
+     * @return Levenshtein distance between both ranges if it is less than <code>limit</code>, otherwise
+     * <code>limit</code>
+     */
+    public static int getLevenshteinDistance (char[] s, int sStart, int n, char[] t, int tStart, int m, int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be positive");
+        if (Math.abs(n - m) >= limit)
+            return limit;
+        if (n == 0)
+            return m;
+        if (m == 0)
+            return n;
+
+        int band = limit - 1; // number of diagonals on either side of the main diagonal
+        int p[] = new int[n+1]; //'previous' cost array, horizontally
+        int d[] = new int[n+1]; // cost array, horizontally
+        int _d[]; //placeholder to assist in swapping p and d
+
+        for (int i = 0; i <= n; i++)
+            p[i] = Math.min(i, limit); // costs outside of band are at least limit
+
+        for (int j = 1; j <= m; j++) {
+            char t_j = t[tStart+j-1];
+            int from = Math.max(1, j - band);
+            int to = Math.min(n, j + band);
+            int rowMin = limit;
+            if (from == 1) {
+                d[0] = Math.min(j, limit);
+                rowMin = d[0];
+            } else
+                d[from-1] = limit;
+
+            for (int i = from; i <= to; i++) {
+                int cost = s[sStart+i-1]==t_j ? 0 : 1;
+                int value = Math.min(Math.min(d[i-1]+1, p[i]+1), p[i-1]+cost);
+                d[i] = Math.min(value, limit);
+                rowMin = Math.min(rowMin, d[i]);
+            }
+            if (to < n)
+                d[to+1] = limit;
+
+            if (rowMin >= limit)
+                return limit; // early exit: costs never decrease along any path
+
+            _d = p;
+            p = d;
+            d = _d;
+        }
+
+        return Math.min(p[n], limit);
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lexemes of one text stored as columns of primitive values instead of one object per lexeme.
+ * The lexer appends to the columns directly and the contents of each lexeme are given as an offset
+ * into an array of characters that starts with the analyzed text itself.  Only lexemes whose contents
+ * were changed by removing additions refer to characters appended after the text.
+ * <p>
+ * Indices given to the accessors are not checked against {@link #size()}.
+ *
+ * @author linda
+ */
+public final class LexemeBuffer {
+
+    private final static LexemeType[] TYPES = LexemeType.values();
+    private final static int PREAMBLE_SEEN = 1;
+
+    private char[] chars;
+    private int charCount;
+
+    private int[] types, positions, lengths, starts, flags, removedStarts, removedCounts;
+    private int size = 0;
+
+    private int[] removed = new int[16];
+    private int removedCount = 0;
+
+    public LexemeBuffer(String text) {
+        this.chars = text.toCharArray();
+        this.charCount = chars.length;
+        int capacity = Math.max(16, chars.length / 4);
+        types = new int[capacity];
+        positions = new int[capacity];
+        lengths = new int[capacity];
+        starts = new int[capacity];
+        flags = new int[capacity];
+        removedStarts = new int[capacity];
+        removedCounts = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a lexeme whose contents are the characters of the analyzed text at the given position.
+     *
+     * @param type type of lexeme
+     * @param pos position of lexeme in analyzed text
+     * @param length number of characters of lexeme
+     * @param preambleSeen whether the preamble has been seen before this lexeme
+     */
+    void add(LexemeType type, int pos, int length, boolean preambleSeen) {
+        if (size == types.length)
+            grow();
+        types[size] = type.ordinal();
+        positions[size] = pos;
+        lengths[size] = length;
+        starts[size] = pos;
+        flags[size] = preambleSeen ? PREAMBLE_SEEN : 0;
+        removedStarts[size] = 0;
+        removedCounts[size] = 0;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        removedStarts = Arrays.copyOf(removedStarts, capacity);
+        removedCounts = Arrays.copyOf(removedCounts, capacity);
+    }
+
+    /**
+     * Copy the lexeme at the first index over the lexeme at the second index.  Together with
+     * {@link #truncate(int)} this allows to remove lexemes while compacting the buffer in one pass.
+     */
+    void move(int from, int to) {
+        if (from == to)
+            return;
+        types[to] = types[from];
+        positions[to] = positions[from];
+        lengths[to] = lengths[from];
+        starts[to] = starts[from];
+        flags[to] = flags[from];
+        removedStarts[to] = removedStarts[from];
+        removedCounts[to] = removedCounts[from];
+    }
+
+    void truncate(int size) {
+        if (size < 0 || size > this.size)
+            throw new IndexOutOfBoundsException("Cannot truncate "+this.size+" lexemes to "+size);
+        this.size = size;
+    }
+
+    /**
+     * Remove the characters at the given offsets from the contents of the lexeme at the given index.
+     * The position of the lexeme remains unchanged.
+     *
+     * @param index index of lexeme
+     * @param offsets offsets of removed characters relative to the start of the lexeme in ascending order
+     * @param count number of offsets to use
+     */
+    void removeCharacters(int index, int[] offsets, int count) {
+        int length = lengths[index];
+        if (charCount + length - count > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        if (removedCount + count > removed.length)
+            removed = Arrays.copyOf(removed, Math.max(removed.length * 2, removedCount + count));
+        int start = starts[index];
+        int newStart = charCount;
+        for (int i = 0, k = 0; i < length; i++)
+            if (k < count && offsets[k] == i)
+                k++;
+            else
+                chars[charCount++] = chars[start + i];
+        starts[index] = newStart;
+        lengths[index] = charCount - newStart;
+        System.arraycopy(offsets, 0, removed, removedCount, count);
+        removedStarts[index] = removedCount;
+        removedCounts[index] = count;
+        removedCount += count;
+    }
+
+    public LexemeType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getPosition(int index) {
+        return positions[index];
+    }
+
+    /**
+     * @return number of characters of the contents, which is less than the number of characters
+     * in the analyzed text if characters were removed
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public boolean isPreambleSeen(int index) {
+        return (flags[index] & PREAMBLE_SEEN) != 0;
+    }
+
+    /**
+     * @return array of characters that contains the contents of all lexemes, which must not be modified
+     */
+    char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * @return offset of contents of lexeme at given index into {@link #getChars()}
+     */
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    public String getContents(int index) {
+        return new String(chars, starts[index], lengths[index]);
+    }
+
+    int getRemovedCount(int index) {
+        return removedCounts[index];
+    }
+
+    int getRemoved(int index, int i) {
+        return removed[removedStarts[index] + i];
+    }
+
+    /**
+     * Create a lexeme object for the entry at given index.
+     */
+    public Lexeme get(int index) {
+        Integer[] removed = new Integer[removedCounts[index]];
+        for (int i = 0; i < removed.length; i++)
+            removed[i] = getRemoved(index, i);
+        return new Lexeme(getType(index), getContents(index), positions[index], isPreambleSeen(index), removed);
+    }
+
+    /**
+     * @return read-only view of this buffer as a list, which creates lexeme objects on access
+     */
+    public List<Lexeme> asList() {
+        return new LexemeList();
+    }
+
+    private final class LexemeList extends AbstractList<Lexeme> implements RandomAccess {
+        @Override
+        public Lexeme get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index "+index+" of "+size+" lexemes");
+            return LexemeBuffer.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
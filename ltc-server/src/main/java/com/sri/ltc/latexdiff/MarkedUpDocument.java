@@ -21,12 +21,12 @@
  */
 package com.sri.ltc.latexdiff;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.sri.ltc.server.FlightRecorder;
 
-import javax.swing.text.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.io.Reader;
 import java.io.StringReader;
@@ -37,73 +37,122 @@ import java.util.regex.Pattern;
 /**
  * Document with mark ups concerning additions and deletions, as well as status flags.
  * <p>
+ * The text is kept in a gap buffer and the mark up as a list of runs, which are ranges of
+ * characters with the same style, color, author and revision indices, and flags.  Accumulating changes
+ * typically inserts and marks up text at increasing positions, so that both are cheap and no attributes
+ * are allocated per character.
+ * <p>
  * After using a MarkedUpDocument for accumulating changes, a set of filters can be
  * applied using {@link #applyFiltering(java.util.Set, java.util.Set, int)} exactly once, otherwise
  * a runtime exception is thrown.
  *
  * @author linda
  */
-public final class MarkedUpDocument extends DefaultStyledDocument {
+public final class MarkedUpDocument {
 
     public enum KEYS {TEXT, POSITION}
 
     private final static String ADDITION_STYLE = "addition";
     private final static String DELETION_STYLE = "deletion";
-    private final static String AUTHOR_INDEX = "author index";
-    private final static String REVISION_INDEX = "revision name";
-    private final static String FLAGS_ATTR = "flag attribute";
-    private static final long serialVersionUID = -6945312419206148753L;
+    private final static String DEFAULT_STYLE = "default";
+    private final static Markup DEFAULT_MARKUP = new Markup(DEFAULT_STYLE, null, null, null, null);
     // any non-empty, consecutive white space or newline at beginning
     // to match anything irrelevant marked up in front of suppressed COMMENTS:
     public static final Pattern LEADING_WHITE = Pattern.compile("\\A([ \\t\\n]+).*\\Z", Pattern.DOTALL);
 
-    private Boolean applyFilteringCalled = false;
+    private boolean applyFilteringCalled = false;
 
-    private Position caret = getStartPosition();
+    private int caret = 0;
 
-    public MarkedUpDocument() {
-        // define styles for additions and deletions
-        Style style;
+    // text in gap buffer:
+    private char[] buffer = new char[16];
+    private int gapStart = 0;
+    private int gapEnd = buffer.length;
+
+    // mark up as runs covering the whole text; the cursor denotes a run and its start offset for sequential access
+    private List<Run> runs = Lists.newArrayList();
+    private int cursorIndex = 0;
+    private int cursorStart = 0;
 
-        style = addStyle(ADDITION_STYLE, null);
-        StyleConstants.setUnderline(style, true);
+    // current settings for marking up additions and deletions
+    private Color color = null;
+    private Integer authorIndex = null;
+    private Integer revisionIndex = null;
 
-        style = addStyle(DELETION_STYLE, null);
-        StyleConstants.setStrikeThrough(style, true);
+    public MarkedUpDocument() {
     }
 
     public MarkedUpDocument(String initialText, List<Object[]> deletions, int caretPosition) throws BadLocationException {
         this();
-        insertString(0, initialText, null);
+        insertString(0, initialText);
         // markup deletions:
         if (deletions != null) {
-            Style deletionStyle = getStyle(DELETION_STYLE);
-            StyleConstants.setForeground(deletionStyle, Color.black); // color doesn't matter at initialization
+            Markup deletion = new Markup(DELETION_STYLE, Color.black, null, null, null); // color doesn't matter at initialization
             for (Object[] pair : deletions) {
                 if (pair == null || pair.length != 2)
                     throw new RuntimeException("Cannot create markup document with deletion that is not a pair");
-                setCharacterAttributes((Integer) pair[0], ((Integer) pair[1]) - ((Integer) pair[0]), deletionStyle, true);
+                int start = Math.max(0, (Integer) pair[0]);
+                int end = Math.min(getLength(), (Integer) pair[1]);
+                if (start < end)
+                    markup(start, end, deletion, false);
             }
         }
-        caret = createPosition(caretPosition);
+        caret = caretPosition;
     }
 
+    /**
+     * Remove the given deleted ranges from the given text and move the caret position by the number of
+     * deleted characters in front of it.  Ranges are clipped to the text and may be unsorted or overlap.
+     * The text is copied once around the deleted ranges, so this takes linear time in the length of the text
+     * plus the sorting of ranges if they are not given in order.
+     *
+     * @param currentText text with deleted ranges
+     * @param deletions list of pairs with start (incl.) and end (excl.) position of each deleted range
+     *                  or <code>null</code>
+     * @param caretPosition caret position in the given text
+     * @return Map with the text without the deleted ranges and the updated caret position
+     * @throws BadLocationException not thrown but kept for callers
+     */
     public static Map<KEYS,Object> applyDeletions(String currentText, List<Object[]> deletions, int caretPosition)
             throws BadLocationException {
         Map<KEYS,Object> map = Maps.newHashMap();
 
         // remove deletions (if any) and adjust caret position
         if (deletions != null && !deletions.isEmpty()) {
-            MarkedUpDocument document = new MarkedUpDocument(currentText, deletions, caretPosition);
-            for (int i = 0; i < document.getLength(); i++) {
-                Object strikethrough = document.getCharacterElement(i).getAttributes().getAttribute(StyleConstants.StrikeThrough);
-                if (strikethrough instanceof Boolean && (Boolean) strikethrough) {
-                    document.remove(i, 1);
-                    i--;
+            // clip ranges to text and drop empty ones
+            int length = currentText.length();
+            int[] starts = new int[deletions.size()], ends = new int[deletions.size()];
+            int count = 0;
+            boolean sorted = true;
+            for (Object[] pair : deletions) {
+                if (pair == null || pair.length != 2)
+                    throw new RuntimeException("Cannot create markup document with deletion that is not a pair");
+                int start = Math.max(0, (Integer) pair[0]);
+                int end = Math.min(length, (Integer) pair[1]);
+                if (start < end) {
+                    sorted &= count == 0 || starts[count - 1] <= start;
+                    starts[count] = start;
+                    ends[count++] = end;
                 }
             }
-            currentText = document.getText(0, document.getLength());
-            caretPosition = document.getCaretPosition();
+            if (!sorted)
+                sortRanges(starts, ends, count);
+
+            // copy text around ranges, merging overlapping ones
+            StringBuilder text = new StringBuilder(length);
+            int caret = caretPosition;
+            int position = 0; // end of last copied or deleted part
+            for (int i = 0; i < count; i++) {
+                int start = Math.max(position, starts[i]);
+                if (ends[i] <= start)
+                    continue; // within a previous range
+                text.append(currentText, position, start);
+                if (start < caret) // move caret by deleted characters in front of it
+                    caretPosition -= Math.min(ends[i], caret) - start;
+                position = ends[i];
+            }
+            text.append(currentText, position, length);
+            currentText = text.toString();
         }
 
         map.put(KEYS.TEXT, currentText);
@@ -111,21 +160,152 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
         return map;
     }
 
+    // sort the given number of ranges by start position
+    private static void sortRanges(int[] starts, int[] ends, int count) {
+        long[] ranges = new long[count];
+        for (int i = 0; i < count; i++)
+            ranges[i] = ((long) starts[i] << 32) | ends[i]; // positions are not negative
+        Arrays.sort(ranges);
+        for (int i = 0; i < count; i++) {
+            starts[i] = (int) (ranges[i] >>> 32);
+            ends[i] = (int) ranges[i];
+        }
+    }
+
+    /**
+     * Create a copy of this document with the same text and character markup.  The copy has its caret at
+     * the start and filters have not been applied yet.
+     *
+     * @return new document with the same text and markup as this one
+     * @throws BadLocationException if the text of this document cannot be copied
+     */
+    public MarkedUpDocument copy() throws BadLocationException {
+        MarkedUpDocument document = new MarkedUpDocument();
+        document.insertString(0, getText(0, getLength()));
+        document.runs.clear();
+        for (Run run : runs)
+            document.runs.add(new Run(run.length, run.markup));
+        return document;
+    }
+
+    /**
+     * Carry the mark up of the given earlier document forward into a new document with the text of this one.
+     * This document contains a newer version with the changes from the newest version of the earlier document
+     * marked up, so that its characters that are not additions are the characters of the earlier document that
+     * are not deletions, up to white space.  Additions and deletions of this document are kept, while all
+     * other characters keep the mark up of the earlier document.  White space that differs between both
+     * versions, and is therefore not part of any change, joins an addition next to it.  Deletions of the
+     * earlier document are placed before any additions and characters that follow them.
+     * <p>
+     * The caret position of the new document is the given position transformed from the newer version, so
+     * that it stays behind any deletions inserted at that position.
+     *
+     * @param earlier document with accumulated mark up up to the version that this document was compared with
+     *                or NULL to only keep the mark up of this document
+     * @param caretPosition caret position in the newer version
+     * @return new document with the text of this document and the mark up of both or NULL, if the characters
+     * of both documents cannot be matched
+     */
+    MarkedUpDocument carry(MarkedUpDocument earlier, int caretPosition) {
+        if (earlier == null)
+            earlier = new MarkedUpDocument(); // nothing to match
+        StringBuilder text = new StringBuilder(getLength() + earlier.getLength() / 8);
+        List<Run> carried = Lists.newArrayList();
+        int newCaret = -1, newerPosition = 0; // position in newer version without deletions
+        Cursor newer = new Cursor(this), cursor = new Cursor(earlier);
+        for (; newer.position < getLength(); newer.next()) {
+            Markup markup = newer.markup();
+            char c = newer.charAt();
+
+            boolean isAddition = ADDITION_STYLE.equals(markup.style);
+            if (earlier.getLength() > 0) {
+                // copy earlier deletions and skip any white space that this version doesn't have
+                boolean isWhitespace = Character.isWhitespace(c);
+                for (; cursor.position < earlier.getLength(); cursor.next())
+                    if (DELETION_STYLE.equals(cursor.markup().style)) {
+                        text.append(cursor.charAt());
+                        appendRun(carried, 1, cursor.markup());
+                    } else if (isAddition || isWhitespace || !Character.isWhitespace(cursor.charAt()))
+                        break;
+                if (isAddition)
+                    ; // keep addition of this version
+                else if (cursor.position < earlier.getLength() && (cursor.charAt() == c ||
+                        isWhitespace && Character.isWhitespace(cursor.charAt()))) {
+                    if (!DELETION_STYLE.equals(markup.style))
+                        markup = cursor.markup();
+                    cursor.next();
+                } else if (!isWhitespace)
+                    return null;
+                else if (DEFAULT_STYLE.equals(markup.style)) {
+                    // white space that is not in the earlier version joins an addition before or after it
+                    Markup before = carried.isEmpty() ? null : carried.get(carried.size() - 1).markup;
+                    if (before != null && ADDITION_STYLE.equals(before.style))
+                        markup = before;
+                    else if (cursor.position < earlier.getLength() && ADDITION_STYLE.equals(cursor.markup().style))
+                        markup = cursor.markup();
+                }
+            }
+
+            if (!DELETION_STYLE.equals(markup.style) && newerPosition++ == caretPosition)
+                newCaret = text.length();
+            text.append(c);
+            appendRun(carried, 1, markup);
+        }
+
+        // copy remaining deletions
+        for (; cursor.position < earlier.getLength(); cursor.next())
+            if (DELETION_STYLE.equals(cursor.markup().style)) {
+                text.append(cursor.charAt());
+                appendRun(carried, 1, cursor.markup());
+            } else if (!Character.isWhitespace(cursor.charAt()))
+                return null;
+
+        MarkedUpDocument document = new MarkedUpDocument();
+        document.buffer = new char[text.length() + 16];
+        text.getChars(0, text.length(), document.buffer, 0);
+        document.gapStart = text.length();
+        document.gapEnd = document.buffer.length;
+        document.runs = carried;
+        document.caret = newCaret < 0 ? text.length() : newCaret;
+        return document;
+    }
+
+    public int getLength() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    int getRunCount() {
+        return runs.size();
+    }
+
+    public String getText(int offset, int length) throws BadLocationException {
+        if (offset < 0 || length < 0 || offset + length > getLength())
+            throw new BadLocationException("Invalid range", offset);
+        StringBuilder text = new StringBuilder(length);
+        appendText(text, offset, length);
+        return text.toString();
+    }
+
+    /**
+     * Insert given text without any mark up at given offset position.
+     *
+     * @param offset position in the text where to insert
+     * @param text String with the text to insert
+     * @throws BadLocationException if the given position does not exist in the document
+     */
+    public void insertString(int offset, String text) throws BadLocationException {
+        insertString(offset, text, DEFAULT_MARKUP);
+    }
+
     public int getCaretPosition() {
-        return caret.getOffset();
+        return caret;
     }
 
     public void updateStyles(int authorIndex, Color authorColor, Integer revisionIndex) {
         // prepare styles with color and author index and revision name
-        Style style;
-        style = getStyle(DELETION_STYLE);
-        StyleConstants.setForeground(style, authorColor);
-        style.addAttribute(AUTHOR_INDEX, authorIndex);
-        style.addAttribute(REVISION_INDEX, revisionIndex);
-        style = getStyle(ADDITION_STYLE);
-        StyleConstants.setForeground(style, authorColor);
-        style.addAttribute(AUTHOR_INDEX, authorIndex);
-        style.addAttribute(REVISION_INDEX, revisionIndex);
+        this.color = authorColor;
+        this.authorIndex = authorIndex;
+        this.revisionIndex = revisionIndex;
     }
 
     /**
@@ -137,9 +317,7 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
      * @throws BadLocationException if the given position is does not exist in the document
      */
     public void insertDeletion(int offset, String text, Set<Change.Flag> flags) throws BadLocationException {
-        Style style = getStyle(DELETION_STYLE);
-        style.addAttribute(FLAGS_ATTR, flags);
-        insertString(offset, text, style);
+        insertString(offset, text, new Markup(DELETION_STYLE, color, authorIndex, revisionIndex, flags));
     }
 
     /**
@@ -150,15 +328,11 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
      * @param flags set of flags to be used for this text
      */
     public void markupAddition(int start_position, int end_position, Set<Change.Flag> flags) {
-        Style style;
-        for (int i = start_position; i < end_position; i++) {
-            Object styleName = getCharacterElement(i).getAttributes().getAttribute(StyleConstants.NameAttribute);
-            if (!DELETION_STYLE.equals(styleName) && !ADDITION_STYLE.equals(styleName)) {
-                style = getStyle(ADDITION_STYLE);
-                style.addAttribute(FLAGS_ATTR, flags);
-                setCharacterAttributes(i, 1, style, true);
-            }
-        }
+        start_position = Math.max(0, start_position);
+        end_position = Math.min(getLength(), end_position);
+        if (start_position < end_position)
+            markup(start_position, end_position,
+                    new Markup(ADDITION_STYLE, color, authorIndex, revisionIndex, flags), true);
     }
 
     /**
@@ -170,8 +344,7 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
     public boolean isAddition(int pos) {
         if (pos < 0 || pos >= getLength())
             return false;
-        Object styleName = getCharacterElement(pos).getAttributes().getAttribute(StyleConstants.NameAttribute);
-        return ADDITION_STYLE.equals(styleName);
+        return ADDITION_STYLE.equals(runs.get(findRun(pos)).markup.style);
     }
 
     /**
@@ -184,8 +357,7 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
     public boolean isDeletion(int pos) {
         if (pos < 0 || pos >= getLength())
             return false;
-        Object styleName = getCharacterElement(pos).getAttributes().getAttribute(StyleConstants.NameAttribute);
-        return DELETION_STYLE.equals(styleName);
+        return DELETION_STYLE.equals(runs.get(findRun(pos)).markup.style);
     }
 
     /**
@@ -202,76 +374,103 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
      * @throws BadLocationException if during the filtering process an unknown text position is encountered
      * @throws IllegalStateException if called twice for this document
      */
-    @SuppressWarnings("unchecked")
     protected int applyFiltering(Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors, int caretPosition)
             throws BadLocationException {
+        FlightRecorder.Event event = FlightRecorder.FILTERING.begin();
+        int position = filter(flagsToHide, limitedAuthors, caretPosition);
+        event.set("characters", getLength()).commit();
+        return position;
+    }
+
+    private int filter(Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors, int caretPosition)
+            throws BadLocationException {
 
         // test whether this is the first time calling this method
-        synchronized (applyFilteringCalled) {
+        synchronized (this) {
             if (applyFilteringCalled)
                 throw new IllegalStateException("Cannot call applyFiltering twice on this document.");
             applyFilteringCalled = true;
         }
 
-        caret = createPosition(caretPosition);
+        caret = caretPosition;
         if (!flagsToHide.isEmpty() || (limitedAuthors != null && !limitedAuthors.isEmpty())) {
             // detect comments in current document:
             // everything after a non-deletion % that is not preceeded by a backslash
             // until the next, non-deletion end-of-line character
             boolean inComment = false;
 
-            // go through text and filter anything that should be hidden
-            for (int i = 0; i < getLength(); i++) {
-                String c = getText(i, 1);
-
-                // are we entering a comment?
-                if (!inComment && !isDeletion(i))
-                    if ("%".equals(c) && (i == 0 || !"\\".equals(getText(i - 1, 1))))
-                        inComment = true;
-
-                // filter by author if any
-                if (limitedAuthors != null && !limitedAuthors.isEmpty()) {
-                    Object index = getCharacterElement(i).getAttributes().getAttribute(AUTHOR_INDEX);
-                    if (index instanceof Integer && !limitedAuthors.contains(index)) {
-                        // filter this character
-                        if (isDeletion(i)) { // deletion: remove character
-                            remove(i, 1);
-                            i--;
-                            continue;
+            // go through text and copy anything that should not be hidden into new text and runs
+            StringBuilder text = new StringBuilder(getLength());
+            List<Run> filtered = Lists.newArrayList();
+            int position = 0;
+            for (Run run : runs)
+                for (int end = position + run.length; position < end; position++) {
+                    Markup markup = run.markup;
+                    char c = charAt(position);
+                    int last = text.length();
+
+                    // are we entering a comment?
+                    if (!inComment && !DELETION_STYLE.equals(markup.style))
+                        if (c == '%' && (last == 0 || text.charAt(last - 1) != '\\'))
+                            inComment = true;
+
+                    // filter by author if any
+                    if (limitedAuthors != null && !limitedAuthors.isEmpty()) {
+                        if (markup.author != null && !limitedAuthors.contains(markup.author)) {
+                            // filter this character
+                            if (DELETION_STYLE.equals(markup.style)) { // deletion: remove character
+                                if (position < caretPosition)
+                                    caret--;
+                                continue;
+                            }
+                            if (ADDITION_STYLE.equals(markup.style)) // addition: remove all attributes to unmark it
+                                markup = DEFAULT_MARKUP;
                         }
-                        if (isAddition(i))   // addition: remove all attributes to unmark it
-                            setCharacterAttributes(i, 1, SimpleAttributeSet.EMPTY, true);
                     }
-                }
-
-                Set<Change.Flag> currentFlags = (Set<Change.Flag>) getCharacterElement(i).getAttributes().getAttribute(FLAGS_ATTR);
 
-                // now filter by flags to be hidden
-                if (currentFlags != null) {
-                    Set<Change.Flag> flags = Sets.newHashSet(currentFlags); // make copy to be able to add to flags
-                    if (inComment)
-                        flags.add(Change.Flag.COMMENT);
+                    Set<Change.Flag> currentFlags = markup.flags;
 
-                    Set<Change.Flag> intersection = Sets.intersection(flags, flagsToHide);
-                    if (!intersection.isEmpty()) // matching flags
-                        if (flags.contains((Change.Flag.DELETION))) { // change was a deletion, so remove character
-                            remove(i, 1);
-                            i--;
+                    // now filter by flags to be hidden
+                    if (currentFlags != null && isHidden(currentFlags, inComment, flagsToHide))
+                        if (currentFlags.contains(Change.Flag.DELETION)) { // change was a deletion, so remove character
+                            if (position < caretPosition)
+                                caret--;
                             continue;
                         } else // change was an addition, so remove all attributes to hide it
-                            setCharacterAttributes(i, 1, SimpleAttributeSet.EMPTY, true);
+                            markup = DEFAULT_MARKUP;
+
+                    text.append(c);
+                    appendRun(filtered, 1, markup);
+
+                    // are we leaving a comment?
+                    if (inComment)
+                        if ((c == '\n' || c == '\r') && (currentFlags == null || !currentFlags.contains(Change.Flag.DELETION)))
+                            inComment = false;
                 }
 
-                // are we leaving a comment?
-                if (inComment)
-                    if (c.matches("[\n\r]") && (currentFlags == null || !currentFlags.contains(Change.Flag.DELETION)))
-                        inComment = false;
-            }
+            // replace contents with filtered text and runs
+            buffer = new char[text.length() + 16];
+            text.getChars(0, text.length(), buffer, 0);
+            gapStart = text.length();
+            gapEnd = buffer.length;
+            runs = filtered;
+            cursorIndex = 0;
+            cursorStart = 0;
         }
 
         return getCaretPosition();
     }
 
+    // whether the given flags (plus COMMENT if in a comment) intersect with the flags to hide
+    private static boolean isHidden(Set<Change.Flag> flags, boolean inComment, Set<Change.Flag> flagsToHide) {
+        if (inComment && flagsToHide.contains(Change.Flag.COMMENT))
+            return true;
+        for (Change.Flag flag : flags)
+            if (flagsToHide.contains(flag))
+                return true;
+        return false;
+    }
+
     public Reader getReader() throws BadLocationException {
         return new StringReader(getText(0, getLength()));
     }
@@ -287,11 +486,9 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
         SortedSet<Integer> rev_indices = Sets.newTreeSet();
 
         // go through current document and collect revision indices
-        for (int i = 0; i < getLength(); i++) {
-            Object index = getCharacterElement(i).getAttributes().getAttribute(REVISION_INDEX);
-            if (index instanceof Integer)
-                rev_indices.add((Integer) index);
-        }
+        for (Run run : runs)
+            if (run.markup.revisionIndex != null)
+                rev_indices.add(run.markup.revisionIndex);
 
         return Lists.newArrayList(rev_indices); // should be sorted
     }
@@ -303,40 +500,229 @@ public final class MarkedUpDocument extends DefaultStyledDocument {
      */
     public List<Integer[]> getStyles() {
         List<Integer[]> list = Lists.newArrayList();
-        Chunk c = traverse(getDefaultRootElement(), null, list);
+        Chunk last = null;
+        int position = 0;
+        for (Run run : runs) {
+            Chunk chunk = new Chunk(position,
+                    run.markup.style,
+                    run.markup.color,
+                    run.markup.author,
+                    run.markup.revisionIndex);
+            if (!chunk.equals(last)) {
+                if (last != null) {
+                    last.end = position;
+                    if (!DEFAULT_STYLE.equals(last.style))
+                        list.add(last.asList());
+                }
+                last = chunk;
+            }
+            position += run.length;
+        }
         // handle last chunk and add it if not default style:
-        c.end = getLength()+1;
-        if (!"default".equals(c.style))
-            list.add(c.asList());
+        if (last != null) {
+            last.end = position;
+            if (!DEFAULT_STYLE.equals(last.style))
+                list.add(last.asList());
+        }
         return list;
     }
 
-    private Chunk traverse(Element element, Chunk last, List<Integer[]> list) {
-        Chunk chunk = last;
-        if (element.isLeaf()) {
-            AbstractDocument.LeafElement leaf = (AbstractDocument.LeafElement) element;
-            chunk = new Chunk(element.getStartOffset(),
-                    (String) leaf.getAttribute(StyleConstants.NameAttribute),
-                    (Color) leaf.getAttribute(StyleConstants.Foreground),
-                    (Integer) leaf.getAttribute(AUTHOR_INDEX),
-                    (Integer) leaf.getAttribute(REVISION_INDEX));
-            if (chunk.equals(last))
-                return last;
-            else {
-                if (last != null) {
-                    last.end = element.getStartOffset();
-                    if (!"default".equals(last.style))
-                        list.add(last.asList());
-                }
-                return chunk;
+    // --- text in gap buffer ---
+
+    private char charAt(int pos) {
+        return pos < gapStart ? buffer[pos] : buffer[pos + gapEnd - gapStart];
+    }
+
+    private void appendText(StringBuilder text, int offset, int length) {
+        int end = offset + length;
+        if (offset < gapStart)
+            text.append(buffer, offset, Math.min(end, gapStart) - offset);
+        if (end > gapStart) {
+            int start = Math.max(offset, gapStart);
+            text.append(buffer, start + gapEnd - gapStart, end - start);
+        }
+    }
+
+    private void insertText(int offset, String text) {
+        int length = text.length();
+        // make sure the gap is large enough
+        if (gapEnd - gapStart < length) {
+            int tail = buffer.length - gapEnd;
+            char[] newBuffer = new char[Math.max(2 * buffer.length, getLength() + length + 16)];
+            System.arraycopy(buffer, 0, newBuffer, 0, gapStart);
+            System.arraycopy(buffer, gapEnd, newBuffer, newBuffer.length - tail, tail);
+            buffer = newBuffer;
+            gapEnd = newBuffer.length - tail;
+        }
+        // move gap to offset
+        if (offset < gapStart) {
+            int moved = gapStart - offset;
+            System.arraycopy(buffer, offset, buffer, gapEnd - moved, moved);
+            gapStart -= moved;
+            gapEnd -= moved;
+        } else if (offset > gapStart) {
+            int moved = offset - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, moved);
+            gapStart += moved;
+            gapEnd += moved;
+        }
+        text.getChars(0, length, buffer, gapStart);
+        gapStart += length;
+    }
+
+    // --- mark up in runs ---
+
+    private void insertString(int offset, String text, Markup markup) throws BadLocationException {
+        if (offset < 0 || offset > getLength())
+            throw new BadLocationException("Invalid insert", offset);
+        if (text == null || text.length() == 0)
+            return;
+        int length = text.length();
+        insertText(offset, text);
+
+        int index = split(offset);
+        if (index > 0 && runs.get(index - 1).markup.equals(markup)) {
+            runs.get(index - 1).length += length;
+            cursorStart += length;
+        } else if (index < runs.size() && runs.get(index).markup.equals(markup))
+            runs.get(index).length += length;
+        else
+            runs.add(index, new Run(length, markup));
+    }
+
+    // set mark up of given range but skip any additions and deletions if so desired
+    private void markup(int start, int end, Markup markup, boolean skipChanges) {
+        int first = split(start);
+        int last = split(end);
+        for (int i = first; i < last; i++) {
+            Run run = runs.get(i);
+            if (!skipChanges ||
+                    (!ADDITION_STYLE.equals(run.markup.style) && !DELETION_STYLE.equals(run.markup.style)))
+                run.markup = markup;
+        }
+        // merge neighboring runs with same mark up
+        int previousStart = first > 0 ? start - runs.get(first - 1).length : 0;
+        for (int i = Math.min(last, runs.size() - 1); i >= Math.max(first, 1); i--)
+            if (runs.get(i - 1).markup.equals(runs.get(i).markup)) {
+                runs.get(i - 1).length += runs.get(i).length;
+                runs.remove(i);
             }
-        } else
-            for (int i=0; i < element.getElementCount(); i++)
-                chunk = traverse(element.getElement(i), chunk, list);
-        return chunk;
+        cursorIndex = Math.max(first - 1, 0);
+        cursorStart = previousStart;
+    }
+
+    // find index of run containing given position, or the number of runs if position is at the end
+    private int findRun(int pos) {
+        while (cursorIndex > 0 && pos < cursorStart) {
+            cursorIndex--;
+            cursorStart -= runs.get(cursorIndex).length;
+        }
+        while (cursorIndex < runs.size() && pos >= cursorStart + runs.get(cursorIndex).length) {
+            cursorStart += runs.get(cursorIndex).length;
+            cursorIndex++;
+        }
+        return cursorIndex;
+    }
+
+    // make sure that a run starts at given position and return its index
+    private int split(int pos) {
+        int index = findRun(pos);
+        if (index < runs.size() && pos > cursorStart) {
+            Run run = runs.get(index);
+            runs.add(index + 1, new Run(cursorStart + run.length - pos, run.markup));
+            run.length = pos - cursorStart;
+            cursorIndex = ++index;
+            cursorStart = pos;
+        }
+        return index;
+    }
+
+    private static void appendRun(List<Run> runs, int length, Markup markup) {
+        if (!runs.isEmpty() && runs.get(runs.size() - 1).markup.equals(markup))
+            runs.get(runs.size() - 1).length += length;
+        else
+            runs.add(new Run(length, markup));
+    }
+
+    // position in a document together with the run containing it for reading sequentially
+    private final static class Cursor {
+        private final MarkedUpDocument document;
+        int position = 0;
+        private int run = 0;
+        private int runEnd;
+
+        private Cursor(MarkedUpDocument document) {
+            this.document = document;
+            this.runEnd = document.runs.isEmpty() ? 0 : document.runs.get(0).length;
+        }
+
+        char charAt() {
+            return document.charAt(position);
+        }
+
+        Markup markup() {
+            return document.runs.get(run).markup;
+        }
+
+        void next() {
+            if (++position >= runEnd && run < document.runs.size() - 1)
+                runEnd += document.runs.get(++run).length;
+        }
+    }
+
+    private final static class Run {
+        int length;
+        Markup markup;
+
+        private Run(int length, Markup markup) {
+            this.length = length;
+            this.markup = markup;
+        }
+    }
+
+    private final static class Markup {
+        final String style;
+        final Color color;
+        final Integer author;
+        final Integer revisionIndex;
+        final Set<Change.Flag> flags;
+
+        private Markup(String style, Color color, Integer author, Integer revisionIndex, Set<Change.Flag> flags) {
+            this.style = style;
+            this.color = color;
+            this.author = author;
+            this.revisionIndex = revisionIndex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Markup markup = (Markup) o;
+
+            if (author != null ? !author.equals(markup.author) : markup.author != null) return false;
+            if (color != null ? !color.equals(markup.color) : markup.color != null) return false;
+            if (flags != null ? !flags.equals(markup.flags) : markup.flags != null) return false;
+            if (revisionIndex != null ? !revisionIndex.equals(markup.revisionIndex) : markup.revisionIndex != null) return false;
+            if (!style.equals(markup.style)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = style.hashCode();
+            result = 31 * result + (color != null ? color.hashCode() : 0);
+            result = 31 * result + (author != null ? author.hashCode() : 0);
+            result = 31 * result + (revisionIndex != null ? revisionIndex.hashCode() : 0);
+            result = 31 * result + (flags != null ? flags.hashCode() : 0);
+            return result;
+        }
     }
 
-    private final class Chunk {
+    private final static class Chunk {
         final int start;
         int end;
         final String style;
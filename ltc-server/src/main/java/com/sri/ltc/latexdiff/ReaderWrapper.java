@@ -30,5 +30,20 @@ public interface ReaderWrapper {
 
     public Reader createReader() throws Exception;
 
-    public Lexeme removeAdditions(Lexeme lexeme);
+    /**
+     * Remove any characters marked as additions from the lexeme at the given index.
+     *
+     * @param lexemes buffer with lexemes of the wrapped text
+     * @param index index of lexeme to inspect
+     * @return false if the whole lexeme was an addition and should be removed, true otherwise
+     */
+    public boolean removeAdditions(LexemeBuffer lexemes, int index);
+
+    /**
+     * Obtain a key that identifies the contents of a committed revision, so that revisions with the same
+     * contents have the same key.
+     *
+     * @return key of the contents or <code>null</code> if the wrapped text is not committed
+     */
+    public String getContentKey();
 }
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import java.util.Arrays;
+
+/**
+ * Interning lexemes by type and displayed contents into dense, positive numbers so that the diff
+ * compares primitive arrays instead of strings.  Lexemes that are equal for the diff obtain the same number.
+ * <p>
+ * The table uses open addressing over the characters of the lexeme buffers, so that interning does not
+ * create any objects per lexeme.  Symbols refer to the characters of the buffer they were first seen in.
+ *
+ * @author linda
+ */
+final class SymbolTable {
+
+    private int[] table = new int[1024]; // slots with symbols; 0 denotes an empty slot
+    private int next = 1;
+
+    // columns of symbols indexed by number:
+    private int[] hashes = new int[512], types = new int[512], starts = new int[512], lengths = new int[512];
+    private char[][] chars = new char[512][];
+
+    /**
+     * Intern the lexeme at given index.
+     *
+     * @param lexemes buffer with lexeme
+     * @param index index of lexeme in buffer
+     * @return number of lexeme, which is at least 1
+     */
+    int intern(LexemeBuffer lexemes, int index) {
+        int type = lexemes.getType(index).ordinal();
+        char[] buffer = lexemes.getChars();
+        int start = lexemes.getStart(index);
+        int length = lexemes.getType(index).isPrintable() ? lexemes.getLength(index) : 0;
+
+        int hash = type;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + buffer[i];
+        hash ^= (hash >>> 16);
+
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int symbol = table[slot];
+            if (symbol == 0) {
+                symbol = add(hash, type, buffer, start, length);
+                table[slot] = symbol;
+                if (2 * next > table.length)
+                    rehash();
+                return symbol;
+            }
+            if (hashes[symbol] == hash && types[symbol] == type && lengths[symbol] == length
+                    && equals(chars[symbol], starts[symbol], buffer, start, length))
+                return symbol;
+        }
+    }
+
+    int[] intern(LexemeBuffer lexemes) {
+        int[] result = new int[lexemes.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = intern(lexemes, i);
+        return result;
+    }
+
+    private int add(int hash, int type, char[] buffer, int start, int length) {
+        if (next == hashes.length) {
+            int capacity = 2 * hashes.length;
+            hashes = Arrays.copyOf(hashes, capacity);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            chars = Arrays.copyOf(chars, capacity);
+        }
+        hashes[next] = hash;
+        types[next] = type;
+        chars[next] = buffer;
+        starts[next] = start;
+        lengths[next] = length;
+        return next++;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int symbol = 1; symbol < next; symbol++) {
+            int slot = hashes[symbol] & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = symbol;
+        }
+    }
+
+    private static boolean equals(char[] chars0, int start0, char[] chars1, int start1, int length) {
+        for (int i = 0; i < length; i++)
+            if (chars0[start0 + i] != chars1[start1 + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Intern the characters of two ranges of characters into dense, positive numbers.
+     *
+     * @param chars0 characters of first range
+     * @param start0 start of first range
+     * @param length0 length of first range
+     * @param chars1 characters of second range
+     * @param start1 start of second range
+     * @param length1 length of second range
+     * @return array of two arrays with the numbers of the characters in both ranges
+     */
+    static int[][] intern(char[] chars0, int start0, int length0, char[] chars1, int start1, int length1) {
+        char[] seen = new char[length0 + length1];
+        int size = 0;
+        int[][] result = {new int[length0], new int[length1]};
+        char[][] texts = {chars0, chars1};
+        int[] starts = {start0, start1};
+        for (int t = 0; t < 2; t++)
+            for (int i = 0; i < result[t].length; i++) {
+                char c = texts[t][starts[t] + i];
+                int symbol = 0;
+                while (symbol < size && seen[symbol] != c)
+                    symbol++;
+                if (symbol == size)
+                    seen[size++] = c;
+                result[t][i] = symbol + 1;
+            }
+        return result;
+    }
+}
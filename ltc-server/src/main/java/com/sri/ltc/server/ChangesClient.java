@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client to obtain changes from a running LTC server through {@link ChangesServlet} in the compact
+ * binary encoding of {@link ChangesCodec}.  The returned map is the same as the one returned by
+ * {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)} over XML-RPC.
+ *
+ * @author linda
+ */
+public final class ChangesClient {
+
+    private final URL url;
+
+    /**
+     * Create a client for the LTC server on localhost with the given port.
+     *
+     * @param port port of LTC server
+     * @throws IOException if the URL of the server cannot be created
+     */
+    public ChangesClient(int port) throws IOException {
+        this(new URL("http://localhost:"+port+ChangesServlet.PATH));
+    }
+
+    public ChangesClient(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Obtain the changes of the given session with the same arguments as
+     * {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}
+     * except that the current text is not encoded in Base64.
+     *
+     * @return Map with the changes
+     * @throws XmlRpcException with the error code of the server if obtaining the changes failed
+     * @throws IOException if the communication with the server fails
+     */
+    public Map getChanges(int sessionID, boolean isModified, String currentText, List<Object[]> deletions,
+                          int caretPosition) throws XmlRpcException, IOException {
+        StringBuilder query = new StringBuilder("?");
+        query.append(ChangesServlet.PARAM_SESSION).append("=").append(sessionID);
+        query.append("&").append(ChangesServlet.PARAM_MODIFIED).append("=").append(isModified);
+        query.append("&").append(ChangesServlet.PARAM_CARET).append("=").append(caretPosition);
+        if (deletions != null && !deletions.isEmpty()) {
+            StringBuilder pairs = new StringBuilder();
+            for (Object[] deletion : deletions)
+                pairs.append(pairs.length() == 0 ? "" : ",").append(deletion[0]).append(":").append(deletion[1]);
+            query.append("&").append(ChangesServlet.PARAM_DELETIONS).append("=").append(URLEncoder.encode(pairs.toString(), "UTF-8"));
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url, url.getPath()+query).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            Writer out = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+            out.write(currentText);
+            out.close();
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new XmlRpcException(connection.getHeaderFieldInt(ChangesServlet.HEADER_ERROR_CODE, 0),
+                        connection.getResponseMessage());
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            try {
+                return ChangesCodec.decode(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the changes as returned by
+ * {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}, which is much
+ * smaller and faster to produce than the XML-RPC encoding of large texts with many styles.
+ * <p>
+ * All numbers are encoded as variable length integers with 7 bits per byte and the highest bit set
+ * if more bytes follow.  Numbers that may be negative are zig-zag encoded first.  Strings are encoded
+ * as the number of bytes followed by their UTF-8 encoding.  The encoding consists of
+ * <ol>
+ *     <li>the byte 'L' followed by the version of the encoding,</li>
+ *     <li>the caret position,</li>
+ *     <li>the text as a string,</li>
+ *     <li>the number of styles followed by each style as the difference of its start position to
+ *     the start of the previous style (zig-zag), its length, its type, its author index (zig-zag),
+ *     and its revision index,</li>
+ *     <li>the number of authors followed by each author as its index (zig-zag), name, email address and
+ *     color as strings,</li>
+ *     <li>the number of revisions followed by each revision as a string,</li>
+ *     <li>the last revision as a string, and</li>
+ *     <li>the number of revision indices followed by each index.</li>
+ * </ol>
+ *
+ * @author linda
+ */
+public final class ChangesCodec {
+
+    public final static String CONTENT_TYPE = "application/x-ltc-changes";
+    private final static int MAGIC = 'L';
+    private final static int VERSION = 1;
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private ChangesCodec() {}
+
+    /**
+     * Encode the given map of changes as returned by
+     * {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}.
+     *
+     * @param changes map of changes
+     * @return binary encoding of the changes
+     */
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(Map changes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarInt(out, (Integer) changes.get(LTCserverInterface.KEY_CARET));
+        writeString(out, new String(Base64.decodeBase64((byte[]) changes.get(LTCserverInterface.KEY_TEXT))));
+
+        List<Integer[]> styles = (List<Integer[]>) changes.get(LTCserverInterface.KEY_STYLES);
+        writeVarInt(out, styles.size());
+        int start = 0;
+        for (Integer[] style : styles) {
+            writeVarInt(out, zigZag(style[0] - start));
+            writeVarInt(out, style[1] - style[0]);
+            writeVarInt(out, style[2]);
+            writeVarInt(out, zigZag(style[3]));
+            writeVarInt(out, style[4]);
+            start = style[0];
+        }
+
+        Map<Integer,Object[]> authors = (Map<Integer,Object[]>) changes.get(LTCserverInterface.KEY_AUTHORS);
+        writeVarInt(out, authors.size());
+        for (Map.Entry<Integer,Object[]> entry : authors.entrySet()) {
+            writeVarInt(out, zigZag(entry.getKey()));
+            for (Object field : entry.getValue())
+                writeString(out, field.toString());
+        }
+
+        List<String> revs = (List<String>) changes.get(LTCserverInterface.KEY_REVS);
+        writeVarInt(out, revs.size());
+        for (String rev : revs)
+            writeString(out, rev);
+        writeString(out, (String) changes.get(LTCserverInterface.KEY_LAST));
+
+        List<Integer> indices = (List<Integer>) changes.get(LTCserverInterface.KEY_REV_INDICES);
+        writeVarInt(out, indices.size());
+        for (Integer index : indices)
+            writeVarInt(out, index);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the changes from the given binary encoding into a map with the same keys and types of values
+     * as returned by {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}.
+     *
+     * @param in stream with binary encoding of changes
+     * @return map of changes
+     * @throws IOException if the stream cannot be read or does not contain a valid encoding
+     */
+    @SuppressWarnings("unchecked")
+    public static Map decode(InputStream in) throws IOException {
+        if (readByte(in) != MAGIC)
+            throw new IOException("Not an encoding of changes");
+        int version = readByte(in);
+        if (version != VERSION)
+            throw new IOException("Unknown version "+version+" of encoding of changes");
+
+        Map map = new HashMap();
+        map.put(LTCserverInterface.KEY_CARET, readVarInt(in));
+        map.put(LTCserverInterface.KEY_TEXT, Base64.encodeBase64(readString(in).getBytes()));
+
+        int size = readVarInt(in);
+        List<Integer[]> styles = new ArrayList<Integer[]>(size);
+        int start = 0;
+        for (int i = 0; i < size; i++) {
+            start += unZigZag(readVarInt(in));
+            int end = start + readVarInt(in);
+            styles.add(new Integer[] {start, end, readVarInt(in), unZigZag(readVarInt(in)), readVarInt(in)});
+        }
+        map.put(LTCserverInterface.KEY_STYLES, styles);
+
+        size = readVarInt(in);
+        Map<Integer,Object[]> authors = new HashMap<Integer,Object[]>();
+        for (int i = 0; i < size; i++) {
+            int key = unZigZag(readVarInt(in));
+            authors.put(key, new Object[] {readString(in), readString(in), readString(in)});
+        }
+        map.put(LTCserverInterface.KEY_AUTHORS, authors);
+
+        size = readVarInt(in);
+        List<String> revs = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++)
+            revs.add(readString(in));
+        map.put(LTCserverInterface.KEY_REVS, revs);
+        map.put(LTCserverInterface.KEY_LAST, readString(in));
+
+        size = readVarInt(in);
+        List<Integer> indices = new ArrayList<Integer>(size);
+        for (int i = 0; i < size; i++)
+            indices.add(readVarInt(in));
+        map.put(LTCserverInterface.KEY_REV_INDICES, indices);
+        return map;
+    }
+
+    static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7F) != 0) {
+            out.write((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte(in);
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+        throw new IOException("Variable length integer too long");
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        for (int read = 0; read < bytes.length; ) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0)
+                throw new EOFException("Unexpected end of encoding of changes");
+            read += n;
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("Unexpected end of encoding of changes");
+        return b;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Difference between two versions of marked up text as one splice of the text and one splice of the
+ * list of styles.  Styles before the style splice end before the text splice, and styles after the style
+ * splice start after the text splice, so they only move with the text.  The dirty range denotes the
+ * characters in the new text whose markup may differ from the old markup moved with the text.
+ *
+ * @author linda
+ */
+public final class ChangesDelta {
+
+    public final int textStart, removedLength;
+    public final String insertedText;
+    public final int styleIndex, removedStyles;
+    public final List<Integer[]> insertedStyles;
+    public final int dirtyStart, dirtyEnd;
+
+    private ChangesDelta(int textStart, int removedLength, String insertedText,
+                         int styleIndex, int removedStyles, List<Integer[]> insertedStyles,
+                         int dirtyStart, int dirtyEnd) {
+        this.textStart = textStart;
+        this.removedLength = removedLength;
+        this.insertedText = insertedText;
+        this.styleIndex = styleIndex;
+        this.removedStyles = removedStyles;
+        this.insertedStyles = insertedStyles;
+        this.dirtyStart = dirtyStart;
+        this.dirtyEnd = dirtyEnd;
+    }
+
+    /**
+     * Create the difference between the given old and new text with their styles.  The styles are
+     * 5-tuples as returned by {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}.
+     *
+     * @param oldText old text
+     * @param oldStyles styles of old text
+     * @param newText new text
+     * @param newStyles styles of new text
+     * @return difference that transforms the old into the new text and styles
+     */
+    public static ChangesDelta create(String oldText, List<Integer[]> oldStyles,
+                                      String newText, List<Integer[]> newStyles) {
+        // text splice from common prefix and suffix
+        int prefix = 0;
+        int length = Math.min(oldText.length(), newText.length());
+        while (prefix < length && oldText.charAt(prefix) == newText.charAt(prefix))
+            prefix++;
+        int suffix = 0;
+        while (suffix < length - prefix &&
+                oldText.charAt(oldText.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix))
+            suffix++;
+        int oldEnd = oldText.length() - suffix; // end of removed text in old text
+        int newEnd = newText.length() - suffix; // end of inserted text in new text
+        int shift = newText.length() - oldText.length();
+
+        // style splice from common styles entirely before and after the text splice
+        int first = 0;
+        length = Math.min(oldStyles.size(), newStyles.size());
+        while (first < length && oldStyles.get(first)[1] <= prefix &&
+                Arrays.equals(oldStyles.get(first), newStyles.get(first)))
+            first++;
+        int last = 0;
+        while (last < length - first && isShifted(
+                oldStyles.get(oldStyles.size() - 1 - last), newStyles.get(newStyles.size() - 1 - last), oldEnd, shift))
+            last++;
+
+        // dirty range covers inserted text and all removed and inserted styles
+        int dirtyStart = prefix, dirtyEnd = newEnd;
+        List<Integer[]> insertedStyles = new ArrayList<Integer[]>(newStyles.subList(first, newStyles.size() - last));
+        for (Integer[] style : insertedStyles) {
+            dirtyStart = Math.min(dirtyStart, style[0]);
+            dirtyEnd = Math.max(dirtyEnd, style[1]);
+        }
+        for (Integer[] style : oldStyles.subList(first, oldStyles.size() - last)) {
+            dirtyStart = Math.min(dirtyStart, toNew(style[0], prefix, oldEnd, newEnd, shift));
+            dirtyEnd = Math.max(dirtyEnd, toNew(style[1], prefix, oldEnd, newEnd, shift));
+        }
+
+        return new ChangesDelta(prefix, oldEnd - prefix, newText.substring(prefix, newEnd),
+                first, oldStyles.size() - first - last, insertedStyles,
+                dirtyStart, dirtyEnd);
+    }
+
+    // whether old style is after text splice and equal to new style when moved with the text
+    private static boolean isShifted(Integer[] oldStyle, Integer[] newStyle, int oldEnd, int shift) {
+        return oldStyle[0] >= oldEnd &&
+                oldStyle[0] + shift == newStyle[0] &&
+                oldStyle[1] + shift == newStyle[1] &&
+                oldStyle[2].equals(newStyle[2]) &&
+                oldStyle[3].equals(newStyle[3]) &&
+                oldStyle[4].equals(newStyle[4]);
+    }
+
+    // map position in old text to new text
+    private static int toNew(int position, int prefix, int oldEnd, int newEnd, int shift) {
+        if (position <= prefix)
+            return position;
+        if (position >= oldEnd)
+            return position + shift;
+        return Math.min(position, newEnd); // inside removed text
+    }
+
+    public String applyToText(String oldText) {
+        return oldText.substring(0, textStart) + insertedText + oldText.substring(textStart + removedLength);
+    }
+
+    public List<Integer[]> applyToStyles(List<Integer[]> oldStyles) {
+        int shift = insertedText.length() - removedLength;
+        List<Integer[]> styles = new ArrayList<Integer[]>(
+                oldStyles.size() - removedStyles + insertedStyles.size());
+        styles.addAll(oldStyles.subList(0, styleIndex));
+        styles.addAll(insertedStyles);
+        for (Integer[] style : oldStyles.subList(styleIndex + removedStyles, oldStyles.size()))
+            styles.add(new Integer[] {style[0] + shift, style[1] + shift, style[2], style[3], style[4]});
+        return styles;
+    }
+
+    /**
+     * Put this difference into the given map under the keys {@link LTCserverInterface#KEY_TEXT_SPLICE},
+     * {@link LTCserverInterface#KEY_STYLE_SPLICE} and {@link LTCserverInterface#KEY_DIRTY}.
+     *
+     * @param map Map to put the difference into
+     */
+    @SuppressWarnings("unchecked")
+    public void putInto(Map map) {
+        map.put(LTCserverInterface.KEY_TEXT_SPLICE, new Object[] {
+                textStart, removedLength, Base64.encodeBase64(insertedText.getBytes())});
+        map.put(LTCserverInterface.KEY_STYLE_SPLICE, new Object[] {
+                styleIndex, removedStyles, insertedStyles});
+        map.put(LTCserverInterface.KEY_DIRTY, new Object[] {dirtyStart, dirtyEnd});
+    }
+
+    /**
+     * Obtain the difference from the given map as filled by {@link #putInto(java.util.Map)}.
+     *
+     * @param map Map with the difference
+     * @return difference or <code>null</code> if the map does not contain a difference
+     */
+    @SuppressWarnings("unchecked")
+    public static ChangesDelta getFrom(Map map) {
+        Object[] text = (Object[]) map.get(LTCserverInterface.KEY_TEXT_SPLICE);
+        Object[] styles = (Object[]) map.get(LTCserverInterface.KEY_STYLE_SPLICE);
+        Object[] dirty = (Object[]) map.get(LTCserverInterface.KEY_DIRTY);
+        if (text == null || styles == null || dirty == null)
+            return null;
+        return new ChangesDelta((Integer) text[0], (Integer) text[1], new String(Base64.decodeBase64((byte[]) text[2])),
+                (Integer) styles[0], (Integer) styles[1], toStyles(styles[2]),
+                (Integer) dirty[0], (Integer) dirty[1]);
+    }
+
+    // styles are a list of integer arrays when called directly but an array of object arrays via XML-RPC
+    @SuppressWarnings("unchecked")
+    private static List<Integer[]> toStyles(Object styles) {
+        if (styles instanceof List)
+            return (List<Integer[]>) styles;
+        List<Integer[]> list = new ArrayList<Integer[]>();
+        for (Object style : (Object[]) styles)
+            list.add(Arrays.copyOf((Object[]) style, 5, Integer[].class));
+        return list;
+    }
+}
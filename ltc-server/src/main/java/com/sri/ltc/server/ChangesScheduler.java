@@ -0,0 +1,240 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sri.ltc.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the computation of changes of one session so that only the newest request is processed.
+ * <p>
+ * Each request increases the generation of the scheduler.  If a computation is running when a new
+ * request arrives, the running computation is abandoned by cancelling its token and any request waiting
+ * to be computed is replaced by the new one.  All requests that arrive before a computation of the newest
+ * generation finishes share the same result, so superseded callers receive the newest result.  If the
+ * newest request is cancelled by its caller, the newest request of a caller still waiting is computed
+ * instead, and the shared result only fails if all callers cancelled their requests.
+ * <p>
+ * Computations in the background, for example after files changed on disk, only start if no request is
+ * running or waiting.  Their result is dropped and never delivered to callers, and any request arriving
+ * while they run abandons them.
+ * <p>
+ * A scheduler that is closed with {@link #closeIfIdle()} rejects all further requests.
+ *
+ * @author linda
+ */
+final class ChangesScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(ChangesScheduler.class.getName());
+    public final static int DEFAULT_COMPUTE_THREADS = Runtime.getRuntime().availableProcessors();
+    // CPU-bound computations run on their own pool, separate from the threads serving requests:
+    private static ExecutorService computePool = createComputePool(DEFAULT_COMPUTE_THREADS);
+
+    private static ExecutorService createComputePool(int threads) {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ltc-compute-%d").build());
+    }
+
+    /**
+     * Set the number of threads that compute changes for all sessions.  At most one computation runs
+     * for each session, so that further sessions wait for a thread of this pool.  Computations already
+     * started finish on the previous pool.
+     *
+     * @param threads number of threads computing changes
+     */
+    static synchronized void setComputeThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Need at least 1 thread to compute changes");
+        ExecutorService previous = computePool;
+        computePool = createComputePool(threads);
+        previous.shutdown();
+    }
+
+    private static synchronized ExecutorService getComputePool() {
+        return computePool;
+    }
+
+    /**
+     * The computation of changes, which checks the given token for cancellation.
+     */
+    interface Task {
+        public Map call(CancellationToken token) throws Exception;
+    }
+
+    private long generation = 0; // generation of newest request
+    private Request pending = null; // newest request waiting to be computed
+    private final List<Request> waiting = new ArrayList<Request>(); // requests sharing the result, oldest first
+    private Request running = null; // request of running computation if any
+    private CancellationToken runningToken = null; // token of running computation if any
+    private boolean runningBackground = false; // whether running computation is in the background
+    private SettableFuture<Map> result = null; // shared result of all requests since last finished computation
+    private boolean closed = false;
+
+    /**
+     * Submit a request to compute changes.  The returned future obtains the result of the computation of
+     * the newest request submitted before that computation finished.  If the given token is cancelled
+     * while the request is the newest one, the computation is cancelled and the newest request whose token
+     * is not cancelled is computed instead.  Only if all tokens of the requests sharing the future are
+     * cancelled, the future fails with a {@link CancellationException}.  If the scheduler is closed, the
+     * future fails with an {@link IllegalStateException}.
+     *
+     * @param task computation of changes for this request
+     * @param token token to cancel this request
+     * @return future result of the newest request
+     */
+    synchronized ListenableFuture<Map> submit(Task task, CancellationToken token) {
+        if (closed)
+            return Futures.immediateFailedFuture(new IllegalStateException("Cannot compute changes of finished session"));
+        generation++;
+        if (pending != null)
+            LOGGER.fine("Replacing waiting request with generation "+generation);
+        pending = new Request(task, token);
+        waiting.add(pending);
+        if (result == null)
+            result = SettableFuture.create();
+        if (runningToken != null) {
+            LOGGER.fine("Abandoning running "+(runningBackground ? "background " : "")+
+                    "computation superseded by generation "+generation);
+            runningToken.cancel();
+        } else
+            startNext();
+        return result;
+    }
+
+    /**
+     * Compute changes in the background, if no computation is running and no request is waiting.  The
+     * result is dropped, so the computation only serves to fill caches for the next request.
+     *
+     * @param task computation of changes
+     * @return whether the computation was started
+     */
+    synchronized boolean submitBackground(final Task task) {
+        if (closed || runningToken != null || pending != null)
+            return false;
+        final CancellationToken token = new CancellationToken();
+        runningToken = token;
+        runningBackground = true;
+        getComputePool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.call(token);
+                } catch (Throwable t) {
+                    LOGGER.fine("Computation in the background failed: "+t.getMessage());
+                }
+                finishedBackground();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Close this scheduler if no computation is running and no request is waiting.  A closed scheduler
+     * rejects all further requests, so that its session can be finished without abandoning a request.
+     *
+     * @return whether the scheduler was idle and is now closed
+     */
+    synchronized boolean closeIfIdle() {
+        if (runningToken != null || pending != null)
+            return false;
+        closed = true;
+        return true;
+    }
+
+    // start computation of the pending request: must hold lock
+    private void startNext() {
+        final long currentGeneration = generation;
+        final Task task = pending.task;
+        final CancellationToken token = new CancellationToken(pending.token);
+        running = pending;
+        pending = null;
+        runningToken = token;
+        getComputePool().execute(new Runnable() {
+            @Override
+            public void run() {
+                Map map = null;
+                Throwable error = null;
+                try {
+                    map = task.call(token);
+                } catch (Throwable t) {
+                    error = t;
+                }
+                finished(currentGeneration, map, error);
+            }
+        });
+    }
+
+    private synchronized void finishedBackground() {
+        runningToken = null;
+        runningBackground = false;
+        if (pending != null)
+            startNext();
+    }
+
+    private synchronized void finished(long finishedGeneration, Map map, Throwable error) {
+        Request request = running;
+        running = null;
+        runningToken = null;
+        if (finishedGeneration == generation) {
+            // newest request cancelled by its caller: compute newest request of a caller still waiting
+            if (error instanceof CancellationException && request.token.isCancelled() && pending == null)
+                for (int i = waiting.size() - 1; i >= 0 && pending == null; i--)
+                    if (!waiting.get(i).token.isCancelled())
+                        pending = waiting.get(i);
+            if (pending != null)
+                LOGGER.fine("Computing request of a waiting caller as generation "+generation+" was cancelled");
+            else {
+                // deliver to all waiting callers
+                if (error == null)
+                    result.set(map);
+                else
+                    result.setException(error);
+                result = null;
+                waiting.clear();
+            }
+        } else
+            LOGGER.fine("Dropping result of superseded generation "+finishedGeneration);
+        if (pending != null)
+            startNext();
+    }
+
+    private static final class Request {
+        final Task task;
+        final CancellationToken token;
+
+        Request(Task task, CancellationToken token) {
+            this.task = task;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.sri.ltc.CommonUtils;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.xmlrpc.XmlRpcException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to obtain changes in the compact binary encoding of {@link ChangesCodec} instead of XML-RPC.
+ * <p>
+ * The request is a POST with the current text in UTF-8 as body and the parameters
+ * {@link #PARAM_SESSION}, {@link #PARAM_MODIFIED}, {@link #PARAM_CARET} and optionally {@link #PARAM_DELETIONS}
+ * as in {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}.
+ * Deletions are given as a comma-separated list of start and end positions such as "3:5,10:12".
+ * If obtaining the changes fails, the response has an error status and the XML-RPC error code
+ * under the header {@link #HEADER_ERROR_CODE}.
+ *
+ * @author linda
+ */
+public final class ChangesServlet extends HttpServlet {
+
+    public final static String PATH = "/binary";
+    public final static String PARAM_SESSION = "session";
+    public final static String PARAM_MODIFIED = "modified";
+    public final static String PARAM_CARET = "caret";
+    public final static String PARAM_DELETIONS = "deletions";
+    public final static String HEADER_ERROR_CODE = "X-LTC-Error-Code";
+
+    private final static Logger LOGGER = Logger.getLogger(ChangesServlet.class.getName());
+    private final LTCserverInterface API = new LTCserverImpl();
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map changes;
+        try {
+            int sessionID = Integer.parseInt(request.getParameter(PARAM_SESSION));
+            boolean isModified = Boolean.parseBoolean(request.getParameter(PARAM_MODIFIED));
+            int caretPosition = Integer.parseInt(request.getParameter(PARAM_CARET));
+            List<Object[]> deletions = parseDeletions(request.getParameter(PARAM_DELETIONS));
+            String currentText = CommonUtils.copyText(new BufferedReader(
+                    new InputStreamReader(request.getInputStream(), "UTF-8")));
+            changes = API.get_changes(sessionID, isModified, Base64.encodeBase64(currentText.getBytes()),
+                    deletions, caretPosition);
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Cannot parse request for binary changes: "+e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (XmlRpcException e) {
+            response.setIntHeader(HEADER_ERROR_CODE, e.code);
+            response.sendError(e.code == 1 ?
+                    HttpServletResponse.SC_NOT_FOUND :
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    e.getMessage());
+            return;
+        }
+
+        byte[] bytes = ChangesCodec.encode(changes);
+        response.setContentType(ChangesCodec.CONTENT_TYPE);
+        response.setContentLength(bytes.length);
+        OutputStream out = response.getOutputStream();
+        out.write(bytes);
+        out.close();
+    }
+
+    static List<Object[]> parseDeletions(String deletions) {
+        List<Object[]> list = new ArrayList<Object[]>();
+        if (deletions != null && !deletions.isEmpty())
+            for (String pair : deletions.split(",")) {
+                int colon = pair.indexOf(':');
+                if (colon < 0)
+                    throw new NumberFormatException("Deletion \""+pair+"\" is not of the form start:end");
+                list.add(new Integer[] {
+                        Integer.parseInt(pair.substring(0, colon)),
+                        Integer.parseInt(pair.substring(colon + 1))});
+            }
+        return list;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Custom events for the Java Flight Recorder, so that obtaining changes can be traced per request in a recording
+ * and inspected in Java Mission Control.  As the server also runs on Java versions without the Flight Recorder,
+ * the event types are created at runtime through <code>jdk.jfr.EventFactory</code> if available; otherwise, and
+ * whenever no recording is enabled for an event type, events cost little more than a check of a flag.
+ * <p>
+ * Each event carries the session ID, the path of the tracked file and the revision IDs it refers to.
+ * The session ID and path are taken from the {@link Context} of the current thread.
+ *
+ * @author linda
+ */
+public final class FlightRecorder {
+
+    private final static Logger LOGGER = Logger.getLogger(FlightRecorder.class.getName());
+    private final static String[] CATEGORY = {"LaTeX Track Changes"};
+    private final static String FIELD_SESSION = "sessionID";
+    private final static String FIELD_PATH = "path";
+    private final static String FIELD_REVISIONS = "revisions";
+    private final static ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>();
+
+    // reflective access to jdk.jfr or null if not available:
+    private final static Constructor<?> ANNOTATION_ELEMENT;
+    private final static Constructor<?> VALUE_DESCRIPTOR;
+    private final static Method CREATE, NEW_EVENT, GET_EVENT_TYPE, IS_ENABLED, BEGIN, SET, COMMIT;
+    private final static Class<?>[] ANNOTATIONS = new Class<?>[4]; // name, label, description, category
+
+    static {
+        Constructor<?> annotationElement = null, valueDescriptor = null;
+        Method create = null, newEvent = null, getEventType = null, isEnabled = null, begin = null, set = null,
+                commit = null;
+        try {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            create = factoryClass.getMethod("create", List.class, List.class);
+            newEvent = factoryClass.getMethod("newEvent");
+            getEventType = factoryClass.getMethod("getEventType");
+            isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            begin = eventClass.getMethod("begin");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+            ANNOTATIONS[0] = Class.forName("jdk.jfr.Name");
+            ANNOTATIONS[1] = Class.forName("jdk.jfr.Label");
+            ANNOTATIONS[2] = Class.forName("jdk.jfr.Description");
+            ANNOTATIONS[3] = Class.forName("jdk.jfr.Category");
+        } catch (Exception e) {
+            LOGGER.fine("Flight Recorder events not available: "+e.getMessage());
+            annotationElement = null;
+        }
+        ANNOTATION_ELEMENT = annotationElement;
+        VALUE_DESCRIPTOR = valueDescriptor;
+        CREATE = create;
+        NEW_EVENT = newEvent;
+        GET_EVENT_TYPE = getEventType;
+        IS_ENABLED = isEnabled;
+        BEGIN = begin;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    // --- event types of the server ---
+
+    public final static EventType CHANGES = new EventType("com.sri.ltc.Changes", "Obtain Changes",
+            "Obtaining the accumulated changes of a session", "caret", "styles");
+    public final static EventType ANALYZE = new EventType("com.sri.ltc.Analyze", "Analyze Version",
+            "Lexical analysis of a version", "characters", "lexemes");
+    public final static EventType DIFF = new EventType("com.sri.ltc.Diff", "Compare Versions",
+            "Comparing the lexemes of two versions", "lexemes", "changes");
+    public final static EventType ACCUMULATE = new EventType("com.sri.ltc.Accumulate", "Accumulate Revision",
+            "Marking up the changes between two versions", "changes", "deletions", "additions");
+    public final static EventType FILTERING = new EventType("com.sri.ltc.Filtering", "Filter Changes",
+            "Hiding changes of the accumulated mark up", "characters");
+
+    private FlightRecorder() {
+    }
+
+    /**
+     * Session and tracked file that the current thread works on, and the revision IDs of the history used.
+     */
+    public final static class Context {
+        public final int sessionID;
+        public final String path;
+        private final List<String> revisions;
+
+        public Context(int sessionID, String path, List<String> revisions) {
+            this.sessionID = sessionID;
+            this.path = path;
+            this.revisions = revisions == null ?
+                    Collections.<String>emptyList() :
+                    Collections.unmodifiableList(new ArrayList<String>(revisions));
+        }
+
+        public Context withRevisions(List<String> revisions) {
+            return new Context(sessionID, path, revisions);
+        }
+
+        /**
+         * @param index index of the version in the history
+         * @return revision ID of the version at the given index or an empty string if it is not known
+         */
+        public String getRevision(int index) {
+            return index >= 0 && index < revisions.size() ? revisions.get(index) : "";
+        }
+
+        public List<String> getRevisions() {
+            return revisions;
+        }
+    }
+
+    public static Context getContext() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Set the context of the current thread.
+     *
+     * @param context new context or <code>null</code> to remove the context
+     * @return previous context of the current thread to be restored later
+     */
+    public static Context setContext(Context context) {
+        Context previous = CONTEXT.get();
+        if (context == null)
+            CONTEXT.remove();
+        else
+            CONTEXT.set(context);
+        return previous;
+    }
+
+    /**
+     * Join the given revision IDs for the revisions field of an event.
+     */
+    public static String join(String... revisions) {
+        return join(Arrays.asList(revisions));
+    }
+
+    public static String join(List<String> revisions) {
+        StringBuilder joined = new StringBuilder();
+        for (String revision : revisions)
+            if (revision != null && !"".equals(revision))
+                joined.append(joined.length() > 0 ? " " : "").append(revision);
+        return joined.toString();
+    }
+
+    /**
+     * Type of events with fields for the session ID, path, revisions and any number of integer fields.
+     */
+    public final static class EventType {
+        private final Object factory; // jdk.jfr.EventFactory or null
+        private final Object type; // jdk.jfr.EventType or null
+        private final List<String> fields;
+
+        private EventType(String name, String label, String description, String... fields) {
+            this.fields = new ArrayList<String>(Arrays.asList(FIELD_SESSION, FIELD_PATH, FIELD_REVISIONS));
+            this.fields.addAll(Arrays.asList(fields));
+            Object factory = null, type = null;
+            if (ANNOTATION_ELEMENT != null)
+                try {
+                    List<Object> annotations = new ArrayList<Object>();
+                    annotations.add(ANNOTATION_ELEMENT.newInstance(ANNOTATIONS[0], name));
+                    annotations.add(ANNOTATION_ELEMENT.newInstance(ANNOTATIONS[1], label));
+                    annotations.add(ANNOTATION_ELEMENT.newInstance(ANNOTATIONS[2], description));
+                    annotations.add(ANNOTATION_ELEMENT.newInstance(ANNOTATIONS[3], CATEGORY));
+                    List<Object> descriptors = new ArrayList<Object>();
+                    for (String field : this.fields) {
+                        Class<?> fieldType = FIELD_PATH.equals(field) || FIELD_REVISIONS.equals(field) ?
+                                String.class : int.class;
+                        List<Object> fieldAnnotations = Collections.singletonList(
+                                ANNOTATION_ELEMENT.newInstance(ANNOTATIONS[1], label(field)));
+                        descriptors.add(VALUE_DESCRIPTOR.newInstance(fieldType, field, fieldAnnotations));
+                    }
+                    factory = CREATE.invoke(null, annotations, descriptors);
+                    type = GET_EVENT_TYPE.invoke(factory);
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Cannot create Flight Recorder event "+name, e);
+                    factory = null;
+                    type = null;
+                }
+            this.factory = factory;
+            this.type = type;
+        }
+
+        private static String label(String field) {
+            StringBuilder label = new StringBuilder();
+            for (char c : field.toCharArray())
+                if (label.length() == 0)
+                    label.append(Character.toUpperCase(c));
+                else if (Character.isUpperCase(c) && !Character.isUpperCase(label.charAt(label.length() - 1)))
+                    label.append(' ').append(c);
+                else
+                    label.append(c);
+            return label.toString();
+        }
+
+        public boolean isEnabled() {
+            if (type == null)
+                return false;
+            try {
+                return (Boolean) IS_ENABLED.invoke(type);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Begin an event of this type, which is committed later with {@link Event#commit(String)}.
+         * If no recording is enabled for this type, the returned event does nothing.
+         *
+         * @return event that has begun
+         */
+        public Event begin() {
+            if (!isEnabled())
+                return Event.NONE;
+            try {
+                Object event = NEW_EVENT.invoke(factory);
+                BEGIN.invoke(event);
+                return new Event(this, event);
+            } catch (Exception e) {
+                return Event.NONE;
+            }
+        }
+    }
+
+    /**
+     * Event that has begun and is committed with the revisions it refers to.
+     */
+    public final static class Event {
+        private final static Event NONE = new Event(null, null);
+
+        private final EventType type;
+        private final Object event; // jdk.jfr.Event or null
+
+        private Event(EventType type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        public boolean isEnabled() {
+            return event != null;
+        }
+
+        /**
+         * Set the given integer field of this event.
+         *
+         * @param field name of field
+         * @param value value of field
+         * @return this event
+         */
+        public Event set(String field, int value) {
+            if (event != null)
+                set(type.fields.indexOf(field), value);
+            return this;
+        }
+
+        private void set(int index, Object value) {
+            if (index < 0)
+                throw new IllegalArgumentException("Unknown field of event");
+            try {
+                SET.invoke(event, index, value);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Cannot set field of Flight Recorder event", e);
+            }
+        }
+
+        /**
+         * End and commit this event with the session ID, path and revisions of the current context.
+         */
+        public void commit() {
+            Context context = getContext();
+            commit(context == null ? "" : join(context.getRevisions()));
+        }
+
+        /**
+         * End and commit this event with the session ID and path of the current context.
+         *
+         * @param revisions revision IDs that this event refers to
+         */
+        public void commit(String revisions) {
+            if (event == null)
+                return;
+            Context context = getContext();
+            set(0, context == null ? -1 : context.sessionID);
+            set(1, context == null ? "" : context.path);
+            set(2, revisions == null ? "" : revisions);
+            try {
+                COMMIT.invoke(event); // only commits if the event is within the thresholds of the recording
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Cannot commit Flight Recorder event", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.sri.ltc.CancellationToken;
+import com.sri.ltc.ProgressReceiver;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of asynchronous jobs that compute changes in the background, so that clients
+ * can start a job, poll its progress and result, and cancel it.
+ * <p>
+ * Jobs do not occupy a thread while waiting for their computation: the result of a job is set by a
+ * listener once the computation finishes.  Finished jobs that are not polled are forgotten after the
+ * job timeout.
+ *
+ * @author linda
+ */
+public final class JobManager {
+
+    private final static Logger LOGGER = Logger.getLogger(JobManager.class.getName());
+    public final static int DEFAULT_JOB_TIMEOUT = 10; // in minutes
+    private final static String LOCK = "object to synchronize on";
+    private final static Map<Integer,Job> jobs = new HashMap<Integer,Job>();
+    private static int nextID = 1;
+    private static volatile long jobTimeout = TimeUnit.MINUTES.toMillis(DEFAULT_JOB_TIMEOUT);
+
+    /**
+     * The computation of a job, which obtains the job to report progress and to check for cancellation.
+     */
+    public interface Task {
+        /**
+         * Start the computation of the given job without waiting for it to finish.
+         *
+         * @param job job to report progress and to check for cancellation
+         * @return future result of the computation
+         */
+        public ListenableFuture<Map> start(Job job);
+    }
+
+    /**
+     * A job running in the background with its progress and a token to cancel it.
+     */
+    public final static class Job implements ProgressReceiver {
+        public final int ID;
+        public final int sessionID;
+        private final CancellationToken token = new CancellationToken();
+        private volatile int progress = 0;
+        private volatile String stage = "";
+        private final SettableFuture<Map> future = SettableFuture.create();
+        private volatile long finished = 0L; // time when computation finished in milliseconds or 0
+
+        private Job(int ID, int sessionID) {
+            this.ID = ID;
+            this.sessionID = sessionID;
+        }
+
+        @Override
+        public void updateProgress(int percent, String stage) {
+            this.stage = stage;
+            progress = percent;
+        }
+
+        public int getProgress() {
+            return progress;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public CancellationToken getToken() {
+            return token;
+        }
+
+        public Future<Map> getFuture() {
+            return future;
+        }
+    }
+
+    /**
+     * Set the time after which a finished job is forgotten if it is not polled.
+     *
+     * @param millis job timeout in milliseconds
+     */
+    static void setJobTimeoutMillis(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Cannot set job timeout to negative number "+millis);
+        jobTimeout = millis;
+    }
+
+    /**
+     * Start a job in the background that performs the given task for the given session.  The job is known
+     * under the returned ID until it is removed or expires after finishing.
+     *
+     * @param sessionID ID of session for which the job is started
+     * @param task computation to start in the background
+     * @return started job
+     */
+    public static Job startJob(int sessionID, Task task) {
+        expireJobs();
+        final Job job;
+        synchronized (LOCK) {
+            job = new Job(nextID++, sessionID); // could wrap...
+            jobs.put(job.ID, job);
+        }
+        Futures.addCallback(task.start(job), new FutureCallback<Map>() {
+            @Override
+            public void onSuccess(Map map) {
+                job.finished = System.currentTimeMillis();
+                job.future.set(map);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                job.finished = System.currentTimeMillis();
+                job.future.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return job;
+    }
+
+    /**
+     * Forget all finished jobs that have not been polled within the job timeout.  This is called when
+     * jobs are started and periodically in the background.
+     */
+    static void expireJobs() {
+        long now = System.currentTimeMillis();
+        synchronized (LOCK) {
+            for (Iterator<Job> i = jobs.values().iterator(); i.hasNext(); ) {
+                Job job = i.next();
+                if (job.finished > 0L && now - job.finished > jobTimeout) {
+                    LOGGER.info("Forgetting job "+job.ID+" that finished without being polled");
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the job for a given ID.  If the given ID does not correspond to a known job,
+     * the method returns <code>null</code>.
+     *
+     * @param jobID ID of the job
+     * @return corresponding job or <code>null</code> if none with given ID exists
+     */
+    public static Job getJob(int jobID) {
+        synchronized (LOCK) {
+            return jobs.get(jobID);
+        }
+    }
+
+    /**
+     * Remove the job denoted by its ID.  If the given ID does not correspond to a known job,
+     * nothing will happen and the method returns <code>null</code>.
+     *
+     * @param jobID ID of the job to be removed
+     * @return job that was removed
+     */
+    public static Job removeJob(int jobID) {
+        synchronized (LOCK) {
+            return jobs.remove(jobID);
+        }
+    }
+
+    /**
+     * Cancel and remove the job denoted by its ID.  The computation of the job stops at the next
+     * point where it checks for cancellation.  If the given ID does not correspond to a known job,
+     * nothing will happen and the method returns <code>null</code>.
+     *
+     * @param jobID ID of the job to be cancelled
+     * @return job that was cancelled
+     */
+    public static Job cancelJob(int jobID) {
+        Job job = removeJob(jobID);
+        if (job != null) {
+            job.token.cancel();
+            job.future.cancel(false); // cooperative cancellation only
+        }
+        return job;
+    }
+
+    /**
+     * Cancel and remove all jobs of the given session, for example, when the session is closed.
+     *
+     * @param sessionID ID of the session whose jobs are to be cancelled
+     */
+    public static void cancelJobs(int sessionID) {
+        synchronized (LOCK) {
+            for (Job job : jobs.values().toArray(new Job[jobs.size()]))
+                if (job.sessionID == sessionID)
+                    cancelJob(job.ID);
+        }
+    }
+}
@@ -22,12 +22,21 @@
 package com.sri.ltc.server;
 
 import com.sri.ltc.CommonUtils;
+import com.sri.ltc.latexdiff.DiffCache;
+import com.sri.ltc.latexdiff.LatexDiff;
 import com.sri.ltc.logging.LevelOptionHandler;
 import com.sri.ltc.logging.LogConfiguration;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
 import org.apache.xmlrpc.webserver.XmlRpcServlet;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -35,6 +44,8 @@ import org.kohsuke.args4j.Option;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -101,8 +112,11 @@ public final class LTC {
         logger.config("Java version: " + System.getProperty("java.version"));
 
         try {
-            // using Jetty:
-            Server jettyServer = new Server(LTCOptions.port);
+            // using Jetty with a bounded pool of threads serving requests:
+            Server jettyServer = new Server(createThreadPool());
+            ServerConnector connector = new ServerConnector(jettyServer);
+            connector.setPort(LTCOptions.port);
+            jettyServer.addConnector(connector);
 
             ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
             context.setContextPath("/");
@@ -110,7 +124,17 @@ public final class LTC {
 
             // XmlRpcServlet uses org/apache/xmlrpc/webserver/XmlRpcServlet.properties
             // to determine XML-RPC handlers:
-            context.addServlet(new ServletHolder(new XmlRpcServlet()), "/xmlrpc/*");
+            // and the duration of each call is observed for the metrics:
+            context.addServlet(new ServletHolder(new XmlRpcServlet() {
+                @Override
+                protected XmlRpcHandlerMapping newXmlRpcHandlerMapping() throws XmlRpcException {
+                    return MetricsServlet.timed(super.newXmlRpcHandlerMapping());
+                }
+            }), "/xmlrpc/*");
+            // compact binary encoding of changes:
+            context.addServlet(new ServletHolder(new ChangesServlet()), ChangesServlet.PATH+"/*");
+            // metrics in the text format of Prometheus:
+            context.addServlet(new ServletHolder(new MetricsServlet()), MetricsServlet.PATH);
 
             jettyServer.start();
             logger.info("Started RPC server on port " + LTCOptions.port + ".");
@@ -120,6 +144,26 @@ public final class LTC {
         }
     }
 
+    // threads serving requests: either virtual threads (if requested and available) or a bounded pool with
+    // a bounded queue of waiting requests
+    private static ThreadPool createThreadPool() {
+        if (LTCOptions.virtualThreads)
+            try {
+                // use reflection as long as we compile for older Java versions:
+                ExecutorService executor = (ExecutorService)
+                        Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.config("Serving requests on virtual threads");
+                return new ExecutorThreadPool(executor);
+            } catch (Exception e) {
+                logger.warning("Virtual threads not available with Java " + System.getProperty("java.version") +
+                        ", so using pool of " + LTCOptions.maxThreads + " threads");
+            }
+        logger.config("Serving requests with up to " + LTCOptions.maxThreads + " threads and " +
+                LTCOptions.queueSize + " waiting requests");
+        return new QueuedThreadPool(LTCOptions.maxThreads, Math.min(8, LTCOptions.maxThreads), 60000,
+                new BlockingArrayQueue<Runnable>(Math.min(64, LTCOptions.queueSize), 64, LTCOptions.queueSize));
+    }
+
     private static void printUsage(PrintStream out, CmdLineParser parser) {
         out.println("usage: java -jar LTC-<...>.jar [options...]");
         out.println("with");
@@ -195,10 +239,27 @@ public final class LTC {
             meter.start();
         }
 
+        // handle storing changes on disk
+        if (options.storeDiffs) {
+            logger.config("Storing changes between versions on disk");
+            DiffCache.setDiskStoreEnabled(true);
+        }
+        LatexDiff.setPairingLimit(options.pairingLimit);
+        ChangesScheduler.setComputeThreads(options.computeThreads);
+        SessionManager.setIdleTimeout(options.idleTimeout);
+        SessionManager.setMemoryBudget(options.memoryBudget);
+        if (options.precompute) {
+            logger.config("Computing changes in the background after changes on disk");
+            Session.setPrecomputeEnabled(true);
+        }
+
         LTC.getInstance(); // start up server (if not already running)
     }
 
     static class LTCOptions {
+        final static int DEFAULT_MAX_THREADS = 64;
+        final static int DEFAULT_QUEUE_SIZE = 256;
+
         @Option(name="-l",handler=LevelOptionHandler.class,usage="set console log level\nSEVERE, WARNING, INFO, CONFIG (default), FINE, FINER, FINEST")
         Level consoleLogLevel = Level.CONFIG;
 
@@ -222,5 +283,35 @@ public final class LTC {
 
         @Option(name="-m",usage="display progress")
         boolean showProgress = false;
+
+        @Option(name="-d",usage="store changes between versions on disk under the metadata of the repository")
+        boolean storeDiffs = false;
+
+        @Option(name="-w",usage="maximum number of deleted times inserted lexemes compared to find small changes in a replacement (default: "+
+                LatexDiff.DEFAULT_PAIRING_LIMIT+")")
+        int pairingLimit = LatexDiff.DEFAULT_PAIRING_LIMIT;
+
+        @Option(name="-t",usage="maximum number of threads serving requests (default: "+DEFAULT_MAX_THREADS+")")
+        static int maxThreads = DEFAULT_MAX_THREADS;
+
+        @Option(name="-q",usage="maximum number of requests waiting for a thread (default: "+DEFAULT_QUEUE_SIZE+")")
+        static int queueSize = DEFAULT_QUEUE_SIZE;
+
+        @Option(name="-v",usage="serve requests on virtual threads if running on Java 21 or later")
+        static boolean virtualThreads = false;
+
+        @Option(name="-x",usage="number of threads computing changes (default: number of processors)")
+        int computeThreads = ChangesScheduler.DEFAULT_COMPUTE_THREADS;
+
+        @Option(name="-i",usage="minutes after which idle sessions are finished or 0 to keep them (default: "+
+                SessionManager.DEFAULT_IDLE_TIMEOUT+")")
+        int idleTimeout = SessionManager.DEFAULT_IDLE_TIMEOUT;
+
+        @Option(name="-b",usage="memory budget of all sessions in MB or 0 for no limit (default: "+
+                SessionManager.DEFAULT_MEMORY_BUDGET+")")
+        int memoryBudget = SessionManager.DEFAULT_MEMORY_BUDGET;
+
+        @Option(name="-r",usage="compute changes of sessions again in the background when files or version control change on disk")
+        boolean precompute = false;
     }
 }
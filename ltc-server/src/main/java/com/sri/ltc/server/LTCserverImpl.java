@@ -23,7 +23,10 @@ package com.sri.ltc.server;
 
 import com.google.common.base.Function;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.CommonUtils;
+import com.sri.ltc.Progress;
 import com.sri.ltc.ProgressReceiver;
 import com.sri.ltc.filter.Author;
 import com.sri.ltc.filter.Filtering;
@@ -47,12 +50,13 @@ import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.awt.*;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.text.ParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.BackingStoreException;
@@ -74,22 +78,24 @@ public final class LTCserverImpl implements LTCserverInterface {
             Color.decode("#00CCFF"))); // darker cyan/light blue
     public final static int NUM_DEFAULT_COLORS = defaultColors.size();
     private final static String KEY_COLOR = "author-color:";
-    private static ProgressReceiver progressReceiver = null;
-    private static final String PROGRESS_RECEIVER_LOCK = "lock for synchronizing access";
+    private static volatile ProgressReceiver progressReceiver = null;
+    // names of stages to report progress
+    private final static String STAGE_INIT = "Initializing session";
+    private final static String STAGE_CLOSE = "Closing session";
+    private final static String STAGE_DELETIONS = "Applying deletions";
+    private final static String STAGE_HISTORY = "Obtaining history";
+    private final static String STAGE_AUTHORS = "Assigning colors to authors";
 
     public LTCserverImpl() { }
 
     public static void setProgressReceiver(ProgressReceiver receiver) {
-        synchronized (PROGRESS_RECEIVER_LOCK) {
-            progressReceiver = receiver;
-        }
+        progressReceiver = receiver;
     }
 
-    private void updateProgress(int progress) {
-        synchronized (PROGRESS_RECEIVER_LOCK) {
-            if (progressReceiver != null)
-                progressReceiver.updateProgress(progress);
-        }
+    private void updateProgress(int progress, String stage) {
+        ProgressReceiver receiver = progressReceiver;
+        if (receiver != null)
+            receiver.updateProgress(progress, stage);
     }
 
     private final static Logger LOGGER = Logger.getLogger(LTCserverImpl.class.getName());
@@ -132,12 +138,13 @@ public final class LTCserverImpl implements LTCserverInterface {
 
         Repository repository = null;
         try {
-            repository = RepositoryFactory.fromPath(file);
+            repository = RepositoryRegistry.acquire(file);
         } catch (Exception e) {
             logAndThrow(3, new RuntimeException("Could not find version control (git or svn) for file "+file.getAbsolutePath()))   ;
         }
-        updateProgress(10);
+        updateProgress(10, STAGE_INIT);
 
+        boolean created = false;
         try {
             TrackedFile trackedFile = repository.getFile(file);
             // test whether file tracked under git
@@ -156,8 +163,10 @@ public final class LTCserverImpl implements LTCserverInterface {
                     break;
             }
 
-            updateProgress(100);
-            return SessionManager.createSession(trackedFile);
+            updateProgress(100, STAGE_INIT);
+            int sessionID = SessionManager.createSession(trackedFile);
+            created = true;
+            return sessionID;
         } catch (IOException e) {
             logAndThrow(7, e);
         } catch (ParseException e) {
@@ -166,6 +175,9 @@ public final class LTCserverImpl implements LTCserverInterface {
             logAndThrow(10, e);
         } catch (IllegalStateException e) {
             logAndThrow(11, new RuntimeException("Tracked file already active under another session", e));
+        } finally {
+            if (!created) // release repository again if no session holds it
+                RepositoryRegistry.release(repository);
         }
 
         return -1;
@@ -176,6 +188,7 @@ public final class LTCserverImpl implements LTCserverInterface {
         Session session = SessionManager.finishSession(sessionID);
         if (session == null)
             logAndThrow(1, new RuntimeException("Cannot close session with given ID "+sessionID));
+        JobManager.cancelJobs(sessionID);
 
         // translate current text
         String currentText = new String(Base64.decodeBase64(currentText64));
@@ -188,7 +201,7 @@ public final class LTCserverImpl implements LTCserverInterface {
                         deletions.size()+" deletions, ":
                         "")+
                 "and caret at "+caretPosition+" called.");
-        updateProgress(5);
+        updateProgress(5, STAGE_CLOSE);
 
         // apply deletions to current text and update caret position
         try {
@@ -203,11 +216,11 @@ public final class LTCserverImpl implements LTCserverInterface {
         }
 
         // create return value
-        updateProgress(90);
+        updateProgress(90, STAGE_CLOSE);
         Map map = new HashMap();
         map.put(LTCserverInterface.KEY_TEXT, Base64.encodeBase64(currentText.getBytes()));
         map.put(LTCserverInterface.KEY_CARET, caretPosition);
-        updateProgress(100);
+        updateProgress(100, STAGE_CLOSE);
         return map;
     }
 
@@ -246,10 +259,155 @@ public final class LTCserverImpl implements LTCserverInterface {
         return 0;
     }
 
-    @SuppressWarnings (value={"unchecked","fallthrough"})
-    public Map get_changes(int sessionID, boolean isModified, byte[] currentText64, List deletions, int caretPosition) throws XmlRpcException {
-        Session session = getSession(sessionID);
+    public Map get_changes(int sessionID, final boolean isModified, final byte[] currentText64, final List deletions, final int caretPosition) throws XmlRpcException {
+        final Session session = getSession(sessionID);
+        rememberRequest(session, isModified, currentText64, deletions, caretPosition);
+        return awaitChanges(session.getScheduler().submit(new ChangesScheduler.Task() {
+            @Override
+            public Map call(CancellationToken token) throws Exception {
+                return computeChanges(session, isModified, currentText64, deletions, caretPosition,
+                        new ProgressReceiver() {
+                            @Override
+                            public void updateProgress(int percent, String stage) {
+                                LTCserverImpl.this.updateProgress(percent, stage);
+                            }
+                        }, token);
+            }
+        }, new CancellationToken()));
+    }
+
+    public Map get_changes_since(int sessionID, boolean isModified, byte[] currentText64, List deletions, int caretPosition,
+                                 int version) throws XmlRpcException {
+        Map changes = get_changes(sessionID, isModified, currentText64, deletions, caretPosition);
+        return getSession(sessionID).createVersion(changes, version);
+    }
+
+    public int start_changes(int sessionID, final boolean isModified, final byte[] currentText64, final List deletions, final int caretPosition) throws XmlRpcException {
+        final Session session = getSession(sessionID);
+        rememberRequest(session, isModified, currentText64, deletions, caretPosition);
+        JobManager.Job job = JobManager.startJob(sessionID, new JobManager.Task() {
+            @Override
+            public ListenableFuture<Map> start(final JobManager.Job job) {
+                return session.getScheduler().submit(new ChangesScheduler.Task() {
+                    @Override
+                    public Map call(CancellationToken token) throws Exception {
+                        return computeChanges(session, isModified, currentText64, deletions, caretPosition,
+                                job, token);
+                    }
+                }, job.getToken());
+            }
+        });
+        LOGGER.info("Server: start_changes for file \"" + session.getTrackedFile().getFile().getAbsolutePath() + "\" " +
+                "started job " + job.ID + ".");
+        return job.ID;
+    }
+
+    // remember the given request to compute its changes again in the background after changes on disk, unless
+    // its text is modified in the editor, which the next request replaces anyway
+    private void rememberRequest(final Session session, final boolean isModified, final byte[] currentText64,
+                                 final List deletions, final int caretPosition) {
+        if (isModified) {
+            session.setPrecomputation(null);
+            return;
+        }
+        session.setPrecomputation(new ChangesScheduler.Task() {
+            @Override
+            public Map call(CancellationToken token) throws Exception {
+                return computeChanges(session, isModified, currentText64, deletions, caretPosition,
+                        new ProgressReceiver() {
+                            @Override
+                            public void updateProgress(int percent, String stage) {
+                                // not reported
+                            }
+                        }, token);
+            }
+        });
+    }
+
+    // wait for the changes computed by the scheduler of a session, which may be the result of a newer request
+    private Map awaitChanges(Future<Map> future) throws XmlRpcException {
+        Map map = null;
+        try {
+            map = future.get();
+        } catch (InterruptedException e) {
+            logAndThrow(9, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XmlRpcException)
+                throw (XmlRpcException) e.getCause(); // already logged
+            if (e.getCause() instanceof CancellationException)
+                logAndThrow(9, e.getCause());
+            logAndThrow(10, e.getCause());
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map poll_changes(int jobID) throws XmlRpcException {
+        JobManager.Job job = JobManager.getJob(jobID);
+        if (job == null)
+            logAndThrow(1, new RuntimeException("Cannot retrieve job with given ID "+jobID));
 
+        Map map = new HashMap();
+        if (!job.getFuture().isDone()) {
+            map.put(LTCserverInterface.KEY_DONE, false);
+            map.put(LTCserverInterface.KEY_PROGRESS, job.getProgress());
+            map.put(LTCserverInterface.KEY_STAGE, job.getStage());
+            return map;
+        }
+
+        // job has finished, so forget about it and return result or error
+        JobManager.removeJob(jobID);
+        try {
+            map.putAll(job.getFuture().get());
+        } catch (InterruptedException e) {
+            logAndThrow(9, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XmlRpcException)
+                throw (XmlRpcException) e.getCause(); // already logged
+            if (e.getCause() instanceof CancellationException)
+                logAndThrow(9, e.getCause());
+            logAndThrow(10, e.getCause());
+        }
+        map.put(LTCserverInterface.KEY_DONE, true);
+        map.put(LTCserverInterface.KEY_PROGRESS, 100);
+        return map;
+    }
+
+    public int cancel_changes(int jobID) throws XmlRpcException {
+        JobManager.Job job = JobManager.cancelJob(jobID);
+        if (job == null)
+            logAndThrow(1, new RuntimeException("Cannot cancel job with given ID "+jobID));
+        LOGGER.info("Server: cancel_changes for job " + jobID + " called.");
+        return 0;
+    }
+
+    // compute changes for get_changes and start_changes while reporting progress to the given receiver
+    // and checking the given token for cancellation; within the context of the session for events of the
+    // Flight Recorder
+    private Map computeChanges(Session session, boolean isModified, byte[] currentText64, List deletions, int caretPosition,
+                               ProgressReceiver receiver, CancellationToken token) throws XmlRpcException {
+        Progress progress = new Progress(receiver).start(); // sampled at a fixed rate
+        FlightRecorder.Context previous = FlightRecorder.setContext(new FlightRecorder.Context(
+                session.ID, session.getTrackedFile().getFile().getAbsolutePath(), null));
+        FlightRecorder.Event event = FlightRecorder.CHANGES.begin();
+        try {
+            Map map = computeChangesInContext(session, isModified, currentText64, deletions, caretPosition,
+                    progress, token);
+            if (event.isEnabled())
+                event.set("caret", (Integer) map.get(LTCserverInterface.KEY_CARET))
+                        .set("styles", ((List) map.get(LTCserverInterface.KEY_STYLES)).size())
+                        .commit();
+            return map;
+        } finally {
+            FlightRecorder.setContext(previous);
+            progress.finish();
+        }
+    }
+
+    @SuppressWarnings (value={"unchecked","fallthrough"})
+    private Map computeChangesInContext(Session session, boolean isModified, byte[] currentText64, List deletions,
+                                        int caretPosition, Progress progress, CancellationToken token)
+            throws XmlRpcException {
         // translate current text
         String currentText = new String(Base64.decodeBase64(currentText64));
 
@@ -260,7 +418,8 @@ public final class LTCserverImpl implements LTCserverInterface {
                         deletions.size() + " deletions, " :
                         "") +
                 "and caret at " + caretPosition + " called.");
-        updateProgress(5);
+        progress.stage(STAGE_DELETIONS, 5, 10);
+        long start = System.nanoTime(); // to observe the duration of stages
 
         // apply deletions to current text and update caret position
         try {
@@ -271,7 +430,8 @@ public final class LTCserverImpl implements LTCserverInterface {
         } catch (BadLocationException e) {
             logAndThrow(7, e);
         }
-        updateProgress(10);
+        start = Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_DELETIONS, start);
+        progress.stage(STAGE_HISTORY, 10, 47);
 
         Filtering filter = Filtering.getInstance();
 
@@ -280,8 +440,20 @@ public final class LTCserverImpl implements LTCserverInterface {
         try {
             // create history with limits and obtain revision IDs, authors, and readers:
             units = session.createLimitedHistory(filter.getStatus(BoolPrefs.COLLAPSE_AUTHORS), // whether to condense authors or not
-                    isModified, currentText);
-            updateProgress(47);
+                    isModified, currentText, token);
+            start = Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_HISTORY, start);
+            FlightRecorder.setContext(FlightRecorder.getContext().withRevisions(
+                    Lists.transform(units, new Function<HistoryUnit, String>() {
+                        @Nullable
+                        @Override
+                        public String apply(@Nullable HistoryUnit unit) {
+                            return unit.revision;
+                        }
+                    })));
+            Metrics.REVISIONS.observe(units.size());
+            progress.stage(STAGE_AUTHORS, 47, 50);
+        } catch (CancellationException e) {
+            throw e;
         } catch (IOException e) {
             logAndThrow(5, e);
         } catch (ParseException e) {
@@ -334,24 +506,12 @@ public final class LTCserverImpl implements LTCserverInterface {
             } catch (BackingStoreException e) {
                 logAndThrow(8, e);
             }
-        updateProgress(50);
+        Metrics.STAGE_SECONDS.observeSince(Metrics.STAGE_AUTHORS, start);
+        progress.stage(Accumulate.STAGE_ACCUMULATE, 50, 100);
 
         // do diffs and accumulate changes:
         Map map = null;
         try {
-            PropertyChangeListener listener = null;
-            if (progressReceiver != null) {
-                listener = new PropertyChangeListener() {
-                    @Override
-                    public void propertyChange(PropertyChangeEvent e) {
-                        if (Accumulate.PROGRESS_PROPERTY.equals(e.getPropertyName())) {
-                            updateProgress(50+(int) (((Float) e.getNewValue())*40f));
-                        }
-                    }
-                };
-                session.getAccumulate().addPropertyChangeListener(listener);
-            }
-
             map = session.getAccumulate().perform(
                     Iterables.toArray(Lists.transform(units, new Function<HistoryUnit, ReaderWrapper>() {
                         @Nullable
@@ -367,7 +527,9 @@ public final class LTCserverImpl implements LTCserverInterface {
                             filter.getStatus(BoolPrefs.PREAMBLE),
                             filter.getStatus(BoolPrefs.COMMENTS),
                             filter.getStatus(BoolPrefs.COMMANDS)),
-                    limitedAuthorsAsIndices, caretPosition);
+                    limitedAuthorsAsIndices, caretPosition,
+                    Session.createAccumulationKey(units), // reuse accumulated changes if texts are the same
+                    token, progress);
             map.put(LTCserverInterface.KEY_AUTHORS, mappedAuthors); // add current author map
             map.put(LTCserverInterface.KEY_REVS, Lists.transform(units.subList(1, units.size()),
                     new Function<HistoryUnit, String>() {
@@ -385,12 +547,11 @@ public final class LTCserverImpl implements LTCserverInterface {
                 map.put(LTCserverInterface.KEY_LAST, units.get(active_revs.get(0)).revision);
             // indices of active revs are 0,1,... to be used with the sublist above under #KEY_REVS,
             // so we don't need to subtract 1 to get to the last revision before the lowest index in 'units'
-
-            session.getAccumulate().removePropertyChangeListener(listener);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             logAndThrow(2, e);
         }
-        updateProgress(100);
 
         return map;
     }
@@ -434,6 +595,11 @@ public final class LTCserverImpl implements LTCserverInterface {
         return false;
     }
 
+    public List get_session_stats() {
+        LOGGER.info("Server: get_session_stats called.");
+        return SessionManager.getStatistics();
+    }
+
     public String get_VCS(int sessionID) throws XmlRpcException {
         Session session = getSession(sessionID);
 
@@ -42,6 +42,13 @@ public interface LTCserverInterface {
     public final static String KEY_REVS = "revs";
     public final static String KEY_LAST = "last_rev";
     public final static String KEY_REV_INDICES = "revision indices";
+    public final static String KEY_DONE = "done";
+    public final static String KEY_PROGRESS = "progress";
+    public final static String KEY_STAGE = "stage";
+    public final static String KEY_VERSION = "version";
+    public final static String KEY_TEXT_SPLICE = "text splice";
+    public final static String KEY_STYLE_SPLICE = "style splice";
+    public final static String KEY_DIRTY = "dirty range";
     public static enum BoolPrefs {SMALL, DELETIONS, PREAMBLE, COMMANDS, COMMENTS, COLLAPSE_AUTHORS, ALLOW_SIMILAR_COLORS};
     public final static String ON_DISK = "on disk"; // special name for version on disk (if file modified and not committed)
     public final static String MODIFIED = "modified"; // special name for text modified in editor
@@ -84,6 +91,10 @@ public interface LTCserverInterface {
      * current text.  These are needed to properly convert the given caret position to
      * one in the newly computed text.
      * <p>
+     * Requests for the same session are coalesced: if newer requests arrive while changes
+     * are being computed, the running computation is abandoned and only the newest request
+     * is computed.  All superseded callers receive the result of the newest request.
+     * <p>
      * The return value contains the text encoded in Base64 without any changes under
      * the key {@link #KEY_TEXT}.
      * The value under {@link #KEY_CARET} contains the cursor position transformed from
@@ -180,11 +191,116 @@ public interface LTCserverInterface {
      *   <li>with error code = 6 if a ParseException occurred during log retrieval.
      *   <li>with error code = 7 if a BadLocationException occurs while removing deletions from current text.
      *   <li>with error code = 8 if a BackingStoreException occurs while dealing with author colors.
+     *   <li>with error code = 9 if interrupted or cancelled while waiting for the changes.
+     *   <li>with error code = 10 if obtaining the changes failed otherwise.
      * </ul>
      */
     public Map get_changes(int sessionID, boolean isModified, byte[] currentText64, List deletions, int caretPosition)
             throws XmlRpcException;
 
+    /**
+     * Obtains the changes of the file indicated by the session ID as in
+     * {@link #get_changes(int, boolean, byte[], java.util.List, int)} but only as the difference to
+     * the changes returned by the last call of this method if the given version matches the version
+     * returned by that call.
+     * <p>
+     * The returned map always contains the new version under {@link #KEY_VERSION}.  If the given version
+     * is the one of the last call, the map contains the difference to the text and styles of that version
+     * instead of the entries under {@link #KEY_TEXT} and {@link #KEY_STYLES}.  The difference consists of
+     * <ul>
+     *     <li>under {@link #KEY_TEXT_SPLICE} the start position and length of the text to remove from the
+     *     last text and the text in Base64 encoding to insert instead,</li>
+     *     <li>under {@link #KEY_STYLE_SPLICE} the index and number of styles to remove from the last list of
+     *     styles and the list of styles to insert instead, while all styles after the removed ones move by the
+     *     difference in length of the inserted and removed text, and</li>
+     *     <li>under {@link #KEY_DIRTY} the start and end position of the new text, outside of which the mark up
+     *     has only moved with the text.</li>
+     * </ul>
+     * Otherwise, the map contains the complete text and styles as returned by
+     * {@link #get_changes(int, boolean, byte[], java.util.List, int)}.
+     *
+     * @param sessionID identifies the session
+     * @param isModified whether the text has been modified since the last save operation
+     * @param currentText64 current text in editor in Base64 encoding or empty (cannot be <code>null</code>)
+     * @param deletions list of pairs with start and end position of deletions in <code>currentText</code> if any;
+     *                  <code>null</code> or empty list if no deletions
+     * @param caretPosition current cursor position to be transformed into new one (should be a valid position in
+     *                      <code>currentText</code>)
+     * @param version version returned by the last call of this method or 0 to obtain the complete changes
+     * @return Map that contains the new version and the text with changes and list of styles or their
+     * difference to the given version, map of indices to authors, updated caret position and lists of
+     * revision names
+     * @throws XmlRpcException as in {@link #get_changes(int, boolean, byte[], java.util.List, int)}
+     */
+    public Map get_changes_since(int sessionID, boolean isModified, byte[] currentText64, List deletions, int caretPosition,
+                                 int version)
+            throws XmlRpcException;
+
+    /**
+     * Start obtaining changes of the given session in the background as in
+     * {@link #get_changes(int, boolean, byte[], java.util.List, int)} and return immediately.
+     * The returned job ID is used to poll the progress and result of the job with
+     * {@link #poll_changes(int)} or to cancel it with {@link #cancel_changes(int)}.
+     * Jobs of a session are cancelled when the session is closed.
+     *
+     * @param sessionID identifies the session
+     * @param isModified whether the text has been modified since the last save operation
+     * @param currentText64 current text in editor in Base64 encoding or empty (cannot be <code>null</code>)
+     * @param deletions list of pairs with start and end position of deletions in <code>currentText</code> if any;
+     *                  <code>null</code> or empty list if no deletions
+     * @param caretPosition current cursor position to be transformed into new one (should be a valid position in
+     *                      <code>currentText</code>)
+     * @return ID of the started job
+     * @throws XmlRpcException <ul>
+     *   <li>with error code = 1 if the given identifier does not denote a known session.
+     * </ul>
+     */
+    public int start_changes(int sessionID, boolean isModified, byte[] currentText64, List deletions, int caretPosition)
+            throws XmlRpcException;
+
+    /**
+     * Poll the job of obtaining changes started with
+     * {@link #start_changes(int, boolean, byte[], java.util.List, int)}.
+     * The returned map contains a boolean under {@link #KEY_DONE} whether the job has finished
+     * and the current progress in percent under {@link #KEY_PROGRESS}.  While the job is running, the
+     * map also contains the name of its current stage under {@link #KEY_STAGE}.  Once the job has finished,
+     * the map also contains all entries as returned by {@link #get_changes(int, boolean, byte[], java.util.List, int)}
+     * and the job is forgotten, so that it cannot be polled again.
+     *
+     * @param jobID identifies the job
+     * @return Map with the status of the job and, if finished, the changes
+     * @throws XmlRpcException <ul>
+     *   <li>with error code = 1 if the given identifier does not denote a known job.
+     *   <li>with error codes 2-10 as in {@link #get_changes(int, boolean, byte[], java.util.List, int)}
+     *       if the finished job failed.
+     * </ul>
+     */
+    public Map poll_changes(int jobID) throws XmlRpcException;
+
+    /**
+     * Cancel the job of obtaining changes started with
+     * {@link #start_changes(int, boolean, byte[], java.util.List, int)}.
+     * The job stops at the next point where it checks for cancellation and is forgotten,
+     * so that it cannot be polled anymore.
+     *
+     * @param jobID identifies the job
+     * @return 0
+     * @throws XmlRpcException <ul>
+     *   <li>with error code = 1 if the given identifier does not denote a known job.
+     * </ul>
+     */
+    public int cancel_changes(int jobID) throws XmlRpcException;
+
+    /**
+     * Obtain statistics of all active sessions.  The returned list contains for each session
+     * a 4-tuple with the session ID, the path of the tracked file, the time in seconds since the
+     * session was last used, and the estimated memory of the session in KB.  Sessions that are idle
+     * for too long or exceed the memory budget of the server are finished automatically.
+     *
+     * @return a list of statistics for each active session ordered by session ID
+     */
+    public List get_session_stats();
+
     /**
      * Obtain the name of the version control system that tracks the current file of the given session.
      *
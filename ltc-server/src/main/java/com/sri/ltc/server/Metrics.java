@@ -0,0 +1,329 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of metrics about the server, which are written in the text format of Prometheus by the
+ * {@link MetricsServlet}.  Metrics are histograms, counters, and gauges with at most one label.  The metrics
+ * of the server are registered as constants of this class.
+ *
+ * @author linda
+ */
+public final class Metrics {
+
+    public final static double[] SECONDS_BUCKETS =
+            {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    public final static double[] COUNT_BUCKETS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000};
+
+    private final static Map<String,Metric> registry = new LinkedHashMap<String,Metric>();
+
+    // --- metrics of the server ---
+
+    public final static Histogram RPC_SECONDS = histogram("ltc_rpc_duration_seconds",
+            "Duration of XML-RPC calls in seconds", "method", SECONDS_BUCKETS);
+    public final static Histogram STAGE_SECONDS = histogram("ltc_changes_stage_duration_seconds",
+            "Duration of the stages of obtaining changes in seconds", "stage", SECONDS_BUCKETS);
+    public final static Histogram REVISIONS = histogram("ltc_changes_revisions",
+            "Number of versions accumulated per request for changes", null, COUNT_BUCKETS);
+    public final static Histogram LEXEMES = histogram("ltc_changes_lexemes",
+            "Number of lexemes of earlier versions compared per request for changes", null, COUNT_BUCKETS);
+    public final static Histogram CHANGES = histogram("ltc_changes_changes",
+            "Number of changes between versions accumulated per request for changes", null, COUNT_BUCKETS);
+    public final static Counter CACHE_HITS = counter("ltc_cache_hits_total",
+            "Number of lookups that were found in a cache", "cache");
+    public final static Counter CACHE_MISSES = counter("ltc_cache_misses_total",
+            "Number of lookups that were not found in a cache", "cache");
+
+    // names of stages and caches used as labels:
+    public final static String STAGE_DELETIONS = "deletions";
+    public final static String STAGE_HISTORY = "history";
+    public final static String STAGE_AUTHORS = "authors";
+    public final static String STAGE_ACCUMULATE = "accumulate";
+    public final static String STAGE_FILTERING = "filtering";
+    public final static String STAGE_SERIALIZATION = "serialization";
+    public final static String CACHE_DIFF_MEMORY = "diff_memory";
+    public final static String CACHE_DIFF_DISK = "diff_disk";
+    public final static String CACHE_ACCUMULATION = "accumulation";
+    public final static String CACHE_CONTENTS = "contents";
+    public final static String CACHE_STATUS = "status";
+
+    static {
+        gauge("ltc_sessions", "Number of active sessions", new Gauge() {
+            @Override
+            public double value() {
+                return SessionManager.getSessionCount();
+            }
+        });
+        for (final String cache : new String[] {CACHE_DIFF_MEMORY, CACHE_DIFF_DISK, CACHE_ACCUMULATION, CACHE_CONTENTS,
+                CACHE_STATUS})
+            gauge("ltc_cache_hit_ratio{cache=\""+cache+"\"}", "Ratio of lookups that were found in a cache",
+                    new Gauge() {
+                        @Override
+                        public double value() {
+                            long hits = CACHE_HITS.get(cache), total = hits + CACHE_MISSES.get(cache);
+                            return total == 0 ? 0d : (double) hits / total;
+                        }
+                    });
+    }
+
+    private Metrics() {
+    }
+
+    private static abstract class Metric {
+        final String name;
+        final String help;
+        final String type;
+
+        Metric(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        abstract void write(Writer writer) throws IOException;
+    }
+
+    private static String labels(String label, String value, String extra) {
+        StringBuilder labels = new StringBuilder();
+        if (label != null)
+            labels.append(label).append("=\"").append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        if (extra != null)
+            labels.append(labels.length() > 0 ? "," : "").append(extra);
+        return labels.length() > 0 ? "{"+labels+"}" : "";
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /**
+     * Histogram of observed values for each value of its label.
+     */
+    public final static class Histogram extends Metric {
+        private final String label;
+        private final double[] buckets;
+        private final ConcurrentMap<String,Observations> observations = new ConcurrentHashMap<String,Observations>();
+
+        private Histogram(String name, String help, String label, double[] buckets) {
+            super(name, help, "histogram");
+            this.label = label;
+            this.buckets = buckets.clone();
+        }
+
+        /**
+         * Observe the given value for the given value of the label.
+         *
+         * @param labelValue value of the label or <code>null</code> if the histogram has no label
+         * @param value observed value
+         */
+        public void observe(String labelValue, double value) {
+            String key = labelValue == null ? "" : labelValue;
+            Observations observed = observations.get(key);
+            if (observed == null) {
+                Observations created = new Observations(buckets.length + 1);
+                observed = observations.putIfAbsent(key, created);
+                if (observed == null)
+                    observed = created;
+            }
+            int bucket = 0;
+            while (bucket < buckets.length && value > buckets[bucket])
+                bucket++;
+            synchronized (observed) {
+                observed.counts[bucket]++;
+                observed.sum += value;
+            }
+        }
+
+        public void observe(double value) {
+            observe(null, value);
+        }
+
+        /**
+         * Observe the time elapsed since the given start for the given value of the label.
+         *
+         * @param labelValue value of the label or <code>null</code> if the histogram has no label
+         * @param startNanos start as obtained from {@link System#nanoTime()}
+         * @return current time in nanoseconds to start the next measurement
+         */
+        public long observeSince(String labelValue, long startNanos) {
+            long now = System.nanoTime();
+            observe(labelValue, (double) (now - startNanos) / TimeUnit.SECONDS.toNanos(1));
+            return now;
+        }
+
+        @Override
+        void write(Writer writer) throws IOException {
+            List<String> keys = new ArrayList<String>(observations.keySet());
+            Collections.sort(keys);
+            for (String key : keys) {
+                Observations observed = observations.get(key);
+                long[] copy;
+                double sum;
+                synchronized (observed) {
+                    copy = observed.counts.clone();
+                    sum = observed.sum;
+                }
+                long cumulative = 0L;
+                for (int i = 0; i <= buckets.length; i++) {
+                    cumulative += copy[i];
+                    writer.write(name+"_bucket"+labels(label, key,
+                            "le=\""+(i < buckets.length ? format(buckets[i]) : "+Inf")+"\"")+" "+cumulative+"\n");
+                }
+                writer.write(name+"_sum"+labels(label, key, null)+" "+format(sum)+"\n");
+                writer.write(name+"_count"+labels(label, key, null)+" "+cumulative+"\n");
+            }
+        }
+
+        // counts by bucket and sum of observations for one value of the label, guarded by itself
+        private static final class Observations {
+            final long[] counts;
+            double sum = 0d;
+
+            Observations(int buckets) {
+                counts = new long[buckets];
+            }
+        }
+    }
+
+    /**
+     * Counter for each value of its label.
+     */
+    public final static class Counter extends Metric {
+        private final String label;
+        private final ConcurrentMap<String,AtomicLong> counts = new ConcurrentHashMap<String,AtomicLong>();
+
+        private Counter(String name, String help, String label) {
+            super(name, help, "counter");
+            this.label = label;
+        }
+
+        public void increment(String labelValue) {
+            String key = labelValue == null ? "" : labelValue;
+            AtomicLong count = counts.get(key);
+            if (count == null) {
+                counts.putIfAbsent(key, new AtomicLong());
+                count = counts.get(key);
+            }
+            count.incrementAndGet();
+        }
+
+        public long get(String labelValue) {
+            AtomicLong count = counts.get(labelValue == null ? "" : labelValue);
+            return count == null ? 0L : count.get();
+        }
+
+        @Override
+        void write(Writer writer) throws IOException {
+            List<String> keys = new ArrayList<String>(counts.keySet());
+            Collections.sort(keys);
+            for (String key : keys)
+                writer.write(name+labels(label, key, null)+" "+counts.get(key).get()+"\n");
+        }
+    }
+
+    /**
+     * Value that is obtained whenever the metrics are written.
+     */
+    public interface Gauge {
+        public double value();
+    }
+
+    private final static class GaugeMetric extends Metric {
+        private final Gauge gauge;
+
+        private GaugeMetric(String name, String help, Gauge gauge) {
+            super(name, help, "gauge");
+            this.gauge = gauge;
+        }
+
+        @Override
+        void write(Writer writer) throws IOException {
+            writer.write(name+" "+format(gauge.value())+"\n");
+        }
+    }
+
+    // --- registration ---
+
+    public static Histogram histogram(String name, String help, String label, double[] buckets) {
+        return register(new Histogram(name, help, label, buckets));
+    }
+
+    public static Counter counter(String name, String help, String label) {
+        return register(new Counter(name, help, label));
+    }
+
+    /**
+     * Register a gauge under the given name, which may contain labels in braces.
+     */
+    public static void gauge(String name, String help, Gauge gauge) {
+        register(new GaugeMetric(name, help, gauge));
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        synchronized (registry) {
+            if (registry.containsKey(metric.name))
+                throw new IllegalArgumentException("Metric "+metric.name+" is already registered");
+            registry.put(metric.name, metric);
+        }
+        return metric;
+    }
+
+    /**
+     * Write all metrics in the text format of Prometheus.  Help and type of a metric are written only once
+     * if several gauges share the same name with different labels.
+     *
+     * @param writer writer to write metrics to
+     * @throws IOException if the metrics cannot be written
+     */
+    public static void write(Writer writer) throws IOException {
+        List<Metric> metrics;
+        synchronized (registry) {
+            metrics = new ArrayList<Metric>(registry.values());
+        }
+        String family = null;
+        for (Metric metric : metrics) {
+            int brace = metric.name.indexOf('{');
+            String name = brace < 0 ? metric.name : metric.name.substring(0, brace);
+            if (!name.equals(family)) {
+                writer.write("# HELP "+name+" "+metric.help+"\n");
+                writer.write("# TYPE "+name+" "+metric.type+"\n");
+                family = name;
+            }
+            metric.write(writer);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcHandler;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcNoSuchHandlerException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Servlet to obtain the {@link Metrics} of the server in the text format of Prometheus.
+ *
+ * @author linda
+ */
+public final class MetricsServlet extends HttpServlet {
+
+    public final static String PATH = "/metrics";
+    public final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        Writer writer = response.getWriter();
+        Metrics.write(writer);
+        writer.flush();
+    }
+
+    /**
+     * Wrap the given mapping of XML-RPC handlers so that the duration of each call is observed
+     * under its method name in {@link Metrics#RPC_SECONDS}.
+     *
+     * @param mapping mapping of XML-RPC handlers to wrap
+     * @return mapping with handlers that observe the duration of calls
+     */
+    public static XmlRpcHandlerMapping timed(final XmlRpcHandlerMapping mapping) {
+        return new XmlRpcHandlerMapping() {
+            @Override
+            public XmlRpcHandler getHandler(final String handlerName)
+                    throws XmlRpcNoSuchHandlerException, XmlRpcException {
+                final XmlRpcHandler handler = mapping.getHandler(handlerName);
+                return new XmlRpcHandler() {
+                    @Override
+                    public Object execute(XmlRpcRequest request) throws XmlRpcException {
+                        long start = System.nanoTime();
+                        try {
+                            return handler.execute(request);
+                        } finally {
+                            Metrics.RPC_SECONDS.observeSince(handlerName, start);
+                        }
+                    }
+                };
+            }
+        };
+    }
+}
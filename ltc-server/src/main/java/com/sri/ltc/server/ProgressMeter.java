@@ -28,7 +28,7 @@ import com.sri.ltc.ProgressReceiver;
  */
 public final class ProgressMeter extends Thread implements ProgressReceiver {
     @Override
-    public void updateProgress(int percent) {
+    public void updateProgress(int percent, String stage) {
         StringBuilder bar = new StringBuilder("[");
 
         for (int i = 0; i < 50; i++) {
@@ -41,7 +41,7 @@ public final class ProgressMeter extends Thread implements ProgressReceiver {
             }
         }
 
-        bar.append("]   " + percent + "%     ");
+        bar.append("]   " + percent + "%  " + stage + "          ");
         System.out.print("\r" + bar.toString());
         if (percent >= 100)
             System.out.println();
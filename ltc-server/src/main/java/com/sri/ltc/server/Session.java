@@ -22,44 +22,96 @@
 package com.sri.ltc.server;
 
 import com.google.common.collect.Sets;
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.filter.Author;
 import com.sri.ltc.latexdiff.FileReaderWrapper;
 import com.sri.ltc.latexdiff.StringReaderWrapper;
+import com.sri.ltc.versioncontrol.RepositoryRegistry;
+import com.sri.ltc.versioncontrol.RepositoryWatcher;
 import com.sri.ltc.versioncontrol.VersionControlException;
 import com.sri.ltc.versioncontrol.history.CompleteHistory;
 import com.sri.ltc.latexdiff.Accumulate;
+import com.sri.ltc.latexdiff.DiffCache;
 import com.sri.ltc.versioncontrol.TrackedFile;
 import com.sri.ltc.versioncontrol.history.HistoryUnit;
 import com.sri.ltc.versioncontrol.history.LimitedHistory;
+import org.apache.commons.codec.binary.Base64;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
 /**
  * @author linda
  */
 public final class Session {
 
+    private final static Logger LOGGER = Logger.getLogger(Session.class.getName());
     private static int nextID = 1;
+    private final static long SESSION_MEMORY = 4096L; // estimate without caches in bytes
+    private final static String DIFF_CACHE_DIRECTORY = "ltc"+File.separator+"diffs";
+    private static volatile boolean precomputeEnabled = false;
 
     final int ID;
     private final TrackedFile trackedFile;
-    private final Accumulate accumulate = new Accumulate();
+    private final Accumulate accumulate;
+    private final ChangesScheduler scheduler = new ChangesScheduler();
     private final Set<Author> knownAuthors = Sets.newHashSet();
     private final Set<Author> limitedAuthors = Sets.newHashSet();
     private String limit_date = "";
     private String limit_rev = "";
+    // last changes sent with a version to obtain differences:
+    private int sentVersion = 0;
+    private String sentText = null;
+    private List<Integer[]> sentStyles = null;
+    // estimated bytes of authors and last changes sent, so that estimating does not wait for the lock:
+    private volatile long dataMemory = 0L;
+    // time of last access in milliseconds to evict idle sessions:
+    private volatile long lastAccess = System.currentTimeMillis();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // watcher of repository (if shared through registry) and last request to compute changes again upon changes:
+    private final RepositoryWatcher watcher;
+    private volatile ChangesScheduler.Task precomputation = null;
+    private final RepositoryWatcher.Listener listener = new RepositoryWatcher.Listener() {
+        @Override
+        public void changed(TrackedFile trackedFile) {
+            ChangesScheduler.Task task = precomputation;
+            if (precomputeEnabled && task != null && !closed.get() && scheduler.submitBackground(task))
+                LOGGER.fine("Computing changes of \""+trackedFile.getFile().getName()+"\" in the background");
+        }
+    };
 
     protected Session(TrackedFile trackedFile) throws IOException, ParseException, VersionControlException {
         ID = generateID();
         if (trackedFile == null)
             throw new IllegalArgumentException("cannot create session with NULL as tracked file");
         this.trackedFile = trackedFile;
+        // store changes between versions under metadata of repository (if enabled):
+        File metadataDirectory = trackedFile.getRepository().getMetadataDirectory();
+        accumulate = new Accumulate(new DiffCache(
+                metadataDirectory == null ? null : new File(metadataDirectory, DIFF_CACHE_DIRECTORY)));
         // initializations based on tracked file:
         addAuthors(new CompleteHistory(trackedFile).getAuthors());
         addAuthors(Collections.singleton(trackedFile.getRepository().getSelf()));
+        // watch for changes on disk:
+        watcher = RepositoryRegistry.getWatcher(trackedFile.getRepository());
+        if (watcher != null)
+            watcher.watch(trackedFile, listener);
+    }
+
+    /**
+     * Enable or disable computing the changes of sessions in the background whenever the tracked file or its
+     * version control metadata change on disk, so that the next request finds the results ready.  The changes
+     * are computed again with the parameters of the last request of a session.
+     *
+     * @param enabled whether to compute changes in the background
+     */
+    public static void setPrecomputeEnabled(boolean enabled) {
+        precomputeEnabled = enabled;
     }
 
     public TrackedFile getTrackedFile() {
@@ -75,6 +127,81 @@ public final class Session {
         return accumulate;
     }
 
+    ChangesScheduler getScheduler() {
+        return scheduler;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Release the repository of the tracked file in the registry of repositories.  Only the first call
+     * has an effect, so a session that is both finished and discarded releases its repository only once.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (watcher != null)
+                watcher.unwatch(trackedFile, listener);
+            precomputation = null;
+            RepositoryRegistry.release(trackedFile.getRepository());
+        }
+    }
+
+    /**
+     * Remember the given computation of changes to run again in the background after changes on disk.
+     * It only runs if no other request is running or waiting, and its result is never returned to a caller.
+     *
+     * @param task computation of changes with the parameters of the last request or NULL to not compute
+     *             changes in the background
+     * @see #setPrecomputeEnabled(boolean)
+     */
+    void setPrecomputation(ChangesScheduler.Task task) {
+        if (!closed.get())
+            precomputation = task;
+    }
+
+    // status of tracked file from watcher of repository, if any
+    private TrackedFile.Status getStatus() throws VersionControlException {
+        return watcher == null ? trackedFile.getStatus() : watcher.getStatus(trackedFile);
+    }
+
+    /**
+     * Estimate the memory in bytes held by this session.  Most of it is held by the caches, which are the
+     * accumulated mark up of the last call and the last changes sent under a version.
+     *
+     * @return estimated number of bytes held by this session
+     */
+    long estimateMemory() {
+        return SESSION_MEMORY + accumulate.estimateCacheMemory() + dataMemory;
+    }
+
+    // update estimated bytes of authors and last changes sent: must hold lock
+    private void updateMemory() {
+        long bytes = 128L * (knownAuthors.size() + limitedAuthors.size());
+        if (sentText != null)
+            bytes += 2L * sentText.length() + 32L * sentStyles.size();
+        dataMemory = bytes;
+    }
+
+    /**
+     * Discard the caches of this session.  The next changes are then calculated anew and sent in full.
+     */
+    void clearCaches() {
+        accumulate.clearCache();
+        precomputation = null; // holds text of last request
+        synchronized (this) {
+            sentVersion++; // any version known to clients is now outdated
+            sentText = null;
+            sentStyles = null;
+            updateMemory();
+        }
+    }
+
     // synchronize all the following accessor methods to the data sets in this session:
 
     // --- known authors ---
@@ -84,10 +211,35 @@ public final class Session {
     }
     public synchronized void addAuthors(Collection<? extends Author> newAuthors) {
         knownAuthors.addAll(newAuthors);
+        updateMemory();
     }
 
     // --- create limited history ---
 
+    /**
+     * Build a key identifying the contents of the given history units but the newest one to reuse
+     * accumulated changes from the last call.  Committed versions are identified by their revision.
+     * The newest unit may be modified, on disk or without history, so its text is compared by
+     * {@link Accumulate} instead of being read and hashed here.
+     *
+     * @param units ordered list of history units as obtained from {@link #createLimitedHistory(boolean, boolean, String)}
+     * @return key identifying the contents of the given history units except the newest one or NULL, if an
+     * earlier unit is not committed
+     */
+    public static String createAccumulationKey(List<HistoryUnit> units) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < units.size(); i++) {
+            String revision = units.get(i).revision;
+            if (i < units.size() - 1 && (LTCserverInterface.MODIFIED.equals(revision) ||
+                    LTCserverInterface.ON_DISK.equals(revision) ||
+                    "".equals(revision)))
+                return null;
+            key.append(revision).append(" ");
+        }
+        return key.toString();
+    }
+
+
     /**
      * Get limited history of tracked file with any limits on date or revision observed. Also observe
      * given setting whether to collapse authors.  Use also a flag whether text is modified in editor
@@ -103,8 +255,27 @@ public final class Session {
      * @return ordered list of history units with at least one entry
      * @throws Exception
      */
-    public synchronized List<HistoryUnit> createLimitedHistory(boolean collapseAuthors, boolean isModified,
-                                                               String currentText) throws Exception {
+    public List<HistoryUnit> createLimitedHistory(boolean collapseAuthors, boolean isModified,
+                                                  String currentText) throws Exception {
+        return createLimitedHistory(collapseAuthors, isModified, currentText, new CancellationToken());
+    }
+
+    /**
+     * Get limited history of tracked file as in {@link #createLimitedHistory(boolean, boolean, String)}
+     * but stop as soon as the given token is cancelled.  The token is checked for each commit while
+     * retrieving the log from version control.  The session is not locked while version control is
+     * queried, so that other calls to this session do not wait for it.
+     *
+     * @param token token to request cancellation of obtaining the history
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     * @see #createLimitedHistory(boolean, boolean, String)
+     */
+    public List<HistoryUnit> createLimitedHistory(boolean collapseAuthors, boolean isModified,
+                                                  String currentText,
+                                                  CancellationToken token) throws Exception {
+        token.check();
+        String limit_date = getLimitDate();
+        String limit_rev = getLimitRev();
         Author self = getTrackedFile().getRepository().getSelf();
 
         // process modified & on disk cases first:
@@ -115,7 +286,7 @@ public final class Session {
                     LTCserverInterface.MODIFIED,
                     new StringReaderWrapper(currentText));
         else
-            switch (getTrackedFile().getStatus()) {
+            switch (getStatus()) {
                 case Added:
                 case Modified:
                 case Changed:
@@ -133,7 +304,8 @@ public final class Session {
             // no limiting revision OR limiting revision is neither the beginning of "modified" nor "on disk":
             // obtain revision history from version control system
             limitingRev = TrackedFile.HAT_REVISION;
-        List<HistoryUnit> units = new LimitedHistory(trackedFile, limit_date, limitingRev, collapseAuthors).getHistoryUnits();
+        List<HistoryUnit> units = new LimitedHistory(trackedFile, limit_date, limitingRev, collapseAuthors, token)
+                .getHistoryUnits();
 
         // process last unit: if exists, possibly replace the last one from VC
         if (last != null) {
@@ -152,16 +324,48 @@ public final class Session {
         return units;
     }
 
+    // --- versions of changes ---
+
+    /**
+     * Remember the given changes as the last ones sent under a new version and return them as the difference
+     * to the last changes sent, if the given version matches those.  The given map is not modified.
+     *
+     * @param changes Map with changes as returned by {@link LTCserverInterface#get_changes(int, boolean, byte[], java.util.List, int)}
+     * @param version version of the changes the difference is requested to or 0
+     * @return Map with the new version and the changes or their difference to the given version
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Map createVersion(Map changes, int version) {
+        String text = new String(Base64.decodeBase64((byte[]) changes.get(LTCserverInterface.KEY_TEXT)));
+        List<Integer[]> styles = (List<Integer[]>) changes.get(LTCserverInterface.KEY_STYLES);
+
+        Map map = new HashMap(changes); // the given changes may be shared with other callers
+        if (version != 0 && version == sentVersion) {
+            map.remove(LTCserverInterface.KEY_TEXT);
+            map.remove(LTCserverInterface.KEY_STYLES);
+            ChangesDelta.create(sentText, sentStyles, text, styles).putInto(map);
+        }
+        sentVersion++;
+        sentText = text;
+        sentStyles = styles;
+        updateMemory();
+        map.put(LTCserverInterface.KEY_VERSION, sentVersion);
+        return map;
+    }
+
     // --- limited authors ---
 
     public synchronized Set<Author> getLimitedAuthors() {
         return limitedAuthors;
     }
     public synchronized boolean addLimitedAuthor(Author author) {
-        return limitedAuthors.add(author);
+        boolean added = limitedAuthors.add(author);
+        updateMemory();
+        return added;
     }
     public synchronized void resetLimitedAuthors() {
         limitedAuthors.clear();
+        updateMemory();
     }
 
     // --- limited date ---
@@ -21,21 +21,89 @@
  */
 package com.sri.ltc.server;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sri.ltc.versioncontrol.TrackedFile;
 import com.sri.ltc.versioncontrol.VersionControlException;
 
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
+ * Registry of active sessions.  Sessions are kept in concurrent maps, so that looking up a session does not
+ * block other requests.  A background task periodically finishes sessions that have been idle for longer than
+ * the idle timeout and keeps the estimated memory of all sessions within the memory budget: first the caches of
+ * the least recently used sessions are discarded and only then whole sessions are finished, except for the one
+ * used most recently.  Sessions that are computing changes are not finished by eviction, so that their
+ * repository stays open until the computation is done.
+ *
  * @author linda
  */
 public final class SessionManager {
 
-    private final static String LOCK = "object to synchronize on";
-    private final static Map<Integer,Session> sessions = new HashMap<Integer,Session>();
-    private final static Set<TrackedFile> activeFiles = new HashSet<TrackedFile>();
+    private final static Logger LOGGER = Logger.getLogger(SessionManager.class.getName());
+    public final static int DEFAULT_IDLE_TIMEOUT = 120; // in minutes
+    public final static int DEFAULT_MEMORY_BUDGET = 256; // in MB
+    private final static long EVICTION_PERIOD = 60; // in seconds
+
+    private final static ConcurrentMap<Integer,Session> sessions = new ConcurrentHashMap<Integer,Session>();
+    private final static ConcurrentMap<TrackedFile,Boolean> activeFiles = new ConcurrentHashMap<TrackedFile,Boolean>();
+
+    private static volatile long idleTimeout = TimeUnit.MINUTES.toMillis(DEFAULT_IDLE_TIMEOUT);
+    private static volatile long memoryBudget = DEFAULT_MEMORY_BUDGET * 1024L * 1024L;
+
+    static {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ltc-eviction-%d").build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JobManager.expireJobs();
+                    evict();
+                } catch (RuntimeException e) {
+                    LOGGER.warning("Could not evict sessions: "+e.getMessage());
+                }
+            }
+        }, EVICTION_PERIOD, EVICTION_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Set the time after which an idle session is finished.
+     *
+     * @param minutes idle timeout in minutes or 0 to keep idle sessions forever
+     */
+    public static void setIdleTimeout(int minutes) {
+        if (minutes < 0)
+            throw new IllegalArgumentException("Cannot set idle timeout to negative number "+minutes);
+        idleTimeout = TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /**
+     * Set the budget for the estimated memory of all sessions.
+     *
+     * @param megabytes memory budget in MB or 0 to not limit the memory of sessions
+     */
+    public static void setMemoryBudget(int megabytes) {
+        if (megabytes < 0)
+            throw new IllegalArgumentException("Cannot set memory budget to negative number "+megabytes);
+        setMemoryBudgetBytes(megabytes * 1024L * 1024L);
+    }
+
+    static void setMemoryBudgetBytes(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    static void setIdleTimeoutMillis(long millis) {
+        idleTimeout = millis;
+    }
 
     /**
      * Create a session for the given tracked file.  After this method finishes, the returned ID
@@ -54,15 +122,19 @@ public final class SessionManager {
      *         while initializing the session with the version history of the tracked file
      */
     public static int createSession(TrackedFile file) throws IOException, ParseException, VersionControlException {
-        synchronized (LOCK) {
-            if (isActive(file))
-                throw new IllegalStateException("cannot create session for tracked file that is already active");
+        if (activeFiles.putIfAbsent(file, Boolean.TRUE) != null)
+            throw new IllegalStateException("cannot create session for tracked file that is already active");
+        boolean created = false;
+        try {
             Session session = new Session(file);
-            if (sessions.containsKey(session.ID))
-                finishSession(session.ID); // the ID's wrapped, so discard the previously known session
-            sessions.put(session.ID, session);
-            activeFiles.add(file);
+            Session previous = sessions.put(session.ID, session);
+            if (previous != null) // the ID's wrapped, so discard the previously known session
+                discard(previous);
+            created = true;
             return session.ID;
+        } finally {
+            if (!created)
+                activeFiles.remove(file);
         }
     }
 
@@ -76,25 +148,34 @@ public final class SessionManager {
      * @return session that was made inactive
      */
     public static Session finishSession(int sessionID) {
-        synchronized (LOCK) {
-            Session session = sessions.remove(sessionID);
-            if (session != null)
-                activeFiles.remove(session.getTrackedFile());
-            return session;
+        Session session = sessions.remove(sessionID);
+        if (session != null) {
+            activeFiles.remove(session.getTrackedFile());
+            session.close();
         }
+        return session;
+    }
+
+    private static void discard(Session session) {
+        if (sessions.remove(session.ID, session) || !sessions.containsValue(session)) {
+            activeFiles.remove(session.getTrackedFile());
+            session.close();
+        }
+        JobManager.cancelJobs(session.ID);
     }
 
     /**
      * Get the active session for a given ID.  If the given ID does not correspond to an active session,
-     * the method returns <code>null</code>.
+     * the method returns <code>null</code>.  Getting a session counts as its use for evicting idle sessions.
      *
      * @param sessionID ID of the session to be made inactive
      * @return corresponding active session of <code>null</code> if none with given ID exists
      */
     public static Session getSession(int sessionID) {
-        synchronized (LOCK) {
-            return sessions.get(sessionID);
-        }
+        Session session = sessions.get(sessionID);
+        if (session != null)
+            session.touch();
+        return session;
     }
 
     /**
@@ -104,8 +185,91 @@ public final class SessionManager {
      * @return whether the given file is currently active
      */
     public static boolean isActive(TrackedFile file) {
-        synchronized (LOCK) {
-            return activeFiles.contains(file);
+        return activeFiles.containsKey(file);
+    }
+
+    public static int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Obtain statistics of all active sessions ordered by ID.  Each entry is a 4-tuple with the ID of the
+     * session, the path of its tracked file, the time in seconds since the session was last used, and its
+     * estimated memory in KB.
+     *
+     * @return list of statistics for each active session
+     */
+    public static List<Object[]> getStatistics() {
+        List<Session> active = Lists.newArrayList(sessions.values());
+        Collections.sort(active, new Comparator<Session>() {
+            @Override
+            public int compare(Session session1, Session session2) {
+                return session1.ID < session2.ID ? -1 : (session1.ID == session2.ID ? 0 : 1);
+            }
+        });
+        long now = System.currentTimeMillis();
+        List<Object[]> statistics = new ArrayList<Object[]>();
+        for (Session session : active)
+            statistics.add(new Object[] {
+                    session.ID,
+                    session.getTrackedFile().getFile().getAbsolutePath(),
+                    (int) TimeUnit.MILLISECONDS.toSeconds(Math.max(0L, now - session.getLastAccess())),
+                    (int) Math.min(Integer.MAX_VALUE, (session.estimateMemory() + 1023L) / 1024L)});
+        return statistics;
+    }
+
+    /**
+     * Finish sessions that are idle for longer than the idle timeout and keep the estimated memory of the
+     * remaining sessions within the memory budget.  This is called periodically in the background.
+     */
+    static void evict() {
+        long now = System.currentTimeMillis();
+        long timeout = idleTimeout;
+        // least recently used sessions first:
+        List<Session> active = Lists.newArrayList(sessions.values());
+        Collections.sort(active, new Comparator<Session>() {
+            @Override
+            public int compare(Session session1, Session session2) {
+                long access1 = session1.getLastAccess(), access2 = session2.getLastAccess();
+                return access1 < access2 ? -1 : (access1 == access2 ? 0 : 1);
+            }
+        });
+
+        if (timeout > 0)
+            for (Iterator<Session> i = active.iterator(); i.hasNext(); ) {
+                Session session = i.next();
+                if (now - session.getLastAccess() > timeout && session.getScheduler().closeIfIdle()) {
+                    LOGGER.info("Finishing session "+session.ID+" after being idle for "+
+                            TimeUnit.MILLISECONDS.toMinutes(now - session.getLastAccess())+" minutes");
+                    discard(session);
+                    i.remove();
+                }
+            }
+
+        long budget = memoryBudget;
+        if (budget <= 0)
+            return;
+        long total = 0L;
+        for (Session session : active)
+            total += session.estimateMemory();
+        // discard caches of least recently used sessions:
+        for (Iterator<Session> i = active.iterator(); i.hasNext() && total > budget; ) {
+            Session session = i.next();
+            long before = session.estimateMemory();
+            session.clearCaches();
+            total -= before - session.estimateMemory();
+        }
+        // finish least recently used sessions but never the most recent one:
+        for (Iterator<Session> i = active.iterator(); i.hasNext() && total > budget; ) {
+            Session session = i.next();
+            if (!i.hasNext())
+                break;
+            long bytes = session.estimateMemory();
+            if (!session.getScheduler().closeIfIdle())
+                continue;
+            LOGGER.warning("Finishing session "+session.ID+" to stay within memory budget");
+            total -= bytes;
+            discard(session);
         }
     }
 }
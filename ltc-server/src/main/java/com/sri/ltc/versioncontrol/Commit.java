@@ -53,6 +53,16 @@ public abstract class Commit<RepositoryClass extends Repository, TrackedFileClas
     // if the commit was not filtered by file, this method will return null
     abstract public InputStream getContentStream() throws VersionControlException;
 
+    /**
+     * Obtain a key that identifies the contents of the tracked file in this commit, so that commits with the
+     * same contents have the same key.
+     *
+     * @return key of the contents or NULL if not known
+     */
+    public String getContentKey() {
+        return null;
+    }
+
     public Reader getContents() throws VersionControlException {
         InputStream is = getContentStream();
         if (is == null)
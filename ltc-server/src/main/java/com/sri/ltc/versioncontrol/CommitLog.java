@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.versioncontrol;
+
+import com.google.common.base.Objects;
+import com.sri.ltc.CancellationToken;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Commits of a tracked file kept in memory.  Version control is only queried again when the head revision
+ * of the repository has moved, and then only commits newer than the last known ones are walked and added
+ * if the tracked file supports this.  Otherwise, for instance if the history was rewritten, all commits
+ * are obtained again.  Limited lists of commits are derived from the commits in memory.
+ *
+ * @author linda
+ */
+public final class CommitLog {
+
+    private final static Logger LOGGER = Logger.getLogger(CommitLog.class.getName());
+    private final TrackedFile trackedFile;
+    private boolean valid = false;
+    private String revision = null; // head revision of repository when last updated
+    private List<Commit> commits = Collections.emptyList(); // in topological order, newest first
+
+    CommitLog(TrackedFile trackedFile) {
+        this.trackedFile = trackedFile;
+    }
+
+    /**
+     * Obtain list of commits as in {@link TrackedFile#getCommits()} but from memory, if the head revision
+     * of the repository has not moved since the last call.
+     *
+     * @return unmodifiable list of commits in topological order (could be empty)
+     * @throws VersionControlException
+     * @throws IOException
+     */
+    public List<Commit> getCommits() throws VersionControlException, IOException {
+        return getCommits(new CancellationToken());
+    }
+
+    /**
+     * Obtain list of commits as in {@link #getCommits()} but stop as soon as the given token is cancelled.
+     * The commits in memory are only replaced once all new commits are obtained.
+     *
+     * @param token token to request cancellation of obtaining the commits
+     * @return unmodifiable list of commits in topological order (could be empty)
+     * @throws VersionControlException
+     * @throws IOException
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<Commit> getCommits(CancellationToken token) throws VersionControlException, IOException {
+        String head = trackedFile.getHeadRevision();
+        if (valid && Objects.equal(head, revision))
+            return commits;
+
+        List<Commit> added = null;
+        if (valid && revision != null && head != null)
+            added = trackedFile.getCommitsSince(revision, commits.isEmpty() ? null : commits.get(0).getId(), token);
+        if (added != null && extend(added))
+            LOGGER.fine("Added "+added.size()+" commits to log of \""+trackedFile.getFile().getName()+"\"");
+        else {
+            commits = Collections.unmodifiableList(new ArrayList<Commit>(trackedFile.getCommits(token)));
+            LOGGER.fine("Obtained "+commits.size()+" commits for log of \""+trackedFile.getFile().getName()+"\"");
+        }
+        revision = head;
+        valid = true;
+        return commits;
+    }
+
+    /**
+     * Obtain list of commits as in {@link TrackedFile#getCommits(Date, String)} but derived from the
+     * commits in memory.
+     *
+     * @param inclusiveLimitDate limiting date or NULL
+     * @param inclusiveLimitRevision limiting revision or NULL
+     * @return list of commits in topological order observing the given limits (could be empty)
+     * @throws VersionControlException
+     * @throws IOException
+     */
+    public List<Commit> getCommits(@Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision)
+            throws VersionControlException, IOException {
+        return getCommits(inclusiveLimitDate, inclusiveLimitRevision, new CancellationToken());
+    }
+
+    /**
+     * Obtain list of commits as in {@link #getCommits(Date, String)} but stop as soon as the given token
+     * is cancelled.
+     *
+     * @param inclusiveLimitDate limiting date or NULL
+     * @param inclusiveLimitRevision limiting revision or NULL
+     * @param token token to request cancellation of obtaining the commits
+     * @return list of commits in topological order observing the given limits (could be empty)
+     * @throws VersionControlException
+     * @throws IOException
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    @SuppressWarnings("unchecked")
+    public List<Commit> getCommits(@Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision,
+                                   CancellationToken token)
+            throws VersionControlException, IOException {
+        return trackedFile.limitCommits(getCommits(token), inclusiveLimitDate, inclusiveLimitRevision);
+    }
+
+    /**
+     * Forget the commits in memory so that the next call obtains all commits again.
+     */
+    public synchronized void invalidate() {
+        valid = false;
+        commits = Collections.emptyList();
+    }
+
+    // add given newer commits in front of the known ones unless they overlap or refer to unknown parents
+    private boolean extend(List<Commit> added) {
+        if (added.isEmpty())
+            return true;
+        Set<String> ids = new HashSet<String>();
+        for (Commit commit : commits)
+            ids.add(commit.getId());
+        for (Commit commit : added)
+            if (!ids.add(commit.getId()))
+                return false;
+        for (Commit commit : added)
+            for (Object parent : commit.getParents())
+                if (!ids.contains(((Commit) parent).getId()))
+                    return false;
+        List<Commit> list = new ArrayList<Commit>(added.size() + commits.size());
+        list.addAll(added);
+        list.addAll(commits);
+        commits = Collections.unmodifiableList(list);
+        return true;
+    }
+}
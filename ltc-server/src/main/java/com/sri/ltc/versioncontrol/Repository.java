@@ -50,6 +50,19 @@ public interface Repository {
      */
     public LTCserverInterface.VersionControlSystems getVCS();
 
+    /**
+     * Obtain the directory with the metadata of the version control system, such as <code>.git</code>
+     * or <code>.svn</code>, where additional data can be stored.
+     *
+     * @return metadata directory or <code>null</code> if not available
+     */
+    public File getMetadataDirectory();
+
+    /**
+     * Release any resources such as open files and caches held by this repository.
+     */
+    public void close();
+
     // TODO: could push these into a separate interface, but probably not needed
     public Author getSelf();
     public void setSelf(Author author);
@@ -44,6 +44,19 @@ public class RepositoryFactory {
     };
 
     public static Repository fromPath(File path) throws Exception {
+        if (getRoot(path).listFiles(GIT_FILTER).length == 1)
+            return new GitRepository(path);
+        return new SVNRepository(path);
+    }
+
+    /**
+     * Find the root of the working copy of the given file, that is the closest parent directory that
+     * contains a <code>.git</code> or <code>.svn</code> directory.
+     *
+     * @param path file under version control
+     * @return closest parent directory with version control metadata
+     */
+    public static File getRoot(File path) {
         if (path == null)
             throw new IllegalArgumentException("Cannot create repository from NULL");
         if (!path.exists() || !path.isFile())
@@ -53,12 +66,9 @@ public class RepositoryFactory {
         // walk up the parent dirs and look for .git or .svn directory
         File testPath = path.getParentFile();
         while (testPath != null && testPath.isDirectory()) {
-            if (testPath.listFiles(GIT_FILTER).length == 1)
-                return new GitRepository(path);
-            else if (testPath.listFiles(SVN_FILTER).length == 1)
-                return new SVNRepository(path);
-            else
-                testPath = testPath.getParentFile();
+            if (testPath.listFiles(GIT_FILTER).length == 1 || testPath.listFiles(SVN_FILTER).length == 1)
+                return testPath;
+            testPath = testPath.getParentFile();
         }
 
         throw new RuntimeException("Could not create repository from given file "+path);
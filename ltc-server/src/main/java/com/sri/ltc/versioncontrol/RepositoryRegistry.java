@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.versioncontrol;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Registry of repositories shared among all sessions and tracked files of the same working copy, so
+ * that they use one handle with its open files and content cache.  Repositories are keyed by the canonical
+ * path of the root of their working copy and counted by references: {@link #acquire(File)} opens the
+ * repository of the given file or returns the one already open, and {@link #release(Repository)} closes
+ * the repository once its last reference is released.
+ * <p>
+ * Each open repository has a {@link RepositoryWatcher} to cache the status of its tracked files and to
+ * notify listeners of changes on disk, which is closed together with the repository.
+ *
+ * @author linda
+ */
+public final class RepositoryRegistry {
+
+    private final static Logger LOGGER = Logger.getLogger(RepositoryRegistry.class.getName());
+    private final static Map<String,Handle> handles = new HashMap<String,Handle>();
+
+    /**
+     * Obtain the repository of the given file and count a reference to it.  Each call must be followed
+     * by a call to {@link #release(Repository)} once the repository is no longer used.
+     *
+     * @param file file under version control
+     * @return repository shared with other users of the same working copy
+     * @throws Exception if the repository cannot be created
+     * @see RepositoryFactory#fromPath(File)
+     */
+    public static synchronized Repository acquire(File file) throws Exception {
+        String key = RepositoryFactory.getRoot(file).getCanonicalPath();
+        Handle handle = handles.get(key);
+        if (handle == null) {
+            Repository repository = RepositoryFactory.fromPath(file);
+            handle = new Handle(repository, new RepositoryWatcher(repository.getMetadataDirectory()));
+            handles.put(key, handle);
+            LOGGER.fine("Opened repository at \""+key+"\"");
+        }
+        handle.references++;
+        return handle.repository;
+    }
+
+    /**
+     * Release a reference to the given repository and close it, if this was the last reference.
+     * Repositories that were not obtained from this registry are ignored.
+     *
+     * @param repository repository as obtained from {@link #acquire(File)}
+     */
+    public static synchronized void release(Repository repository) {
+        for (Iterator<Map.Entry<String,Handle>> i = handles.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String,Handle> entry = i.next();
+            if (entry.getValue().repository == repository) {
+                if (--entry.getValue().references == 0) {
+                    i.remove();
+                    entry.getValue().watcher.close();
+                    repository.close();
+                    LOGGER.fine("Closed repository at \""+entry.getKey()+"\"");
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param repository repository as obtained from {@link #acquire(File)}
+     * @return number of references to the given repository or 0 if it is not open in this registry
+     */
+    public static synchronized int getReferences(Repository repository) {
+        for (Handle handle : handles.values())
+            if (handle.repository == repository)
+                return handle.references;
+        return 0;
+    }
+
+    /**
+     * @param repository repository as obtained from {@link #acquire(File)}
+     * @return watcher of the given repository or NULL if it is not open in this registry
+     */
+    public static synchronized RepositoryWatcher getWatcher(Repository repository) {
+        for (Handle handle : handles.values())
+            if (handle.repository == repository)
+                return handle.watcher;
+        return null;
+    }
+
+    private static final class Handle {
+        final Repository repository;
+        final RepositoryWatcher watcher;
+        int references = 0;
+
+        Handle(Repository repository, RepositoryWatcher watcher) {
+            this.repository = repository;
+            this.watcher = watcher;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.versioncontrol;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.sri.ltc.server.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the working files and the version control metadata of one repository for changes, so that the
+ * status of tracked files is only obtained from version control again after a change on disk.  Listeners
+ * of tracked files are notified of changes of the file or of the metadata, for example to compute changes
+ * in the background.
+ * <p>
+ * The watched metadata are the files of the metadata directory that hold the state of the working copy,
+ * such as <code>HEAD</code>, <code>index</code> and the references of git or <code>wc.db</code> of
+ * Subversion.  Events are delivered asynchronously, so a cached status is additionally compared with the
+ * modification time and length of the tracked file and the state files and with the contents of the
+ * reference that <code>HEAD</code> points to.  This catches the common cases of saving the file or
+ * committing, also outside of LTC, just before asking for changes.  If the file system cannot be watched,
+ * the status is always obtained from version control.
+ *
+ * @author linda
+ */
+public final class RepositoryWatcher {
+
+    private final static Logger LOGGER = Logger.getLogger(RepositoryWatcher.class.getName());
+    // files in the metadata directory that hold the state of the working copy:
+    private final static Set<String> STATE_FILES = ImmutableSet.of("HEAD", "index", "packed-refs", "wc.db");
+    private final static String REFS_DIRECTORY = "refs";
+    private final static String LOCK_SUFFIX = ".lock";
+    private final static String HEAD_FILE = "HEAD";
+    private final static String SYMBOLIC_REF = "ref: ";
+
+    /**
+     * Receives notifications of changes to a watched tracked file.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread of the watcher after the given tracked file or the version control metadata
+         * of its repository changed on disk.
+         *
+         * @param trackedFile tracked file that may have changed its contents, status or history
+         */
+        public void changed(TrackedFile trackedFile);
+    }
+
+    private final Path metadataDirectory;
+    private final WatchService watchService; // NULL if file system cannot be watched
+    private final Map<WatchKey,Path> directories = new HashMap<WatchKey,Path>();
+    private final Map<Path,Entry> entries = new HashMap<Path,Entry>(); // watched tracked files
+    private long generation = 0; // increased with every change to discard status obtained concurrently
+
+    /**
+     * Create a watcher for the repository with the given metadata directory and start watching its state.
+     *
+     * @param metadataDirectory metadata directory of repository or NULL to not watch any metadata
+     */
+    public RepositoryWatcher(File metadataDirectory) {
+        this.metadataDirectory = metadataDirectory == null ? null : metadataDirectory.getAbsoluteFile().toPath();
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            if (this.metadataDirectory != null) {
+                register(service, this.metadataDirectory);
+                registerAll(service, this.metadataDirectory.resolve(REFS_DIRECTORY));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot watch repository at \""+metadataDirectory+"\"", e);
+            close(service);
+            service = null;
+        }
+        watchService = service;
+        if (watchService != null) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watch();
+                }
+            }, "ltc-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // register given directory under given service: must hold lock or be called from constructor
+    private void register(WatchService service, Path directory) throws IOException {
+        directories.put(directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+    }
+
+    // register given directory and all its sub-directories if it exists
+    private void registerAll(final WatchService service, Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(service, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Start watching the given tracked file and notify the given listener of changes.
+     *
+     * @param trackedFile tracked file to watch
+     * @param listener listener to notify of changes to the tracked file
+     */
+    public synchronized void watch(TrackedFile trackedFile, Listener listener) {
+        Path path = getPath(trackedFile);
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(trackedFile);
+            entries.put(path, entry);
+            if (watchService != null && !directories.containsValue(path.getParent()))
+                try {
+                    register(watchService, path.getParent());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot watch directory of \""+path+"\"", e);
+                }
+        }
+        entry.listeners.add(listener);
+    }
+
+    /**
+     * Stop notifying the given listener of changes to the given tracked file.  The tracked file is no longer
+     * watched once all its listeners are removed.
+     *
+     * @param trackedFile tracked file as given to {@link #watch(TrackedFile, Listener)}
+     * @param listener listener as given to {@link #watch(TrackedFile, Listener)}
+     */
+    public synchronized void unwatch(TrackedFile trackedFile, Listener listener) {
+        Path path = getPath(trackedFile);
+        Entry entry = entries.get(path);
+        if (entry == null || !entry.listeners.remove(listener) || !entry.listeners.isEmpty())
+            return;
+        entries.remove(path);
+        // cancel watching the directory if no other tracked file is in it:
+        for (Path other : entries.keySet())
+            if (other.getParent().equals(path.getParent()))
+                return;
+        for (Iterator<Map.Entry<WatchKey,Path>> i = directories.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<WatchKey,Path> directory = i.next();
+            if (directory.getValue().equals(path.getParent())) {
+                directory.getKey().cancel();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Obtain the status of the given tracked file as in {@link TrackedFile#getStatus()} but from memory, if
+     * the file is watched and neither the file nor the metadata of the repository changed since the last call.
+     *
+     * @param trackedFile tracked file to obtain status of
+     * @return status of tracked file
+     * @throws VersionControlException if the status cannot be obtained from version control
+     */
+    public TrackedFile.Status getStatus(TrackedFile trackedFile) throws VersionControlException {
+        if (watchService == null)
+            return trackedFile.getStatus();
+        Path path = getPath(trackedFile);
+        String stamp = createStamp(path); // before obtaining status, so that a concurrent change is noticed
+        long currentGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry == null)
+                return trackedFile.getStatus();
+            if (entry.status != null && stamp.equals(entry.stamp)) {
+                Metrics.CACHE_HITS.increment(Metrics.CACHE_STATUS);
+                return entry.status;
+            }
+            currentGeneration = generation;
+        }
+        Metrics.CACHE_MISSES.increment(Metrics.CACHE_STATUS);
+        TrackedFile.Status status = trackedFile.getStatus();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && currentGeneration == generation) {
+                entry.status = status;
+                entry.stamp = stamp;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Stop watching and forget all tracked files.
+     */
+    public void close() {
+        synchronized (this) {
+            entries.clear();
+            directories.clear();
+        }
+        close(watchService);
+    }
+
+    private static void close(WatchService service) {
+        if (service != null)
+            try {
+                service.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot close watch service", e);
+            }
+    }
+
+    // modification times and lengths of given file and of state files in metadata directory and the
+    // contents of the reference HEAD points to, as a commit may only change that reference
+    private String createStamp(Path path) {
+        StringBuilder stamp = new StringBuilder();
+        File file = path.toFile();
+        stamp.append(file.lastModified()).append(':').append(file.length());
+        if (metadataDirectory != null) {
+            for (String name : STATE_FILES) {
+                file = metadataDirectory.resolve(name).toFile();
+                stamp.append(' ').append(file.lastModified()).append(':').append(file.length());
+            }
+            String head = readRef(metadataDirectory.resolve(HEAD_FILE));
+            if (head != null && head.startsWith(SYMBOLIC_REF))
+                stamp.append(' ').append(readRef(metadataDirectory.resolve(head.substring(SYMBOLIC_REF.length()))));
+        }
+        return stamp.toString();
+    }
+
+    // contents of given file with a reference or NULL if it cannot be read
+    private static String readRef(Path path) {
+        try {
+            if (!Files.isRegularFile(path))
+                return null;
+            return new String(Files.readAllBytes(path), "UTF-8").trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Path getPath(TrackedFile trackedFile) {
+        return trackedFile.getFile().getAbsoluteFile().toPath();
+    }
+
+    // process events until the watch service is closed
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+            SetMultimap<TrackedFile,Listener> changed = process(key);
+            for (Map.Entry<TrackedFile,Listener> entry : changed.entries())
+                try {
+                    entry.getValue().changed(entry.getKey());
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Listener failed after change of \""+entry.getKey().getFile()+"\"", e);
+                }
+        }
+    }
+
+    // forget status of tracked files affected by the events of given key and return their listeners
+    private synchronized SetMultimap<TrackedFile,Listener> process(WatchKey key) {
+        SetMultimap<TrackedFile,Listener> changed = LinkedHashMultimap.create();
+        Path directory = directories.get(key);
+        boolean metadata = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                metadata = true; // any file could have changed
+                continue;
+            }
+            if (directory == null)
+                continue;
+            Path path = directory.resolve((Path) event.context());
+            String name = path.getFileName().toString();
+            if (directory.equals(metadataDirectory) && STATE_FILES.contains(name))
+                metadata = true;
+            else if (metadataDirectory != null && directory.startsWith(metadataDirectory.resolve(REFS_DIRECTORY))
+                    && !name.endsWith(LOCK_SUFFIX))
+                metadata = true;
+            if (event.kind() == ENTRY_CREATE && metadataDirectory != null
+                    && path.startsWith(metadataDirectory.resolve(REFS_DIRECTORY)))
+                try {
+                    registerAll(watchService, path); // new directory of references
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot watch references in \""+path+"\"", e);
+                }
+            Entry entry = entries.get(path);
+            if (entry != null)
+                invalidate(entry, changed);
+        }
+        if (metadata) {
+            LOGGER.fine("Metadata of repository at \""+metadataDirectory+"\" changed");
+            for (Entry entry : entries.values())
+                invalidate(entry, changed);
+        }
+        if (!key.reset())
+            directories.remove(key);
+        return changed;
+    }
+
+    // must hold lock
+    private void invalidate(Entry entry, SetMultimap<TrackedFile,Listener> changed) {
+        generation++;
+        entry.status = null;
+        changed.putAll(entry.trackedFile, entry.listeners);
+    }
+
+    private static final class Entry {
+        final TrackedFile trackedFile;
+        final Set<Listener> listeners = new LinkedHashSet<Listener>();
+        TrackedFile.Status status = null;
+        String stamp = null;
+
+        Entry(TrackedFile trackedFile) {
+            this.trackedFile = trackedFile;
+        }
+    }
+}
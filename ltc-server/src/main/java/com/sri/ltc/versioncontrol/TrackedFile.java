@@ -21,6 +21,8 @@
  */
 package com.sri.ltc.versioncontrol;
 
+import com.sri.ltc.CancellationToken;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
@@ -32,6 +34,7 @@ public abstract class TrackedFile<RepositoryClass extends Repository> {
 
     private final RepositoryClass repository;
     private final File file;
+    private final CommitLog commitLog = new CommitLog(this);
 
     public enum Status {
         Added,
@@ -60,8 +63,68 @@ public abstract class TrackedFile<RepositoryClass extends Repository> {
     //    options.setOptGraph(true);
     //    options.setOptFormat("commit %H%nAuthor: %an <%ae>%nDate: %ad%nParents: %P%n%s%n");
 
+    /**
+     * Obtain list of commits as in {@link #getCommits()} but stop as soon as the given token is cancelled.
+     * This default implementation only checks the token before and after obtaining the commits.
+     * @param token token to request cancellation of obtaining the commits
+     * @return List of commits in topological order (could be empty)
+     * @throws VersionControlException
+     * @throws IOException
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    public List<Commit> getCommits(CancellationToken token) throws VersionControlException, IOException {
+        token.check();
+        List<Commit> commits = getCommits();
+        token.check();
+        return commits;
+    }
+
     abstract public List<Commit> getCommits(@Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision) throws VersionControlException, IOException;
 
+    /**
+     * Limit the given commits in the same way as {@link #getCommits(Date, String)} does.  The commits must be
+     * in the order as obtained from {@link #getCommits()}.
+     * @param commits commits in topological order
+     * @param inclusiveLimitDate limiting date or NULL
+     * @param inclusiveLimitRevision limiting revision or NULL
+     * @return List of commits observing the given limits (could be empty)
+     * @throws VersionControlException if the limiting revision cannot be resolved
+     */
+    abstract public List<Commit> limitCommits(Iterable<Commit> commits, @Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision) throws VersionControlException;
+
+    /**
+     * Obtain the current revision of the repository that determines the commits of this file.
+     * @return current revision or NULL if the repository has no revision yet
+     * @throws VersionControlException
+     */
+    abstract public String getHeadRevision() throws VersionControlException;
+
+    /**
+     * Obtain list of commits that were added to the history of this file since the repository was at
+     * the given revision, in the same order as {@link #getCommits()}.  This default implementation
+     * returns NULL, which means that all commits have to be obtained again.
+     * @param revision revision of the repository as previously obtained from {@link #getHeadRevision()}
+     * @param newestRevision revision of the newest commit of this file at the given revision or NULL if none
+     * @param token token to request cancellation of obtaining the commits
+     * @return List of commits newer than the given ones (could be empty) or NULL if the history has
+     * to be obtained again
+     * @throws VersionControlException
+     * @throws IOException
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    public List<Commit> getCommitsSince(String revision, @Nullable String newestRevision, CancellationToken token)
+            throws VersionControlException, IOException {
+        return null;
+    }
+
+    /**
+     * Announce that the contents of the given commits are about to be read, so that they can be
+     * loaded together.  This default implementation does nothing.
+     * @param commits commits whose contents will be read
+     */
+    public void prefetchContents(List<Commit> commits) {
+    }
+
     abstract public Status getStatus() throws VersionControlException;
 
     abstract public Commit commit(String message) throws Exception;
@@ -81,6 +144,10 @@ public abstract class TrackedFile<RepositoryClass extends Repository> {
         return repository;
     }
 
+    public CommitLog getCommitLog() {
+        return commitLog;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
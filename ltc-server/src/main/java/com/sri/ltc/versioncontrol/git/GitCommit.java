@@ -26,17 +26,26 @@ import com.sri.ltc.versioncontrol.Commit;
 import com.sri.ltc.versioncontrol.VersionControlException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 public class GitCommit extends Commit<GitRepository, GitTrackedFile> {
-    private RevCommit revCommit;
+    private RevCommit revCommit; // NULL until needed for commits from the history index
+    private final ObjectId id;
+    private Date date; // NULL until needed for commits from a walk
+    private Author author; // NULL until needed for commits from a walk
+    private ObjectId blobId; // NULL until needed for commits from a walk
+    private List<Commit> parents; // NULL until needed for commits from a walk
 
     public static Date CommitDate(RevCommit revCommit) {
         return new Date(revCommit.getCommitTime() * 1000L);
@@ -45,26 +54,55 @@ public class GitCommit extends Commit<GitRepository, GitTrackedFile> {
     public GitCommit(GitRepository repository, GitTrackedFile trackedFile, RevCommit revCommit) {
         super(repository, trackedFile);
         this.revCommit = revCommit;
+        this.id = revCommit.getId();
+    }
+
+    GitCommit(GitRepository repository, GitTrackedFile trackedFile,
+              ObjectId id, Date date, Author author, ObjectId blobId, List<Commit> parents) {
+        super(repository, trackedFile);
+        this.id = id;
+        this.date = date;
+        this.author = author;
+        this.blobId = blobId;
+        this.parents = parents;
     }
 
     @Override
     public String getId() {
-        return revCommit.getId().name();
+        return id.name();
     }
 
     @Override
     public String getMessage() {
-        return revCommit.getFullMessage();
+        try {
+            return getRevCommit().getFullMessage();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read message of commit "+getId()+": "+e.getMessage());
+            return "";
+        }
     }
 
     @Override
-    public Author getAuthor() {
-        return new Author(revCommit.getAuthorIdent().getName(), revCommit.getAuthorIdent().getEmailAddress());
+    public synchronized Author getAuthor() {
+        if (author == null)
+            try {
+                RevCommit revCommit = getRevCommit();
+                author = new Author(revCommit.getAuthorIdent().getName(), revCommit.getAuthorIdent().getEmailAddress());
+            } catch (IOException e) {
+                LOGGER.warning("Cannot read author of commit "+getId()+": "+e.getMessage());
+            }
+        return author;
     }
 
     @Override
-    public Date getDate() {
-        return GitCommit.CommitDate(revCommit);
+    public synchronized Date getDate() {
+        if (date == null)
+            try {
+                date = GitCommit.CommitDate(getRevCommit());
+            } catch (IOException e) {
+                LOGGER.warning("Cannot read date of commit "+getId()+": "+e.getMessage());
+            }
+        return date;
     }
 
     @Override
@@ -72,8 +110,9 @@ public class GitCommit extends Commit<GitRepository, GitTrackedFile> {
         if (trackedFile == null) return null;
 
         try {
-            TreeWalk treeWalk = TreeWalk.forPath(getRepository().getWrappedRepository(), trackedFile.getRepositoryRelativeFilePath(), revCommit.getTree());
-            ObjectId objectId = treeWalk.getObjectId(0);
+            ObjectId objectId = getBlobId(null);
+            if (objectId == null)
+                throw new VersionControlException("File \""+trackedFile.getRepositoryRelativeFilePath()+"\" not in commit "+getId());
             ObjectLoader loader = getRepository().getWrappedRepository().open(objectId);
 
             return loader.openStream();
@@ -83,12 +122,76 @@ public class GitCommit extends Commit<GitRepository, GitTrackedFile> {
     }
 
     @Override
-    public List<Commit> getParents() {
-        List<Commit> parents = new ArrayList<Commit>();
-        for (RevCommit parentCommit : revCommit.getParents()) {
-            parents.add(new GitCommit(repository, trackedFile, parentCommit));
+    public Reader getContents() throws VersionControlException {
+        if (trackedFile == null)
+            return super.getContents();
+
+        // obtain decoded text from the content cache of the repository, which loads texts in batches
+        try {
+            String text = getRepository().getContentCache().getText(this);
+            if (text == null)
+                throw new VersionControlException("File \""+trackedFile.getRepositoryRelativeFilePath()+"\" not in commit "+getId());
+            return new StringReader(text);
+        } catch (IOException e) {
+            throw new VersionControlException(e);
+        }
+    }
+
+    @Override
+    public String getContentKey() {
+        if (trackedFile == null)
+            return null;
+        try {
+            ObjectId objectId = getBlobId(null);
+            return objectId == null ? null : objectId.name();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot obtain blob of commit "+getId()+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    GitTrackedFile getTrackedFile() {
+        return trackedFile;
+    }
+
+    /**
+     * Obtain ID of the blob with the contents of the tracked file in this commit.
+     * @param reader reader to use for resolving the ID or NULL to use a new one
+     * @return ID of blob or NULL if the tracked file does not exist in this commit
+     * @throws IOException
+     */
+    synchronized ObjectId getBlobId(ObjectReader reader) throws IOException {
+        if (blobId == null) {
+            String path = trackedFile.getRepositoryRelativeFilePath();
+            TreeWalk treeWalk = reader == null ?
+                    TreeWalk.forPath(getRepository().getWrappedRepository(), path, getRevCommit().getTree()) :
+                    TreeWalk.forPath(reader, path, getRevCommit().getTree());
+            blobId = treeWalk == null ? ObjectId.zeroId() : treeWalk.getObjectId(0);
+        }
+        return ObjectId.zeroId().equals(blobId) ? null : blobId;
+    }
+
+    @Override
+    public synchronized List<Commit> getParents() {
+        if (parents == null) {
+            parents = new ArrayList<Commit>();
+            for (RevCommit parentCommit : revCommit.getParents()) {
+                parents.add(new GitCommit(repository, trackedFile, parentCommit));
+            }
         }
 
         return parents;
     }
+
+    private synchronized RevCommit getRevCommit() throws IOException {
+        if (revCommit == null || revCommit.getRawBuffer() == null) {
+            RevWalk revWalk = new RevWalk(getRepository().getWrappedRepository());
+            try {
+                revCommit = revWalk.parseCommit(id);
+            } finally {
+                revWalk.close();
+            }
+        }
+        return revCommit;
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.versioncontrol.git;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.sri.ltc.server.Metrics;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Decoded texts of tracked files in the commits of a git repository.  Texts are keyed by the ID of their blob,
+ * so that identical contents are only loaded and decoded once, and the cache is bounded by the size of
+ * the texts.
+ * <p>
+ * Commits announced with {@link #prefetch(Collection)} are kept for each tracked file and loaded together
+ * as soon as the text of one commit of the same file is missing: all their blob IDs are resolved in one pass
+ * with a single object reader and each distinct blob is read once.  Only loading is serialized, so that
+ * texts found in the cache are obtained without waiting for other sessions.
+ *
+ * @author linda
+ */
+public final class GitContentCache {
+
+    private final static Logger LOGGER = Logger.getLogger(GitContentCache.class.getName());
+    public final static int DEFAULT_SIZE = 32; // in MB
+
+    private final Repository repository;
+    private final Cache<ObjectId,String> texts;
+    // announced commits not loaded yet by tracked file:
+    private final ConcurrentMap<GitTrackedFile,List<GitCommit>> pending =
+            new ConcurrentHashMap<GitTrackedFile,List<GitCommit>>();
+    private final Object loadLock = new Object();
+
+    public GitContentCache(Repository repository) {
+        this(repository, DEFAULT_SIZE * 1024L * 1024L);
+    }
+
+    GitContentCache(Repository repository, long size) {
+        this.repository = repository;
+        this.texts = CacheBuilder.newBuilder()
+                .maximumWeight(size / 2) // characters take 2 bytes
+                .weigher(new Weigher<ObjectId, String>() {
+                    public int weigh(ObjectId id, String text) {
+                        return text.length();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Announce the commits whose texts are about to be read.  Replaces any commits of the same tracked
+     * files announced earlier that were not loaded yet.
+     *
+     * @param commits commits whose texts will be loaded together with the first missing text of their file
+     */
+    public void prefetch(Collection<GitCommit> commits) {
+        Map<GitTrackedFile,List<GitCommit>> byFile = new HashMap<GitTrackedFile,List<GitCommit>>();
+        for (GitCommit commit : commits) {
+            if (commit.getTrackedFile() == null)
+                continue;
+            List<GitCommit> list = byFile.get(commit.getTrackedFile());
+            if (list == null)
+                byFile.put(commit.getTrackedFile(), list = new ArrayList<GitCommit>());
+            list.add(commit);
+        }
+        pending.putAll(byFile);
+    }
+
+    /**
+     * Obtain the text of the tracked file in the given commit.  If the text is not cached, it is loaded
+     * together with the texts of all announced commits of the same file.
+     *
+     * @param commit commit with tracked file
+     * @return text of tracked file or NULL if the file does not exist in the given commit
+     * @throws IOException if the blobs cannot be read
+     */
+    String getText(GitCommit commit) throws IOException {
+        ObjectId id = commit.getBlobId(null);
+        if (id == null)
+            return null;
+        String text = texts.getIfPresent(id);
+        if (text != null) {
+            Metrics.CACHE_HITS.increment(Metrics.CACHE_CONTENTS);
+            return text;
+        }
+        Metrics.CACHE_MISSES.increment(Metrics.CACHE_CONTENTS);
+
+        ObjectReader reader = repository.newObjectReader();
+        try {
+            // resolve blob IDs of all announced commits of the same file
+            Set<ObjectId> missing = new LinkedHashSet<ObjectId>();
+            missing.add(id);
+            List<GitCommit> others = pending.remove(commit.getTrackedFile());
+            if (others != null)
+                for (GitCommit other : others) {
+                    ObjectId otherId = other.getBlobId(reader);
+                    if (otherId != null && texts.getIfPresent(otherId) == null)
+                        missing.add(otherId);
+                }
+
+            // load each missing blob once, even if other sessions miss the same blobs at the same time
+            int loaded = 0;
+            synchronized (loadLock) {
+                for (ObjectId blobId : missing) {
+                    String blobText = texts.getIfPresent(blobId);
+                    if (blobText == null) {
+                        blobText = new String(reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE));
+                        texts.put(blobId, blobText);
+                        loaded++;
+                    }
+                    if (blobId.equals(id))
+                        text = blobText;
+                }
+            }
+            LOGGER.fine("Loaded "+loaded+" texts into content cache");
+            return text;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void clear() {
+        texts.invalidateAll();
+    }
+}
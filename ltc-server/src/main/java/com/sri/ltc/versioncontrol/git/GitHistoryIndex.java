@@ -0,0 +1,384 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.versioncontrol.git;
+
+import com.sri.ltc.CancellationToken;
+import com.sri.ltc.filter.Author;
+import com.sri.ltc.versioncontrol.Commit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Append-only index of the commits that changed a tracked file, stored under <code>.git/ltc/history/</code>
+ * with one file per path.  Each commit is recorded with its parents (as rewritten for the path), commit time,
+ * author and the ID of the blob with the contents of the file.  After each batch of commits, the HEAD up to
+ * which the index is complete is recorded.
+ * <p>
+ * The index is validated against the current HEAD: if HEAD moved forward, only the new commits are walked
+ * and appended; otherwise, for instance if the history was rewritten, the index is written again from a
+ * complete walk.  If the index cannot be written, the walked commits are still returned.  Access to each
+ * index file is serialized, so that lookups of other files do not wait for a walk.
+ *
+ * @author linda
+ */
+final class GitHistoryIndex {
+
+    private final static Logger LOGGER = Logger.getLogger(GitHistoryIndex.class.getName());
+    private final static String DIRECTORY = "ltc"+File.separator+"history";
+    private final static String COMMIT = "commit";
+    private final static String HEAD = "head";
+    private final static String SEPARATOR = "\t";
+    // locks to serialize access to each index file by its path:
+    private final static ConcurrentMap<String,Object> LOCKS = new ConcurrentHashMap<String,Object>();
+
+    private final GitTrackedFile trackedFile;
+
+    GitHistoryIndex(GitTrackedFile trackedFile) {
+        this.trackedFile = trackedFile;
+    }
+
+    /**
+     * Obtain the commits that changed the tracked file from the index after validating and possibly
+     * extending it for the current HEAD.  Walking stops as soon as the given token is cancelled, and then
+     * the index is left as it was.
+     *
+     * @param token token to request cancellation of walking commits
+     * @return list of commits in topological order, newest first (could be empty)
+     * @throws IOException if walking new commits fails
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    List<Commit> getCommits(CancellationToken token) throws IOException {
+        return toCommits(getEntries(token));
+    }
+
+    /**
+     * Obtain the commits that changed the tracked file after the given commit as in
+     * {@link #getCommits(CancellationToken)}, so that commits are only created for the newer entries.
+     *
+     * @param newestId ID of the newest known commit or NULL to obtain all commits
+     * @param token token to request cancellation of walking commits
+     * @return list of commits newer than the given commit in topological order, newest first (could be empty),
+     * or NULL if the given commit is not in the index
+     * @throws IOException if walking new commits fails
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    List<Commit> getCommitsAfter(String newestId, CancellationToken token) throws IOException {
+        List<Entry> entries = getEntries(token);
+        if (newestId == null)
+            return toCommits(entries);
+        for (int i = entries.size() - 1; i >= 0; i--)
+            if (entries.get(i).id.equals(newestId))
+                return toCommits(entries.subList(i + 1, entries.size()));
+        return null;
+    }
+
+    // obtain entries of index, oldest first, after validating and possibly extending it for the current HEAD
+    private List<Entry> getEntries(CancellationToken token) throws IOException {
+        Repository repository = trackedFile.getRepository().getWrappedRepository();
+        List<Entry> entries = new ArrayList<Entry>(); // oldest first
+
+        // do we have a HEAD?
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null)
+            return entries;
+
+        File file = new File(new File(repository.getDirectory(), DIRECTORY),
+                DigestUtils.shaHex(trackedFile.getRepositoryRelativeFilePath()));
+        synchronized (getLock(file)) {
+            boolean clean = true;
+            String indexedHead = null;
+            try {
+                if (file.exists())
+                    indexedHead = read(file, entries);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot read history index "+file+": "+e.getMessage());
+                entries.clear();
+            }
+            if (indexedHead == null)
+                clean = false;
+
+            if (!head.name().equals(indexedHead)) {
+                List<Entry> added = null;
+                if (indexedHead != null && isAncestor(repository, indexedHead, head)) {
+                    added = walk(repository, head, entries.isEmpty() ? null : entries.get(entries.size()-1).id, token);
+                    if (added != null && !isExtension(entries, added))
+                        added = null;
+                }
+                if (added == null) {
+                    clean = false;
+                    entries.clear();
+                    added = walk(repository, head, null, token);
+                }
+                entries.addAll(added);
+                try {
+                    if (clean)
+                        append(file, added, head.name());
+                    else
+                        write(file, entries, head.name());
+                } catch (IOException e) {
+                    LOGGER.warning("Cannot write history index "+file+": "+e.getMessage());
+                }
+                LOGGER.fine((clean ? "Appended " : "Wrote ")+added.size()+" commits to history index of \""+
+                        trackedFile.getFile().getName()+"\"");
+            }
+        }
+
+        return entries;
+    }
+
+    private static Object getLock(File file) {
+        String path = file.getAbsolutePath();
+        Object lock = LOCKS.get(path);
+        if (lock == null) {
+            Object created = new Object();
+            lock = LOCKS.putIfAbsent(path, created);
+            if (lock == null)
+                lock = created;
+        }
+        return lock;
+    }
+
+    // create commits from entries oldest first so that parents are known before their children;
+    // parents before the given entries only serve as IDs
+    private List<Commit> toCommits(List<Entry> entries) {
+        GitRepository repository = trackedFile.getRepository();
+        Map<String,GitCommit> commitsById = new HashMap<String,GitCommit>();
+        LinkedList<Commit> commits = new LinkedList<Commit>();
+        RevWalk revWalk = null;
+        try {
+            for (Entry entry : entries) {
+                List<Commit> parents = new ArrayList<Commit>();
+                for (String parentId : entry.parents) {
+                    GitCommit parent = commitsById.get(parentId);
+                    if (parent == null) {
+                        // parent did not change the file, so it only serves as an ID in the graph
+                        if (revWalk == null)
+                            revWalk = new RevWalk(repository.getWrappedRepository());
+                        parent = new GitCommit(repository, trackedFile, revWalk.lookupCommit(ObjectId.fromString(parentId)));
+                    }
+                    parents.add(parent);
+                }
+                GitCommit commit = new GitCommit(repository, trackedFile,
+                        ObjectId.fromString(entry.id),
+                        new Date(entry.time * 1000L),
+                        new Author(entry.name, entry.email),
+                        ObjectId.fromString(entry.blob),
+                        parents);
+                commitsById.put(entry.id, commit);
+                commits.addFirst(commit);
+            }
+        } finally {
+            if (revWalk != null)
+                revWalk.close();
+        }
+        return new ArrayList<Commit>(commits);
+    }
+
+    private static boolean isAncestor(Repository repository, String ancestor, ObjectId head) throws IOException {
+        ObjectId id = ObjectId.fromString(ancestor);
+        if (!repository.getObjectDatabase().has(id))
+            return false;
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            return revWalk.isMergedInto(revWalk.parseCommit(id), revWalk.parseCommit(head));
+        } finally {
+            revWalk.close();
+        }
+    }
+
+    // whether given entries extend the known entries without overlapping or referring to unknown parents
+    private static boolean isExtension(List<Entry> entries, List<Entry> added) {
+        Set<String> ids = new HashSet<String>();
+        for (Entry entry : entries)
+            ids.add(entry.id);
+        for (Entry entry : added)
+            if (!ids.add(entry.id))
+                return false;
+        for (Entry entry : added)
+            for (String parent : entry.parents)
+                if (!ids.contains(parent))
+                    return false;
+        return true;
+    }
+
+    /**
+     * Walk commits from given head that changed the tracked file until the given commit.  The given token
+     * is checked for each commit.
+     *
+     * @return entries of commits newer than given commit, oldest first, or NULL if the given commit was not found
+     */
+    private List<Entry> walk(Repository repository, ObjectId head, String until, CancellationToken token)
+            throws IOException {
+        String path = trackedFile.getRepositoryRelativeFilePath();
+        RevWalk revWalk = new RevWalk(repository);
+        LinkedList<Entry> entries = new LinkedList<Entry>();
+        boolean found = false;
+        try {
+            revWalk.setTreeFilter(
+                    AndTreeFilter.create(
+                            PathFilterGroup.createFromStrings(path),
+                            TreeFilter.ANY_DIFF)
+            );
+            revWalk.sort(RevSort.COMMIT_TIME_DESC);
+            revWalk.markStart(revWalk.parseCommit(head));
+
+            for (RevCommit revCommit : revWalk) {
+                token.check();
+                if (revCommit.getId().name().equals(until)) {
+                    found = true;
+                    break;
+                }
+                TreeWalk treeWalk = TreeWalk.forPath(revWalk.getObjectReader(), path, revCommit.getTree());
+                String[] parents = new String[revCommit.getParentCount()];
+                for (int i = 0; i < parents.length; i++)
+                    parents[i] = revCommit.getParent(i).getId().name();
+                entries.addFirst(new Entry(
+                        revCommit.getId().name(),
+                        parents,
+                        revCommit.getCommitTime(),
+                        revCommit.getAuthorIdent().getName(),
+                        revCommit.getAuthorIdent().getEmailAddress(),
+                        (treeWalk == null ? ObjectId.zeroId() : treeWalk.getObjectId(0)).name()));
+            }
+        } finally {
+            revWalk.close();
+        }
+        if (until != null && !found)
+            return null;
+        return new ArrayList<Entry>(entries);
+    }
+
+    // --- index file ---
+
+    /**
+     * Read entries of complete batches from given index file.  Any incomplete batch at the end is ignored.
+     *
+     * @return HEAD up to which the read entries are complete or NULL if the file has no complete batch
+     * or contains malformed lines
+     */
+    private static String read(File file, List<Entry> entries) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String head = null;
+            List<Entry> batch = new ArrayList<Entry>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length == 7 && COMMIT.equals(fields[0]))
+                    batch.add(new Entry(
+                            fields[1],
+                            fields[2].isEmpty() ? new String[0] : fields[2].split(" "),
+                            Integer.parseInt(fields[3]),
+                            fields[4],
+                            fields[5],
+                            fields[6]));
+                else if (fields.length == 2 && HEAD.equals(fields[0])) {
+                    entries.addAll(batch);
+                    batch.clear();
+                    head = fields[1];
+                } else
+                    return null; // malformed line
+            }
+            return batch.isEmpty() ? head : null;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed time in history index", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void append(File file, List<Entry> entries, String head) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        try {
+            writeBatch(writer, entries, head);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void write(File file, List<Entry> entries, String head) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory for history index");
+        // write to temporary file first and then rename to avoid reading partial files
+        File temp = File.createTempFile("history", ".tmp", directory);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            writeBatch(writer, entries, head);
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Cannot rename temporary file to "+file);
+        }
+    }
+
+    private static void writeBatch(Writer writer, List<Entry> entries, String head) throws IOException {
+        for (Entry entry : entries) {
+            StringBuilder parents = new StringBuilder();
+            for (String parent : entry.parents)
+                parents.append(parents.length() == 0 ? "" : " ").append(parent);
+            writer.write(COMMIT+SEPARATOR+entry.id+SEPARATOR+parents+SEPARATOR+entry.time+SEPARATOR+
+                    clean(entry.name)+SEPARATOR+clean(entry.email)+SEPARATOR+entry.blob+"\n");
+        }
+        writer.write(HEAD+SEPARATOR+head+"\n");
+    }
+
+    // remove characters that would break the line format
+    private static String clean(String text) {
+        return text == null ? "" : text.replaceAll("[\t\r\n]", " ");
+    }
+
+    private static final class Entry {
+        final String id;
+        final String[] parents;
+        final int time; // commit time in seconds
+        final String name;
+        final String email;
+        final String blob;
+
+        Entry(String id, String[] parents, int time, String name, String email, String blob) {
+            this.id = id;
+            this.parents = parents;
+            this.time = time;
+            this.name = name;
+            this.email = email;
+            this.blob = blob;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import java.util.logging.Logger;
 public class GitRepository implements Repository {
     private final static Logger LOGGER = Logger.getLogger(GitRepository.class.getName());
     private org.eclipse.jgit.lib.Repository repository = null;
+    private final GitContentCache contentCache;
 
     public GitRepository(File localPath) throws IOException {
         this(localPath, false);
@@ -60,6 +61,8 @@ public class GitRepository implements Repository {
         if (create) {
             repository.create();
         }
+
+        contentCache = new GitContentCache(repository);
     }
 
     @Override
@@ -72,6 +75,10 @@ public class GitRepository implements Repository {
         return repository;
     }
 
+    public GitContentCache getContentCache() {
+        return contentCache;
+    }
+
     @Override
     public TrackedFile getFile(File file) throws IOException {
         return new GitTrackedFile(this, file);
@@ -106,6 +113,17 @@ public class GitRepository implements Repository {
         return LTCserverInterface.VersionControlSystems.GIT;
     }
 
+    @Override
+    public File getMetadataDirectory() {
+        return repository.getDirectory();
+    }
+
+    @Override
+    public void close() {
+        contentCache.clear();
+        repository.close();
+    }
+
     @Override
     public Author getSelf() {
         String name = repository.getConfig().getString("user", null, "name");
@@ -21,6 +21,7 @@
  */
 package com.sri.ltc.versioncontrol.git;
 
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.versioncontrol.Commit;
 import com.sri.ltc.versioncontrol.TrackedFile;
 import com.sri.ltc.versioncontrol.VersionControlException;
@@ -31,13 +32,9 @@ import org.eclipse.jgit.lib.IndexDiff;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
-import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import javax.annotation.Nullable;
 import java.io.File;
@@ -45,8 +42,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public class GitTrackedFile extends TrackedFile<GitRepository> {
+    private final GitHistoryIndex historyIndex = new GitHistoryIndex(this);
+
     public GitTrackedFile(GitRepository repository, File file) {
         super(repository, file);
     }
@@ -66,85 +66,137 @@ public class GitTrackedFile extends TrackedFile<GitRepository> {
     @Override
     public List<Commit> getCommits(@Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision)
             throws IOException, VersionControlException {
-        // note: we could use the simpler LogCommand with add + addPath
-
-        List<Commit> commits = new ArrayList<Commit>();
-        Repository wrappedRepository = getRepository().getWrappedRepository();
+        try {
+            // look up commits in history index, which only walks commits since the last indexed HEAD
+            return limitCommits(historyIndex.getCommits(new CancellationToken()), inclusiveLimitDate, inclusiveLimitRevision);
+        } catch (Exception e) {
+            throw new VersionControlException(e);
+        }
+    }
 
+    @Override
+    public List<Commit> getCommits(CancellationToken token) throws IOException, VersionControlException {
         try {
+            return historyIndex.getCommits(token);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new VersionControlException(e);
+        }
+    }
 
-            // do we have a HEAD?
-            ObjectId head = wrappedRepository.resolve(Constants.HEAD);
-            if (head == null)
-                return commits;
-
-            RevWalk revWalk = new RevWalk(wrappedRepository);
-            revWalk.setTreeFilter(
-                    AndTreeFilter.create(
-                            PathFilterGroup.createFromStrings(getRepositoryRelativeFilePath()),
-                            TreeFilter.ANY_DIFF)
-            );
-            RevCommit rootCommit = revWalk.parseCommit(head);
-            revWalk.sort(RevSort.COMMIT_TIME_DESC);
-            revWalk.markStart(rootCommit);
-
-            boolean stopOnNextItr = false;
-
-            RevCommit limitRevCommit = null;
-            if (inclusiveLimitRevision != null)
-                if (HAT_REVISION.equals(inclusiveLimitRevision))
-                    stopOnNextItr = true; // if limiting by "HAT" only include last commit
-                else
-                    // try to resolve limiting revision:
+    @Override
+    public List<Commit> limitCommits(Iterable<Commit> commits, @Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision)
+            throws VersionControlException {
+        List<Commit> limited = new ArrayList<Commit>();
+        boolean stopOnNextItr = false;
+
+        String limitId = null;
+        if (inclusiveLimitRevision != null)
+            if (HAT_REVISION.equals(inclusiveLimitRevision))
+                stopOnNextItr = true; // if limiting by "HAT" only include last commit
+            else
+                // try to resolve limiting revision:
+                try {
+                    Repository wrappedRepository = getRepository().getWrappedRepository();
+                    ObjectId id = wrappedRepository.resolve(inclusiveLimitRevision);
+                    if (id == null)
+                        throw new VersionControlException("Cannot resolve revision \""+inclusiveLimitRevision+"\"");
+                    RevWalk revWalk = new RevWalk(wrappedRepository);
                     try {
-                        ObjectId limitId = wrappedRepository.resolve(inclusiveLimitRevision);
-                        if (limitId == null)
-                            throw new VersionControlException("Cannot resolve revision \""+inclusiveLimitRevision+"\"");
-                        limitRevCommit = revWalk.parseCommit(limitId);
-                    } catch (RevisionSyntaxException e) {
-                        throw new VersionControlException("Revision \""+inclusiveLimitRevision+"\" does not comply with standard syntax");
+                        limitId = revWalk.parseCommit(id).getId().name();
+                    } finally {
+                        revWalk.close();
                     }
+                } catch (RevisionSyntaxException e) {
+                    throw new VersionControlException("Revision \""+inclusiveLimitRevision+"\" does not comply with standard syntax");
+                } catch (IOException e) {
+                    throw new VersionControlException(e);
+                }
 
-            if (inclusiveLimitDate == null)
-                inclusiveLimitDate = new Date(0);
-
-            Date lastDateItr = null;
-            for (RevCommit revCommit : revWalk) {
-
-                // if lastDateItr is set, then we want to keep adding until the current commit date is
-                // earlier than the last one. see explanation below.
-                if (lastDateItr != null && lastDateItr.compareTo(GitCommit.CommitDate(revCommit)) > 0)
-                    break;
-
-                // need to add the current rev
-                commits.add(new GitCommit(getRepository(), this, revCommit));
-
-                // if we were told to stop last itr, then stop!
-                if (stopOnNextItr)
-                    break;
-
-                // now test if this was the last commit we wanted, we need to include one more commit then stop.
-                if (revCommit.getId().equals(limitRevCommit))
-                    stopOnNextItr = true;
-
-                // check to see if we are past the first date threshold, if yes we want to keep going until
-                // the times after the crossing aren't equal...
-                //      consider:  [ 10, 9, 8, 7'', 7', 7, 6'', 6', 6, 5, 4 ]
-                // if threshold is 7, we need to include 10:6
-                // if threshold is 8, we need to include 10:7
-                // if threshold is 6, we need to include 10:5
-                if (inclusiveLimitDate.compareTo(GitCommit.CommitDate(revCommit)) > 0) {
-                    if (lastDateItr == null) {
-                        lastDateItr =  GitCommit.CommitDate(revCommit);
-                    }
+        if (inclusiveLimitDate == null)
+            inclusiveLimitDate = new Date(0);
+
+        Date lastDateItr = null;
+        for (Commit commit : commits) {
+
+            // if lastDateItr is set, then we want to keep adding until the current commit date is
+            // earlier than the last one. see explanation below.
+            if (lastDateItr != null && lastDateItr.compareTo(commit.getDate()) > 0)
+                break;
+
+            // need to add the current rev
+            limited.add(commit);
+
+            // if we were told to stop last itr, then stop!
+            if (stopOnNextItr)
+                break;
+
+            // now test if this was the last commit we wanted, we need to include one more commit then stop.
+            if (commit.getId().equals(limitId))
+                stopOnNextItr = true;
+
+            // check to see if we are past the first date threshold, if yes we want to keep going until
+            // the times after the crossing aren't equal...
+            //      consider:  [ 10, 9, 8, 7'', 7', 7, 6'', 6', 6, 5, 4 ]
+            // if threshold is 7, we need to include 10:6
+            // if threshold is 8, we need to include 10:7
+            // if threshold is 6, we need to include 10:5
+            if (inclusiveLimitDate.compareTo(commit.getDate()) > 0) {
+                if (lastDateItr == null) {
+                    lastDateItr = commit.getDate();
                 }
             }
+        }
+
+        return limited;
+    }
+
+    @Override
+    public String getHeadRevision() throws VersionControlException {
+        try {
+            ObjectId head = getRepository().getWrappedRepository().resolve(Constants.HEAD);
+            return head == null ? null : head.name();
+        } catch (IOException e) {
+            throw new VersionControlException(e);
+        }
+    }
+
+    @Override
+    public List<Commit> getCommitsSince(String revision, @Nullable String newestRevision, CancellationToken token)
+            throws IOException, VersionControlException {
+        Repository wrappedRepository = getRepository().getWrappedRepository();
+        try {
+            ObjectId head = wrappedRepository.resolve(Constants.HEAD);
+            ObjectId since = wrappedRepository.resolve(revision);
+            if (head == null || since == null)
+                return null;
+
+            // only extend history if HEAD moved forward
+            RevWalk mergeWalk = new RevWalk(wrappedRepository);
+            try {
+                if (!mergeWalk.isMergedInto(mergeWalk.parseCommit(since), mergeWalk.parseCommit(head)))
+                    return null;
+            } finally {
+                mergeWalk.close();
+            }
 
+            // only commits after the newest known commit of this file, or NULL if it was not found again
+            return historyIndex.getCommitsAfter(newestRevision, token);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             throw new VersionControlException(e);
         }
+    }
 
-        return commits;
+    @Override
+    public void prefetchContents(List<Commit> commits) {
+        List<GitCommit> gitCommits = new ArrayList<GitCommit>();
+        for (Commit commit : commits)
+            if (commit instanceof GitCommit)
+                gitCommits.add((GitCommit) commit);
+        getRepository().getContentCache().prefetch(gitCommits);
     }
 
     @Override
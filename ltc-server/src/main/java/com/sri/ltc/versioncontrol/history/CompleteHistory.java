@@ -21,6 +21,7 @@
  */
 package com.sri.ltc.versioncontrol.history;
 
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.versioncontrol.Commit;
 import com.sri.ltc.versioncontrol.TrackedFile;
 import com.sri.ltc.versioncontrol.VersionControlException;
@@ -40,8 +41,8 @@ public final class CompleteHistory extends FileHistory {
     }
 
     @Override
-    List<Commit> updateCommits() throws VersionControlException, IOException {
-        return trackedFile.getCommits();
+    List<Commit> updateCommits(CancellationToken token) throws VersionControlException, IOException {
+        return trackedFile.getCommitLog().getCommits(token);
     }
 
     @Override
@@ -21,9 +21,9 @@
  */
 package com.sri.ltc.versioncontrol.history;
 
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.CommonUtils;
 import com.sri.ltc.filter.Author;
-import com.sri.ltc.versioncontrol.CommitGraph;
 import com.sri.ltc.versioncontrol.Commit;
 import com.sri.ltc.versioncontrol.TrackedFile;
 import com.sri.ltc.versioncontrol.VersionControlException;
@@ -41,7 +41,6 @@ public abstract class FileHistory {
     private final static Logger LOGGER = Logger.getLogger(FileHistory.class.getName());
     final TrackedFile trackedFile;
     List<Commit> commitList;
-    final CommitGraph commitGraph = new CommitGraph();
     final Set<Author> authors = new HashSet<Author>();
 
     protected FileHistory(TrackedFile file) throws IOException, ParseException {
@@ -50,12 +49,12 @@ public abstract class FileHistory {
         this.trackedFile = file;
     }
 
-    abstract List<Commit> updateCommits() throws ParseException, VersionControlException, IOException;
+    abstract List<Commit> updateCommits(CancellationToken token) throws ParseException, VersionControlException, IOException;
 
     abstract void transformList() throws IOException;
 
     /**
-     * Update the commit graph from the tracked file and create a list of commits based on current settings.
+     * Update from the commit log of the tracked file and create a list of commits based on current settings.
      * Each commit is a 6-tuple of strings:
      * <ol>
      *     <li>Revision ID (e.g., SHA-1 for git repositories)</li>
@@ -71,18 +70,33 @@ public abstract class FileHistory {
      * @throws IOException
      * @throws VersionControlException
      */
-    @SuppressWarnings("unchecked")
     public final List<Object[]> update() throws ParseException, IOException, VersionControlException {
-        List<Commit> commits = updateCommits();
+        return update(new CancellationToken());
+    }
+
+    /**
+     * Update as in {@link #update()} but stop as soon as the given token is cancelled.  The token is
+     * checked for each commit.
+     *
+     * @param token token to request cancellation of the update
+     * @return List of commits in order of newest to oldest
+     * @throws ParseException
+     * @throws IOException
+     * @throws VersionControlException
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    @SuppressWarnings("unchecked")
+    public final List<Object[]> update(CancellationToken token) throws ParseException, IOException, VersionControlException {
+        List<Commit> commits = updateCommits(token);
 
-        // translate git commits into graph structure:
-        commitGraph.clear();
         authors.clear();
         List<Object[]> list = new ArrayList<Object[]>();
+        Map<String,Commit> commitsById = new HashMap<String,Commit>();
 
-        // 1) add vertices and build up authors and return list
+        // 1) index commits by ID and build up authors and return list
         for (Commit commit : commits) {
-            commitGraph.addVertex(commit);
+            token.check();
+            commitsById.put(commit.getId(), commit);
 
             // fill set of authors
             Author author = commit.getAuthor();
@@ -105,26 +119,24 @@ public abstract class FileHistory {
             });
         }
 
-        // 2) build up graph structure
-        for (Commit commit : commits) {
+        // 2) serialize history from newest commit by selecting the oldest parent among the commits for merges;
+        // only this path is needed, so no commit graph is built
+        commitList = new ArrayList<Commit>();
+        Commit commit = commits.isEmpty() ? null : commits.get(0);
+        while (commit != null) {
+            commitList.add(commit);
+            Commit next = null;
             List<Commit> parents = commit.getParents();
-            if (parents != null && !parents.isEmpty()) {
-                Commit c = commitGraph.getCommit(commit.getId());
+            if (parents != null)
                 for (Commit parentCommit : parents) {
-                    Commit parent = commitGraph.getCommit(parentCommit.getId());
-                    if (parent != null)
-                        commitGraph.addEdge(c, parent);
+                    Commit parent = commitsById.get(parentCommit.getId());
+                    if (parent != null && parent != commit &&
+                            (next == null || parent.getDate().compareTo(next.getDate()) < 0))
+                        next = parent;
                 }
-            }
+            commit = next;
         }
-
-        // serialize commit graph by selecting the path with oldest commits for merges
-        commitList = commitGraph.getPath(new Comparator<Commit>() {
-            public int compare(Commit o1, Commit o2) {
-                return o1.getDate().compareTo(o2.getDate());
-            }
-        });
-        LOGGER.fine("Obtained path from commit graph for \""+ trackedFile.getFile().getName()+"\" with "+commitList.size()+" commits.");
+        LOGGER.fine("Obtained path from commit history for \""+ trackedFile.getFile().getName()+"\" with "+commitList.size()+" commits.");
 
         // do any specific list transformations before reversing
         transformList();
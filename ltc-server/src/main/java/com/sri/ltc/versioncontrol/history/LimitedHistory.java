@@ -22,6 +22,7 @@
 package com.sri.ltc.versioncontrol.history;
 
 import com.google.common.collect.Lists;
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.CommonUtils;
 import com.sri.ltc.filter.Author;
 import com.sri.ltc.latexdiff.CommitReaderWrapper;
@@ -55,18 +56,34 @@ public final class LimitedHistory extends FileHistory {
                           String limitingRev,
                           boolean collapseAuthors)
             throws Exception {
+        this(file, limitingDate, limitingRev, collapseAuthors, new CancellationToken());
+    }
+
+    /**
+     * Create a limited history as with {@link #LimitedHistory(TrackedFile, String, String, boolean)} but stop
+     * as soon as the given token is cancelled.
+     *
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled
+     */
+    public LimitedHistory(TrackedFile file,
+                          String limitingDate,
+                          String limitingRev,
+                          boolean collapseAuthors,
+                          CancellationToken token)
+            throws Exception {
         super(file);
         this.limitingDate = limitingDate;
         this.limitingRev = limitingRev;
         this.collapseAuthors = collapseAuthors;
-        update();
+        update(token);
     }
 
     @Override
-    List<Commit> updateCommits() throws ParseException, VersionControlException, IOException {
-        return trackedFile.getCommits(
+    List<Commit> updateCommits(CancellationToken token) throws ParseException, VersionControlException, IOException {
+        return trackedFile.getCommitLog().getCommits(
                 ((limitingDate == null) || limitingDate.isEmpty()) ? null : CommonUtils.deSerializeDate(limitingDate),
-                ((limitingRev == null) || limitingRev.isEmpty()) ? null : limitingRev);
+                ((limitingRev == null) || limitingRev.isEmpty()) ? null : limitingRev,
+                token);
     }
 
     @Override
@@ -100,7 +117,11 @@ public final class LimitedHistory extends FileHistory {
         LOGGER.fine("Transformed list for \""+ trackedFile.getFile().getName()+"\" to "+commitList.size()+" commits");
     }
 
+    @SuppressWarnings("unchecked")
     public final List<HistoryUnit> getHistoryUnits() {
+        // contents of units are read in one batch once the first one is needed
+        trackedFile.prefetchContents(commitList);
+
         // obtain units from version control:
         List<HistoryUnit> units = Lists.newArrayList();
         for (Commit commit : commitList)
@@ -64,6 +64,13 @@ public class SVNCommit extends Commit<SVNRepository, SVNTrackedFile> {
         return logEntry.getDate();
     }
 
+    @Override
+    public String getContentKey() {
+        if (trackedFile == null)
+            return null;
+        return trackedFile.getFile().getPath()+"@"+logEntry.getRevision();
+    }
+
     @Override
     public List<Commit> getParents() {
         return parents;
@@ -85,6 +85,24 @@ public class SVNRepository implements Repository {
         return LTCserverInterface.VersionControlSystems.SVN;
     }
 
+    @Override
+    public File getMetadataDirectory() {
+        try {
+            SVNInfo info = clientManager.getWCClient().doInfo(initialPath, SVNRevision.WORKING);
+            File root = info.getWorkingCopyRoot();
+            if (root != null)
+                return new File(root, ".svn");
+        } catch (SVNException e) {
+            // fall through
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        clientManager.dispose();
+    }
+
     @Override
     public Author getSelf() {
         return currentAuthor;
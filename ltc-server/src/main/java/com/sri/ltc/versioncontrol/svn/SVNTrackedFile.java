@@ -172,20 +172,7 @@ public class SVNTrackedFile extends TrackedFile<SVNRepository> {
         try {
             SVNClientManager manager = getRepository().getClientManager();
             SVNStatus status = manager.getStatusClient().doStatus(getFile(), false);
-
-            // when HAT_REVISION.equals(inclusiveLimitRev), we need to limit to latest revision+1
-            try {
-                handler = new SVNLogEntryHandler(
-                        this,
-                        inclusiveLimitDate,
-                        inclusiveLimitRevision == null ?
-                                null :
-                                HAT_REVISION.equals(inclusiveLimitRevision) ?
-                                        status.getRevision().getNumber()+1L :  // HAT means latest revision + 1
-                                        Long.parseLong(inclusiveLimitRevision));
-            } catch (NumberFormatException e) {
-                throw new VersionControlException("Given revision \""+inclusiveLimitRevision+"\" is not a number");
-            }
+            handler = createHandler(status, inclusiveLimitDate, inclusiveLimitRevision);
 
 //            // TODO: this is where authentication might be required:
 //            try {
@@ -213,6 +200,48 @@ public class SVNTrackedFile extends TrackedFile<SVNRepository> {
         return commits;
     }
 
+    @Override
+    public List<Commit> limitCommits(Iterable<Commit> commits, @Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision) throws VersionControlException {
+        try {
+            // run log entries of given commits through a new handler to obtain limited commits and parents
+            SVNLogEntryHandler handler = createHandler(
+                    getRepository().getClientManager().getStatusClient().doStatus(getFile(), false),
+                    inclusiveLimitDate, inclusiveLimitRevision);
+            for (Commit commit : commits)
+                handler.handleLogEntry(((SVNCommit) commit).getLogEntry());
+            return handler.getCommits();
+        } catch (SVNException e) {
+            throw new VersionControlException(e);
+        }
+    }
+
+    private SVNLogEntryHandler createHandler(SVNStatus status, @Nullable Date inclusiveLimitDate, @Nullable String inclusiveLimitRevision)
+            throws VersionControlException {
+        // when HAT_REVISION.equals(inclusiveLimitRev), we need to limit to latest revision+1
+        try {
+            return new SVNLogEntryHandler(
+                    this,
+                    inclusiveLimitDate,
+                    inclusiveLimitRevision == null ?
+                            null :
+                            HAT_REVISION.equals(inclusiveLimitRevision) ?
+                                    status.getRevision().getNumber()+1L :  // HAT means latest revision + 1
+                                    Long.parseLong(inclusiveLimitRevision));
+        } catch (NumberFormatException e) {
+            throw new VersionControlException("Given revision \""+inclusiveLimitRevision+"\" is not a number");
+        }
+    }
+
+    @Override
+    public String getHeadRevision() throws VersionControlException {
+        try {
+            SVNStatus status = getRepository().getClientManager().getStatusClient().doStatus(getFile(), false);
+            return status.getRevision() == null ? null : Long.toString(status.getRevision().getNumber());
+        } catch (SVNException e) {
+            throw new VersionControlException(e);
+        }
+    }
+
     @Override
     public Status getStatus() throws VersionControlException {
         try {
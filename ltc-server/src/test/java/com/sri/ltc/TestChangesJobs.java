@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc;
+
+import com.sri.ltc.git.TemporaryGitRepository;
+import com.sri.ltc.server.LTCserverImpl;
+import com.sri.ltc.server.LTCserverInterface;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.*;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test obtaining changes asynchronously with jobs.
+ * @author linda
+ */
+public final class TestChangesJobs {
+
+    private final static LTCserverInterface API = new LTCserverImpl();
+    private static int sessionID = -1;
+
+    @ClassRule
+    public static TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    @BeforeClass
+    public static void createSession() throws Exception {
+        File file = Utils.createGitRepository(temporaryGitRepository,
+                new String[]{"content of first file", "more content of file", "a third content of file", "again content of file"},
+                new String[]{"Anna", "Berta", "Carla"});
+        sessionID = API.init_session(file.getPath());
+        assertTrue("session ID is valid", sessionID > 0);
+    }
+
+    private static Map pollUntilDone(int jobID) throws Exception {
+        Map map = API.poll_changes(jobID);
+        while (!(Boolean) map.get(LTCserverInterface.KEY_DONE)) {
+            int progress = (Integer) map.get(LTCserverInterface.KEY_PROGRESS);
+            assertTrue("progress is a percentage", progress >= 0 && progress <= 100);
+            Thread.sleep(10);
+            map = API.poll_changes(jobID);
+        }
+        return map;
+    }
+
+    @Test
+    public void sameAsGetChanges() throws Exception {
+        byte[] text = Base64.encodeBase64("again content of file, now modified".getBytes());
+        Map expected = API.get_changes(sessionID, true, text, null, 3);
+        Map actual = pollUntilDone(API.start_changes(sessionID, true, text, null, 3));
+        assertEquals("progress when done", 100, actual.get(LTCserverInterface.KEY_PROGRESS));
+        assertEquals("text", new String((byte[]) expected.get(LTCserverInterface.KEY_TEXT)),
+                new String((byte[]) actual.get(LTCserverInterface.KEY_TEXT)));
+        assertEquals("caret", expected.get(LTCserverInterface.KEY_CARET), actual.get(LTCserverInterface.KEY_CARET));
+        assertEquals("revisions", expected.get(LTCserverInterface.KEY_REVS), actual.get(LTCserverInterface.KEY_REVS));
+        assertEquals("last revision", expected.get(LTCserverInterface.KEY_LAST), actual.get(LTCserverInterface.KEY_LAST));
+        assertEquals("number of styles",
+                ((java.util.List) expected.get(LTCserverInterface.KEY_STYLES)).size(),
+                ((java.util.List) actual.get(LTCserverInterface.KEY_STYLES)).size());
+    }
+
+    @Test(expected = XmlRpcException.class)
+    public void pollFinishedJob() throws Exception {
+        int jobID = API.start_changes(sessionID, false, new byte[0], null, 0);
+        pollUntilDone(jobID);
+        API.poll_changes(jobID); // job is forgotten once finished
+    }
+
+    @Test
+    public void cancelJob() throws Exception {
+        int jobID = API.start_changes(sessionID, false, new byte[0], null, 0);
+        assertEquals("cancelling job", 0, API.cancel_changes(jobID));
+        try {
+            API.poll_changes(jobID);
+            fail("cancelled job cannot be polled");
+        } catch (XmlRpcException e) {
+            assertEquals("error code", 1, e.code);
+        }
+    }
+
+    @Test(expected = XmlRpcException.class)
+    public void unknownJob() throws XmlRpcException {
+        API.cancel_changes(-1);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc;
+
+import com.sri.ltc.git.TemporaryGitRepository;
+import com.sri.ltc.server.ChangesDelta;
+import com.sri.ltc.server.LTCserverImpl;
+import com.sri.ltc.server.LTCserverInterface;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test obtaining changes as differences to the last version sent.
+ * @author linda
+ */
+public final class TestChangesVersions {
+
+    private final static LTCserverInterface API = new LTCserverImpl();
+    private static int sessionID = -1;
+
+    @ClassRule
+    public static TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    @BeforeClass
+    public static void createSession() throws Exception {
+        File file = Utils.createGitRepository(temporaryGitRepository,
+                new String[]{"content of first file", "more content of file", "a third content of file"},
+                new String[]{"Anna", "Berta", "Carla"});
+        sessionID = API.init_session(file.getPath());
+        assertTrue("session ID is valid", sessionID > 0);
+    }
+
+    private static String getText(Map map) {
+        return new String(Base64.decodeBase64((byte[]) map.get(LTCserverInterface.KEY_TEXT)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void differences() throws Exception {
+        byte[] text1 = Base64.encodeBase64("a third content of file, modified".getBytes());
+        byte[] text2 = Base64.encodeBase64("a third content of the file, modified".getBytes());
+
+        Map full = API.get_changes_since(sessionID, true, text1, null, 0, 0);
+        int version = (Integer) full.get(LTCserverInterface.KEY_VERSION);
+        assertNotNull("complete text", full.get(LTCserverInterface.KEY_TEXT));
+        assertNull("no difference", full.get(LTCserverInterface.KEY_TEXT_SPLICE));
+
+        Map since = API.get_changes_since(sessionID, true, text2, null, 0, version);
+        assertTrue("newer version", (Integer) since.get(LTCserverInterface.KEY_VERSION) > version);
+        assertNull("no complete text", since.get(LTCserverInterface.KEY_TEXT));
+        ChangesDelta delta = ChangesDelta.getFrom(since);
+        assertNotNull("difference", delta);
+
+        Map expected = API.get_changes(sessionID, true, text2, null, 0);
+        assertEquals("text from difference", getText(expected), delta.applyToText(getText(full)));
+        List<Integer[]> styles = delta.applyToStyles((List<Integer[]>) full.get(LTCserverInterface.KEY_STYLES));
+        List<Integer[]> expectedStyles = (List<Integer[]>) expected.get(LTCserverInterface.KEY_STYLES);
+        assertEquals("number of styles", expectedStyles.size(), styles.size());
+        for (int i = 0; i < styles.size(); i++)
+            assertArrayEquals("style ("+i+")", expectedStyles.get(i), styles.get(i));
+
+        // outdated version obtains complete changes again:
+        Map outdated = API.get_changes_since(sessionID, true, text2, null, 0, version);
+        assertEquals("complete text", getText(expected), getText(outdated));
+    }
+}
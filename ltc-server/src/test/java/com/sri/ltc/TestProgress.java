@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test progress as primitive counters that are sampled at a fixed rate.
+ * @author linda
+ */
+public final class TestProgress {
+
+    private final static class Recorder implements ProgressReceiver {
+        final List<Integer> percents = new ArrayList<Integer>();
+        final List<String> stages = new ArrayList<String>();
+
+        @Override
+        public synchronized void updateProgress(int percent, String stage) {
+            percents.add(percent);
+            stages.add(stage);
+        }
+    }
+
+    @Test
+    public void percentages() {
+        Progress progress = new Progress(null);
+        progress.stage("first", 10, 50);
+        assertEquals("start of stage", 10, progress.getPercent());
+        progress.setSteps(4);
+        progress.setDone(1);
+        assertEquals("after one step", 20, progress.getPercent());
+        progress.setDone(10);
+        assertEquals("at most end of stage", 50, progress.getPercent());
+        progress.stage("second", 50, 100);
+        assertEquals("stage", "second", progress.getStage());
+        assertEquals("start of second stage", 50, progress.getPercent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        new Progress(null).stage("invalid", 50, 10);
+    }
+
+    @Test
+    public void sampling() throws Exception {
+        Recorder recorder = new Recorder();
+        Progress progress = new Progress(recorder).start();
+        progress.stage("first", 0, 50);
+        progress.setSteps(1000);
+        for (int i = 1; i <= 1000; i++)
+            progress.setDone(i); // far more updates than samples
+        Thread.sleep(3 * Progress.SAMPLING_INTERVAL);
+        progress.stage("second", 50, 100);
+        progress.setDone(1);
+        progress.finish();
+        synchronized (recorder) {
+            assertTrue("few samples", recorder.percents.size() < 10);
+            assertEquals("last progress", 100, (int) recorder.percents.get(recorder.percents.size() - 1));
+            assertEquals("last stage", "second", recorder.stages.get(recorder.stages.size() - 1));
+            assertTrue("first stage sampled", recorder.stages.contains("first"));
+            for (int i = 1; i < recorder.percents.size(); i++)
+                assertTrue("progress does not go back", recorder.percents.get(i - 1) <= recorder.percents.get(i));
+        }
+        int samples = recorder.percents.size();
+        Thread.sleep(2 * Progress.SAMPLING_INTERVAL);
+        assertEquals("no samples after finishing", samples, recorder.percents.size());
+    }
+}
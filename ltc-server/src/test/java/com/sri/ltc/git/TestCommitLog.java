@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.git;
+
+import com.sri.ltc.CancellationToken;
+import com.sri.ltc.versioncontrol.Commit;
+import com.sri.ltc.versioncontrol.CommitLog;
+import com.sri.ltc.versioncontrol.TrackedFile;
+import com.sri.ltc.versioncontrol.git.GitRepository;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test that the commit log of a tracked file is extended incrementally and agrees with version control.
+ *
+ * @author linda
+ */
+public final class TestCommitLog {
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    private static List<String> ids(List<Commit> commits) {
+        List<String> ids = new ArrayList<String>();
+        for (Commit commit : commits)
+            ids.add(commit.getId());
+        return ids;
+    }
+
+    private void commit(TrackedFile trackedFile, String text) throws Exception {
+        temporaryGitRepository.modifyTestFileInRepository(trackedFile, text, true);
+        trackedFile.commit("commit of \""+text.trim()+"\"");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void incremental() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        CommitLog log = trackedFile.getCommitLog();
+        assertTrue("no commits yet", log.getCommits().isEmpty());
+
+        trackedFile.commit("first commit");
+        commit(trackedFile, "\nsecond version");
+        List<Commit> commits = log.getCommits();
+        assertEquals("2 commits", 2, commits.size());
+        assertEquals("same commits as version control", ids(trackedFile.getCommits()), ids(commits));
+        assertSame("unchanged log is not obtained again", commits, log.getCommits());
+
+        // moving HEAD without changing the file keeps commits
+        TrackedFile otherFile = temporaryGitRepository.createTestFileInRepository("bar", ".txt", "other file", true);
+        otherFile.commit("commit of other file");
+        assertEquals("still 2 commits", ids(commits), ids(log.getCommits()));
+
+        commit(trackedFile, "\nthird version");
+        commit(trackedFile, "\nfourth version");
+        List<Commit> extended = log.getCommits();
+        assertEquals("same commits as version control", ids(trackedFile.getCommits()), ids(extended));
+        assertSame("known commits are kept", commits.get(0), extended.get(2));
+        assertSame("known commits are kept", commits.get(1), extended.get(3));
+
+        // limits are derived from log
+        String limit = extended.get(1).getId();
+        assertEquals("limit by revision", ids(trackedFile.getCommits(null, limit)), ids(log.getCommits(null, limit)));
+        assertEquals("limit by revision", 3, log.getCommits(null, limit).size());
+        assertEquals("limit by hat", 1, log.getCommits(null, TrackedFile.HAT_REVISION).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void rewritten() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        trackedFile.commit("first commit");
+        commit(trackedFile, "\nsecond version");
+        commit(trackedFile, "\nthird version");
+        CommitLog log = trackedFile.getCommitLog();
+        assertEquals("3 commits", 3, log.getCommits().size());
+
+        // reset HEAD to first commit and commit something else
+        Git git = new Git(((GitRepository) temporaryGitRepository.getRepository()).getWrappedRepository());
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef("HEAD~2").call();
+        assertEquals("1 commit after reset", ids(trackedFile.getCommits()), ids(log.getCommits()));
+        commit(trackedFile, "\nother second version");
+        List<Commit> commits = log.getCommits();
+        assertEquals("2 commits after new commit", 2, commits.size());
+        assertEquals("same commits as version control", ids(trackedFile.getCommits()), ids(commits));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void cancelled() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        trackedFile.commit("first commit");
+        commit(trackedFile, "\nsecond version");
+        CommitLog log = trackedFile.getCommitLog();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        try {
+            log.getCommits(token);
+            fail("cancelled walk should not finish");
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertEquals("2 commits after cancelled walk", 2, log.getCommits().size());
+
+        // cancelled extension keeps known commits:
+        commit(trackedFile, "\nthird version");
+        try {
+            log.getCommits(token);
+            fail("cancelled walk should not finish");
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertEquals("same commits as version control", ids(trackedFile.getCommits()), ids(log.getCommits()));
+        assertEquals("3 commits after cancelled extension", 3, log.getCommits().size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.git;
+
+import com.sri.ltc.CommonUtils;
+import com.sri.ltc.server.Metrics;
+import com.sri.ltc.versioncontrol.Commit;
+import com.sri.ltc.versioncontrol.TrackedFile;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test loading texts of commits in batches through the content cache of git repositories.
+ *
+ * @author linda
+ */
+public final class TestContentCache {
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void batch() throws Exception {
+        String[] texts = {"first version", "second version", "first version", "third version"};
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", texts[0], true);
+        trackedFile.commit("commit 1");
+        for (int i = 1; i < texts.length; i++) {
+            temporaryGitRepository.modifyTestFileInRepository(trackedFile, texts[i], false);
+            trackedFile.commit("commit "+(i+1));
+        }
+        List<Commit> commits = trackedFile.getCommits();
+        assertEquals("4 commits", texts.length, commits.size());
+
+        long hits = Metrics.CACHE_HITS.get(Metrics.CACHE_CONTENTS);
+        long misses = Metrics.CACHE_MISSES.get(Metrics.CACHE_CONTENTS);
+        trackedFile.prefetchContents(commits);
+        for (int i = 0; i < texts.length; i++)
+            assertEquals("text of commit "+(i+1),
+                    texts[i], CommonUtils.copyText(commits.get(texts.length - 1 - i).getContents()));
+        assertEquals("only first text is missing", misses + 1, Metrics.CACHE_MISSES.get(Metrics.CACHE_CONTENTS));
+        assertEquals("other texts were loaded with first", hits + 3, Metrics.CACHE_HITS.get(Metrics.CACHE_CONTENTS));
+
+        // texts are still cached when reading again
+        for (int i = 0; i < texts.length; i++)
+            assertEquals("text of commit "+(i+1),
+                    texts[i], CommonUtils.copyText(commits.get(texts.length - 1 - i).getContents()));
+        assertEquals("no more missing texts", misses + 1, Metrics.CACHE_MISSES.get(Metrics.CACHE_CONTENTS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void batchPerFile() throws Exception {
+        TrackedFile[] trackedFiles = new TrackedFile[2];
+        List<Commit>[] commits = new List[trackedFiles.length];
+        for (int f = 0; f < trackedFiles.length; f++) {
+            trackedFiles[f] = temporaryGitRepository.createTestFileInRepository("file"+f, ".txt", "first of "+f, true);
+            trackedFiles[f].commit("commit 1 of "+f);
+            temporaryGitRepository.modifyTestFileInRepository(trackedFiles[f], "second of "+f, false);
+            trackedFiles[f].commit("commit 2 of "+f);
+            commits[f] = trackedFiles[f].getCommits();
+        }
+
+        // announcing commits of one file keeps those announced for the other
+        long misses = Metrics.CACHE_MISSES.get(Metrics.CACHE_CONTENTS);
+        for (int f = 0; f < trackedFiles.length; f++)
+            trackedFiles[f].prefetchContents(commits[f]);
+        for (int f = 0; f < trackedFiles.length; f++) {
+            assertEquals("first text of file "+f, "first of "+f, CommonUtils.copyText(commits[f].get(1).getContents()));
+            assertEquals("second text of file "+f, "second of "+f, CommonUtils.copyText(commits[f].get(0).getContents()));
+        }
+        assertEquals("one missing text for each file", misses + 2, Metrics.CACHE_MISSES.get(Metrics.CACHE_CONTENTS));
+    }
+}
@@ -21,6 +21,7 @@
  */
 package com.sri.ltc.git;
 
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.Utils;
 import com.sri.ltc.categories.IntegrationTests;
 import com.sri.ltc.versioncontrol.Commit;
@@ -108,6 +109,29 @@ public class TestGitRepository {
         }
     }
 
+    @Test
+    public void commitsSince() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "commitsSince", true);
+        trackedFile.commit("commit A from commitsSince");
+        temporaryGitRepository.modifyTestFileInRepository(trackedFile, "\n modification", true);
+        trackedFile.commit("commit B from commitsSince");
+        List<Commit> commits = trackedFile.getCommits();
+        assertEquals("2 commits", 2, commits.size());
+        String head = trackedFile.getHeadRevision();
+
+        temporaryGitRepository.modifyTestFileInRepository(trackedFile, "\n another modification", true);
+        trackedFile.commit("commit C from commitsSince");
+
+        CancellationToken token = new CancellationToken();
+        List<Commit> added = trackedFile.getCommitsSince(head, commits.get(0).getId(), token);
+        assertEquals("only new commit", 1, added.size());
+        assertEquals("commit C from commitsSince", added.get(0).getMessage().trim());
+        List<Commit> parents = added.get(0).getParents();
+        assertEquals("parent is newest known commit", commits.get(0).getId(), parents.get(0).getId());
+        assertEquals("all commits", 3, trackedFile.getCommitsSince(head, null, token).size());
+        assertNull("unknown commit", trackedFile.getCommitsSince(head, "0000000000000000000000000000000000000000", token));
+    }
+
     @Test
     public void testMultifileCommit() {
         // the idea here is to make sure that when more than one file is modified at a time,
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.git;
+
+import com.google.common.collect.Lists;
+import com.sri.ltc.CommonUtils;
+import com.sri.ltc.filter.Author;
+import com.sri.ltc.versioncontrol.Commit;
+import com.sri.ltc.versioncontrol.TrackedFile;
+import com.sri.ltc.versioncontrol.git.GitRepository;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the history index of git repositories stored under <code>.git/ltc/history/</code>.
+ *
+ * @author linda
+ */
+public final class TestHistoryIndex {
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    private File getIndexDirectory() {
+        return new File(temporaryGitRepository.getRoot(), ".git"+File.separator+"ltc"+File.separator+"history");
+    }
+
+    private File getIndexFile() {
+        File[] files = getIndexDirectory().listFiles();
+        assertNotNull("index directory exists", files);
+        assertEquals("one index file", 1, files.length);
+        return files[0];
+    }
+
+    private static List<String> ids(List<Commit> commits) {
+        List<String> ids = new ArrayList<String>();
+        for (Commit commit : commits)
+            ids.add(commit.getId());
+        return ids;
+    }
+
+    private String commit(TrackedFile trackedFile, String text) throws Exception {
+        temporaryGitRepository.modifyTestFileInRepository(trackedFile, text, true);
+        return trackedFile.commit("commit of \""+text.trim()+"\"").getId();
+    }
+
+    @SuppressWarnings("unchecked")
+    private TrackedFile reopen(TrackedFile trackedFile) throws Exception {
+        return temporaryGitRepository.getRepository().getFile(trackedFile.getFile());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void lookup() throws Exception {
+        temporaryGitRepository.setAuthor(new Author("Anna", "anna@test.com"));
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        List<String> expected = Lists.newArrayList(trackedFile.commit("first commit").getId());
+        expected.add(0, commit(trackedFile, "\nsecond version"));
+        assertEquals("commits from walk", expected, ids(trackedFile.getCommits()));
+        String index = CommonUtils.copyText(new FileReader(getIndexFile()));
+
+        // new tracked file reads commits from index without writing it again
+        List<Commit> commits = reopen(trackedFile).getCommits();
+        assertEquals("commits from index", expected, ids(commits));
+        assertEquals("index unchanged", index, CommonUtils.copyText(new FileReader(getIndexFile())));
+        assertEquals("author", new Author("Anna", "anna@test.com"), commits.get(0).getAuthor());
+        assertEquals("message", "commit of \"second version\"", commits.get(0).getMessage().trim());
+        assertEquals("parent", expected.get(1), ((Commit) commits.get(0).getParents().get(0)).getId());
+        assertEquals("contents", "first version\nsecond version", CommonUtils.copyText(commits.get(0).getContents()));
+        assertEquals("contents", "first version", CommonUtils.copyText(commits.get(1).getContents()));
+
+        // new commits are appended
+        expected.add(0, commit(trackedFile, "\nthird version"));
+        assertEquals("commits after new commit", expected, ids(reopen(trackedFile).getCommits()));
+        String appended = CommonUtils.copyText(new FileReader(getIndexFile()));
+        assertTrue("index is appended", appended.startsWith(index));
+        assertEquals("one commit and one head appended", 2, appended.substring(index.length()).split("\n").length);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void rewritten() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        List<String> expected = Lists.newArrayList(trackedFile.commit("first commit").getId());
+        commit(trackedFile, "\nsecond version");
+        assertEquals("2 commits", 2, trackedFile.getCommits().size());
+
+        // reset HEAD to first commit and commit something else
+        Git git = new Git(((GitRepository) temporaryGitRepository.getRepository()).getWrappedRepository());
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef("HEAD~1").call();
+        expected.add(0, commit(trackedFile, "\nother second version"));
+        assertEquals("commits after rewriting history", expected, ids(reopen(trackedFile).getCommits()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void corrupted() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".txt", "first version", true);
+        List<String> expected = Lists.newArrayList(trackedFile.commit("first commit").getId());
+        expected.add(0, commit(trackedFile, "\nsecond version"));
+        assertEquals("commits from walk", expected, ids(trackedFile.getCommits()));
+
+        // partially written batch at the end of index is ignored
+        FileWriter writer = new FileWriter(getIndexFile(), true);
+        writer.write("commit\t0123");
+        writer.close();
+        expected.add(0, commit(trackedFile, "\nthird version"));
+        assertEquals("commits with corrupted index", expected, ids(reopen(trackedFile).getCommits()));
+        assertFalse("index is written again", CommonUtils.copyText(new FileReader(getIndexFile())).contains("0123"));
+    }
+}
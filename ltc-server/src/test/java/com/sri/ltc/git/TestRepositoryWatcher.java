@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.git;
+
+import com.sri.ltc.server.Metrics;
+import com.sri.ltc.versioncontrol.RepositoryWatcher;
+import com.sri.ltc.versioncontrol.TrackedFile;
+import com.sri.ltc.versioncontrol.git.GitRepository;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test that the status of watched files is cached until the file or the metadata of the repository change.
+ *
+ * @author linda
+ */
+public final class TestRepositoryWatcher {
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    private final Semaphore changes = new Semaphore(0);
+    private final RepositoryWatcher.Listener listener = new RepositoryWatcher.Listener() {
+        @Override
+        public void changed(TrackedFile trackedFile) {
+            changes.release();
+        }
+    };
+
+    @Test
+    public void status() throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository("foo", ".tex", "first version", true);
+        trackedFile.commit("first commit");
+        RepositoryWatcher watcher = new RepositoryWatcher(temporaryGitRepository.getRepository().getMetadataDirectory());
+        try {
+            watcher.watch(trackedFile, listener);
+            assertEquals("unchanged", TrackedFile.Status.Unchanged, watcher.getStatus(trackedFile));
+            long hits = Metrics.CACHE_HITS.get(Metrics.CACHE_STATUS);
+            assertEquals("still unchanged", TrackedFile.Status.Unchanged, watcher.getStatus(trackedFile));
+            assertEquals("status from memory", hits + 1, Metrics.CACHE_HITS.get(Metrics.CACHE_STATUS));
+
+            // saving file or index is noticed right away
+            temporaryGitRepository.modifyTestFileInRepository(trackedFile, "\nsecond version", true);
+            assertEquals("modified", TrackedFile.Status.Modified, watcher.getStatus(trackedFile));
+            assertTrue("listener notified of change", changes.tryAcquire(30, TimeUnit.SECONDS));
+            Git git = new Git(((GitRepository) temporaryGitRepository.getRepository()).getWrappedRepository());
+            git.add().addFilepattern(".").call();
+            assertEquals("changed", TrackedFile.Status.Changed, watcher.getStatus(trackedFile));
+            trackedFile.commit("second commit");
+            assertEquals("unchanged after commit", TrackedFile.Status.Unchanged, watcher.getStatus(trackedFile));
+
+            // moving the reference of HEAD is noticed right away
+            git.reset().setMode(ResetCommand.ResetType.SOFT).setRef("HEAD~1").call();
+            assertEquals("changed after reset", TrackedFile.Status.Changed, watcher.getStatus(trackedFile));
+
+            // status of files no longer watched is obtained from version control
+            watcher.unwatch(trackedFile, listener);
+            hits = Metrics.CACHE_HITS.get(Metrics.CACHE_STATUS);
+            assertEquals("still changed", TrackedFile.Status.Changed, watcher.getStatus(trackedFile));
+            assertEquals("changed", TrackedFile.Status.Changed, watcher.getStatus(trackedFile));
+            assertEquals("status not from memory", hits, Metrics.CACHE_HITS.get(Metrics.CACHE_STATUS));
+        } finally {
+            watcher.close();
+        }
+    }
+}
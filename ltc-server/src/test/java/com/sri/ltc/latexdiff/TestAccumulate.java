@@ -21,17 +21,21 @@
  */
 package com.sri.ltc.latexdiff;
 
+import com.sri.ltc.CancellationToken;
 import com.sri.ltc.server.LTCserverInterface;
 import org.apache.commons.codec.binary.Base64;
 import org.junit.Test;
 
 import java.awt.*;
+import java.io.Reader;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author linda
@@ -211,11 +215,11 @@ public final class TestAccumulate {
                 "Lorem   isu",
                 "  Lorem  ipsum"
         );
-        assertMap("  Lorem  ipsumt", 4, 0);
+        assertMap("  Lorem  ipsutm", 4, 0); // earlier deletion before later addition
         assertStyle(
-                new int[] {1, 1, 1, 2},
+                new int[] {1, 1, 2, 1},
                 new int[][] {{10, 11}, {11, 12}, {13, 14}, {14, 15}},
-                new int[] {2, 1, 2, 1},
+                new int[] {2, 1, 1, 2},
                 null);
         map = perform(0,
                 "Lorem ipsum dorstamet,",
@@ -306,10 +310,10 @@ public final class TestAccumulate {
                 "Lorem ipsum dolor \nsit amet",
                 "Lorem ipsum dolor sit amet, \n "
         );
-        assertMap("Lorem ipsum; dolor sit amet., \n ", 3, 0);
+        assertMap("Lorem ipsum; dolor sit amet.\n, \n ", 3, 0); // deletion as compared with second version
         assertStyle(
                 new int[] {2, 2, 1},
-                new int[][] {{11, 12}, {27, 28}, {28, 32}},
+                new int[][] {{11, 12}, {27, 29}, {29, 33}},
                 new int[] {1, 1, 2},
                 null);
         // recreate problem with comment:
@@ -623,4 +627,89 @@ public final class TestAccumulate {
                 "\\cite{MODWork98} for {\\em Escherichia coli} K--12.  In addition, we propose to extend the scope of the project to cover the Gram-positive model organism Bacillus subtilis \\bacsub.\r\n" +
                 "The project will be carried out by SRI International", 4, 0);
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cachedAccumulation() throws Exception {
+        String[] texts = {
+                "Lorem ipsum dolor sit amet. % old comment\n",
+                "Lorem dolor sit amet, consectetur. % new comment\n",
+                "Lorem dolor sit amet, consectetur adipiscing elit.\n"};
+        ReaderWrapper[] readers = new ReaderWrapper[texts.length];
+        for (int i=0; i<texts.length; i++)
+            readers[i] = new StringReaderWrapper(texts[i]);
+        Accumulate cachingAccumulate = new Accumulate();
+
+        // same result with and without cache for different filters and caret positions:
+        for (Set<Change.Flag> flags : Arrays.asList(
+                EnumSet.noneOf(Change.Flag.class),
+                EnumSet.of(Change.Flag.DELETION),
+                EnumSet.of(Change.Flag.COMMENT, Change.Flag.SMALL),
+                EnumSet.noneOf(Change.Flag.class)))
+            for (int caret : new int[] {0, 7, 30, texts[2].length()}) {
+                map = perform(caret, null, flags, texts);
+                Map cached = cachingAccumulate.perform(readers, null, flags, null, caret, "key");
+                assertEquals("Text is equal to",
+                        new String(Base64.decodeBase64((byte[]) map.get(LTCserverInterface.KEY_TEXT))),
+                        new String(Base64.decodeBase64((byte[]) cached.get(LTCserverInterface.KEY_TEXT))));
+                List<Integer[]> expected = (List<Integer[]>) map.get(LTCserverInterface.KEY_STYLES);
+                List<Integer[]> actual = (List<Integer[]>) cached.get(LTCserverInterface.KEY_STYLES);
+                assertEquals("Number of styles", expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++)
+                    assertTrue("style ("+i+")", Arrays.equals(expected.get(i), actual.get(i)));
+                assertEquals("Caret position", map.get(LTCserverInterface.KEY_CARET), cached.get(LTCserverInterface.KEY_CARET));
+                assertEquals("Revision indices", map.get(LTCserverInterface.KEY_REV_INDICES), cached.get(LTCserverInterface.KEY_REV_INDICES));
+            }
+
+        // same key but different newest text only compares the newest text with cached mark up:
+        texts[2] = "Lorem dolor sit amet, consectetur elit.\n";
+        readers[2] = new StringReaderWrapper(texts[2]);
+        for (int i = 0; i < 2; i++)
+            readers[i] = new ReaderWrapper() {
+                @Override
+                public Reader createReader() throws Exception {
+                    throw new IllegalStateException("Earlier version is read again");
+                }
+
+                @Override
+                public boolean removeAdditions(LexemeBuffer lexemes, int index) {
+                    return true;
+                }
+
+                @Override
+                public String getContentKey() {
+                    return null;
+                }
+            };
+        map = perform(7, null, EnumSet.noneOf(Change.Flag.class), texts);
+        Map cached = cachingAccumulate.perform(readers, null, EnumSet.noneOf(Change.Flag.class), null, 7, "key");
+        assertEquals("Text is equal to",
+                new String(Base64.decodeBase64((byte[]) map.get(LTCserverInterface.KEY_TEXT))),
+                new String(Base64.decodeBase64((byte[]) cached.get(LTCserverInterface.KEY_TEXT))));
+        List<Integer[]> expected = (List<Integer[]>) map.get(LTCserverInterface.KEY_STYLES);
+        List<Integer[]> actual = (List<Integer[]>) cached.get(LTCserverInterface.KEY_STYLES);
+        assertEquals("Number of styles", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertTrue("style ("+i+")", Arrays.equals(expected.get(i), actual.get(i)));
+        assertEquals("Caret position", map.get(LTCserverInterface.KEY_CARET), cached.get(LTCserverInterface.KEY_CARET));
+    }
+
+    @Test
+    public void cancelledAccumulation() throws Exception {
+        ReaderWrapper[] readers = {
+                new StringReaderWrapper("Lorem ipsum dolor sit amet."),
+                new StringReaderWrapper("Lorem dolor sit amet, consectetur.")};
+        Accumulate cachingAccumulate = new Accumulate();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        try {
+            cachingAccumulate.perform(readers, null, EnumSet.noneOf(Change.Flag.class), null, 0, "key", token);
+            fail("cancelled accumulation should not finish");
+        } catch (CancellationException e) {
+            // expected
+        }
+        // cancelled accumulation did not cache partial mark up:
+        map = cachingAccumulate.perform(readers, null, EnumSet.noneOf(Change.Flag.class), null, 0, "key");
+        assertMap("Lorem ipsum dolor sit amet, consectetur.", 2, 0);
+    }
 }
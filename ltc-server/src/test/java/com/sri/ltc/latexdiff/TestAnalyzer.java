@@ -45,7 +45,7 @@ public final class TestAnalyzer {
     }
 
     private static List<Lexeme> analyze(ReaderWrapper wrapper) throws Exception {
-        return latexDiff.analyze(wrapper);
+        return latexDiff.analyze(wrapper).asList();
     }
 
     @Test
@@ -107,7 +107,7 @@ public final class TestAnalyzer {
     @Test
     public void analyzeDoc() throws Exception {
         MarkedUpDocument document = new MarkedUpDocument();
-        document.insertString(0, "Lorem ipsum  dolor sit  amet. ", null);
+        document.insertString(0, "Lorem ipsum  dolor sit  amet. ");
         document.insertDeletion(7, "s", EnumSet.of(Change.Flag.SMALL, Change.Flag.DELETION));
         document.markupAddition(9, 10, EnumSet.of(Change.Flag.SMALL));
         document.markupAddition(17, 18, EnumSet.of(Change.Flag.SMALL));
@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.bmsi.gnudiff.Diff;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author linda
+ */
+public class TestAnchoredDiff {
+
+    // apply edit script of all gaps to first array
+    private static int[] apply(AnchoredDiff diff, int[] a, int[] b) {
+        List<Integer> result = new ArrayList<Integer>();
+        int i0 = 0;
+        for (int gap = 0; gap < diff.gaps(); gap++)
+            for (Diff.change hunk = diff.diff(gap); hunk != null; hunk = hunk.link) {
+                while (i0 < hunk.line0)
+                    result.add(a[i0++]);
+                i0 += hunk.deleted;
+                for (int i1 = hunk.line1; i1 < hunk.line1 + hunk.inserted; i1++)
+                    result.add(b[i1]);
+            }
+        while (i0 < a.length)
+            result.add(a[i0++]);
+        int[] array = new int[result.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = result.get(i);
+        return array;
+    }
+
+    private static int[] edit(Random random, int[] a, double density, int symbols) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int symbol : a)
+            if (random.nextDouble() < density)
+                switch (random.nextInt(3)) {
+                    case 0: break; // deleted
+                    case 1: result.add(1 + random.nextInt(symbols)); break; // replaced
+                    default: result.add(symbol); result.add(1 + random.nextInt(symbols)); // inserted
+                }
+            else
+                result.add(symbol);
+        int[] array = new int[result.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = result.get(i);
+        return array;
+    }
+
+    @Test
+    public void chunked() throws Exception {
+        String text1 = "\\begin{document}\n\nLorem ipsum dolor sit amet, consectetur adipiscing elit.\n\n" +
+                "Sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.\n\\end{document}";
+        String text2 = text1.replace("dolor sit", "dolor sat").replace("magna", "");
+        LatexDiff latexDiff = new LatexDiff();
+        List<Change> whole = latexDiff.getChanges(new StringReaderWrapper(text1), new StringReaderWrapper(text2));
+        List<Change> changes;
+        int threshold = LatexDiff.getChunkingThreshold();
+        try {
+            LatexDiff.setChunkingThreshold(0);
+            changes = latexDiff.getChanges(new StringReaderWrapper(text1), new StringReaderWrapper(text2));
+        } finally {
+            LatexDiff.setChunkingThreshold(threshold);
+        }
+        assertEquals("Number of changes", 3, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals("class of change " + i, whole.get(i).getClass(), changes.get(i).getClass());
+            assertEquals("start position of change " + i, whole.get(i).start_position, changes.get(i).start_position);
+            assertEquals("flags of change " + i, whole.get(i).flags, changes.get(i).flags);
+        }
+    }
+
+    @Test
+    public void unchanged() {
+        int[] a = {1, 2, 3, 4, 5, 1, 2, 3};
+        AnchoredDiff diff = new AnchoredDiff(a, a.clone());
+        for (int gap = 0; gap < diff.gaps(); gap++)
+            assertNull("no hunks in gap " + gap, diff.diff(gap));
+        diff = new AnchoredDiff(new int[0], new int[0]);
+        assertEquals(1, diff.gaps());
+        assertNull(diff.diff(0));
+    }
+
+    @Test
+    public void validScripts() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            int symbols = 2 + random.nextInt(i % 2 == 0 ? 10 : 5000); // few or many repeating symbols
+            int[] a = new int[random.nextInt(3000)];
+            for (int j = 0; j < a.length; j++)
+                a[j] = 1 + random.nextInt(symbols);
+            int[] b = edit(random, a, random.nextDouble() / 4, symbols);
+            assertArrayEquals("edit script transforms " + Arrays.toString(a),
+                    b, apply(new AnchoredDiff(a, b), a, b));
+        }
+    }
+}
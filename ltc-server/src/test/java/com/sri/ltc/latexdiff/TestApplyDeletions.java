@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test removing deleted ranges from a text against a naive removal of each deleted character.
+ * @author linda
+ */
+public class TestApplyDeletions {
+
+    // naive reference: mark each deleted character and remove them one at a time
+    private static Object[] remove(String text, List<Object[]> deletions, int caretPosition) {
+        boolean[] deleted = new boolean[text.length()];
+        for (Object[] pair : deletions)
+            for (int i = Math.max(0, (Integer) pair[0]); i < Math.min(text.length(), (Integer) pair[1]); i++)
+                deleted[i] = true;
+        StringBuilder result = new StringBuilder(text);
+        int caret = caretPosition;
+        for (int i = text.length() - 1; i >= 0; i--)
+            if (deleted[i]) {
+                result.deleteCharAt(i);
+                if (i < caretPosition)
+                    caret--;
+            }
+        return new Object[] {result.toString(), caret};
+    }
+
+    private static void assertRemoved(String text, List<Object[]> deletions, int caretPosition) throws Exception {
+        Object[] expected = remove(text, deletions, caretPosition);
+        Map<MarkedUpDocument.KEYS,Object> map = MarkedUpDocument.applyDeletions(text, deletions, caretPosition);
+        String message = "\""+text+"\" with caret at "+caretPosition+" and deletions "+toString(deletions);
+        assertEquals("text of "+message, expected[0], map.get(MarkedUpDocument.KEYS.TEXT));
+        assertEquals("caret of "+message, expected[1], map.get(MarkedUpDocument.KEYS.POSITION));
+    }
+
+    private static String toString(List<Object[]> deletions) {
+        StringBuilder result = new StringBuilder();
+        for (Object[] pair : deletions)
+            result.append(Arrays.toString(pair));
+        return result.toString();
+    }
+
+    @Test
+    public void fixed() throws Exception {
+        List<Object[]> deletions = new ArrayList<Object[]>();
+        assertRemoved("Lorem ipsum", deletions, 3);
+        deletions.add(new Object[] {6, 12});
+        assertRemoved("Lorem ipsum dolor", deletions, 17);
+        deletions.add(new Object[] {0, 6});
+        assertRemoved("Lorem ipsum dolor", deletions, 8); // unsorted, caret within deletion
+        deletions.add(new Object[] {4, 8});
+        assertRemoved("Lorem ipsum dolor", deletions, 0); // overlapping
+        deletions.add(new Object[] {-5, 40});
+        assertRemoved("Lorem ipsum dolor", deletions, 17); // beyond text
+        deletions.clear();
+        deletions.add(new Object[] {5, 2});
+        assertRemoved("Lorem ipsum dolor", deletions, 5); // empty
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void notPair() throws Exception {
+        List<Object[]> deletions = new ArrayList<Object[]>();
+        deletions.add(new Object[] {1, 2, 3});
+        MarkedUpDocument.applyDeletions("Lorem ipsum", deletions, 0);
+    }
+
+    @Test
+    public void random() throws Exception {
+        Random random = new Random(20);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(40); i > 0; i--)
+                text.append((char) ('a' + random.nextInt(26)));
+            List<Object[]> deletions = new ArrayList<Object[]>();
+            for (int i = random.nextInt(6); i > 0; i--) {
+                int start = random.nextInt(text.length() + 6) - 3;
+                deletions.add(new Object[] {start, start + random.nextInt(12) - 2});
+            }
+            assertRemoved(text.toString(), deletions, random.nextInt(text.length() + 1));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.sri.ltc.CommonUtils;
+import com.sri.ltc.categories.IntegrationTests;
+import com.sri.ltc.server.LTCserverInterface;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.Reader;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Accumulating changes in parallel sessions, which should neither interfere with each other
+ * nor wait for each other.
+ *
+ * @author linda
+ */
+@Category(IntegrationTests.class)
+public final class TestConcurrentAccumulate {
+
+    private final static int SESSIONS = 8;
+    private final static String PARAGRAPH =
+            "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut " +
+            "labore et dolore magna aliqua. % comment about $e = m\\cdot c^2$\n" +
+            "Ut enim ad minim veniam, quis \\emph{nostrud} exercitation ullamco laboris nisi ut aliquip.\n\n";
+
+    // create versions of a text, where each version changes some words of the previous one
+    private static ReaderWrapper[] createVersions(int session) {
+        ReaderWrapper[] versions = new ReaderWrapper[5];
+        StringBuilder text = new StringBuilder("\\begin{document}\nSession "+session+"\n\n");
+        for (int i = 0; i < 30; i++)
+            text.append(PARAGRAPH);
+        for (int v = 0; v < versions.length; v++) {
+            versions[v] = new StringReaderWrapper(text.toString()+"\\end{document}");
+            int pos = 0;
+            while ((pos = text.indexOf("dolor", pos + 1)) >= 0 && pos % (v + 2) == 0)
+                text.replace(pos, pos + 5, "dolore");
+            text.replace(text.indexOf("minim"), text.indexOf("minim") + 5, "maxim "+v);
+            text.insert(text.length() / (v + 2), "inserted in version "+v+" ");
+        }
+        return versions;
+    }
+
+    private static Callable<Map> createSession(final int session) {
+        return new Callable<Map>() {
+            @Override
+            public Map call() throws Exception {
+                return new Accumulate().perform(createVersions(session), null,
+                        EnumSet.noneOf(Change.Flag.class), null, 0);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertSameResult(Map expected, Map actual) {
+        assertTrue("Same text", Arrays.equals(
+                (byte[]) expected.get(LTCserverInterface.KEY_TEXT),
+                (byte[]) actual.get(LTCserverInterface.KEY_TEXT)));
+        List<Integer[]> expectedStyles = (List<Integer[]>) expected.get(LTCserverInterface.KEY_STYLES);
+        List<Integer[]> actualStyles = (List<Integer[]>) actual.get(LTCserverInterface.KEY_STYLES);
+        assertEquals("Number of styles", expectedStyles.size(), actualStyles.size());
+        for (int i = 0; i < expectedStyles.size(); i++)
+            assertTrue("Style "+i, Arrays.equals(expectedStyles.get(i), actualStyles.get(i)));
+    }
+
+    @Test
+    public void parallelSessions() throws Exception {
+        // sequential sessions:
+        List<Map> expected = new ArrayList<Map>();
+        for (int i = 0; i < SESSIONS; i++)
+            expected.add(createSession(i).call());
+
+        // the same sessions in parallel:
+        DiffCache.clearMemory();
+        ExecutorService executor = Executors.newFixedThreadPool(SESSIONS);
+        List<Callable<Map>> sessions = new ArrayList<Callable<Map>>();
+        for (int i = 0; i < SESSIONS; i++)
+            sessions.add(createSession(i));
+        List<Future<Map>> results = executor.invokeAll(sessions);
+        executor.shutdown();
+
+        for (int i = 0; i < SESSIONS; i++)
+            assertSameResult(expected.get(i), results.get(i).get());
+    }
+
+    @Test
+    public void overlappingDiffs() throws Exception {
+        // each diff waits inside the shared instance until all diffs have started, which only
+        // happens if they don't wait for each other:
+        final LatexDiff latexDiff = new LatexDiff();
+        final CountDownLatch started = new CountDownLatch(SESSIONS);
+        ExecutorService executor = Executors.newFixedThreadPool(SESSIONS);
+        List<Callable<Boolean>> diffs = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < SESSIONS; i++) {
+            final ReaderWrapper[] versions = createVersions(i);
+            diffs.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean[] overlapped = {false};
+                    latexDiff.getChanges(latexDiff.analyze(versions[0]),
+                            CommonUtils.copyText(versions[0].createReader()),
+                            new LatchedReaderWrapper(versions[1], started, overlapped));
+                    return overlapped[0];
+                }
+            });
+        }
+        List<Future<Boolean>> results = executor.invokeAll(diffs);
+        executor.shutdown();
+        for (int i = 0; i < SESSIONS; i++)
+            assertTrue("Diff "+i+" overlapped with all others", results.get(i).get());
+    }
+
+    // wrapper that counts down the given latch and waits for it when first reading the text
+    private static final class LatchedReaderWrapper implements ReaderWrapper {
+        private final ReaderWrapper wrapped;
+        private final CountDownLatch latch;
+        private final boolean[] overlapped;
+
+        LatchedReaderWrapper(ReaderWrapper wrapped, CountDownLatch latch, boolean[] overlapped) {
+            this.wrapped = wrapped;
+            this.latch = latch;
+            this.overlapped = overlapped;
+        }
+
+        @Override
+        public Reader createReader() throws Exception {
+            if (!overlapped[0]) {
+                latch.countDown();
+                overlapped[0] = latch.await(30, TimeUnit.SECONDS);
+            }
+            return wrapped.createReader();
+        }
+
+        @Override
+        public boolean removeAdditions(LexemeBuffer lexemes, int index) {
+            return wrapped.removeAdditions(lexemes, index);
+        }
+
+        @Override
+        public String getContentKey() {
+            return wrapped.getContentKey();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.google.common.util.concurrent.Futures;
+import com.sri.ltc.server.Metrics;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author linda
+ */
+public final class TestDiffCache {
+
+    private final static LatexDiff latexDiff = new LatexDiff();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MarkedUpDocument createDocument() throws Exception {
+        MarkedUpDocument document = new MarkedUpDocument();
+        document.insertString(0, "  Lorem ipsum   dolor sit. ");
+        document.markupAddition(7, 16, EnumSet.noneOf(Change.Flag.class));
+        document.insertDeletion(25, "   amet", EnumSet.of(Change.Flag.DELETION));
+        return document;
+    }
+
+    private static List<Change> getChanges(DiffCache cache, String key, String text, MarkedUpDocument document)
+            throws Exception {
+        List<Change> changes = cache.get(key);
+        if (changes != null)
+            return changes;
+        return cache.calculate(latexDiff, key, text,
+                Futures.immediateFuture(latexDiff.analyze(new StringReaderWrapper(text))),
+                document);
+    }
+
+    // text of a committed revision with given content key, which cannot be read if NULL
+    private static final class CommittedReaderWrapper extends AbstractReaderWrapper<String> implements ReaderWrapper {
+        private final String key;
+
+        CommittedReaderWrapper(String text, String key) {
+            super(text);
+            this.key = key;
+        }
+
+        @Override
+        public Reader createReader() {
+            if (getWrapped() == null)
+                throw new IllegalStateException("Revision "+key+" is read although changes are stored");
+            return new StringReader(getWrapped());
+        }
+
+        @Override
+        public String getContentKey() {
+            return key;
+        }
+    }
+
+    private static void assertChanges(List<Change> expected, List<Change> actual) {
+        assertEquals("Number of changes", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals("Change "+i, expected.get(i).toString(), actual.get(i).toString());
+    }
+
+    @After
+    public void reset() {
+        DiffCache.setDiskStoreEnabled(false);
+        DiffCache.setDiskStoreLimit(DiffCache.DEFAULT_DISK_STORE_LIMIT);
+        LatexDiff.setPairingLimit(LatexDiff.DEFAULT_PAIRING_LIMIT);
+        DiffCache.clearMemory();
+    }
+
+    @Test
+    public void memory() throws Exception {
+        String text = " Lorem    amet,  consectetur.";
+        List<Change> expected = latexDiff.getChanges(new StringReaderWrapper(text), new DocumentReaderWrapper(createDocument()));
+
+        DiffCache cache = new DiffCache(null);
+        String key = DiffCache.getKey("earlier", DiffCache.getKey("before", "later"));
+        List<Change> changes = getChanges(cache, key, text, createDocument());
+        assertChanges(expected, changes);
+        assertSame("Cached changes", changes, getChanges(cache, key, text, createDocument()));
+
+        // uncommitted revisions are not cached:
+        assertNull("Key of uncommitted revision", DiffCache.getKey("earlier", null));
+        changes = getChanges(cache, null, text, createDocument());
+        assertNotSame("Changes of uncommitted revision", changes, getChanges(cache, null, text, createDocument()));
+
+        // different revisions give different changes:
+        changes = getChanges(cache, key, text, createDocument());
+        assertNotSame("Changes of other revisions", changes,
+                getChanges(cache, DiffCache.getKey("earlier", DiffCache.getKey("other", "later")), text, createDocument()));
+
+        // different settings of diff give different changes:
+        LatexDiff.setPairingLimit(LatexDiff.DEFAULT_PAIRING_LIMIT + 1);
+        assertNotSame("Changes with other pairing limit", changes,
+                getChanges(cache, DiffCache.getKey("earlier", DiffCache.getKey("before", "later")), text, createDocument()));
+    }
+
+    @Test
+    public void disk() throws Exception {
+        String text = " Lorem    amet,  consectetur. % é";
+        List<Change> expected = latexDiff.getChanges(new StringReaderWrapper(text), new DocumentReaderWrapper(createDocument()));
+
+        DiffCache.setDiskStoreEnabled(true);
+        File directory = new File(folder.getRoot(), "diffs");
+        String key = DiffCache.getKey("earlier", "later");
+        getChanges(new DiffCache(directory), key, text, createDocument());
+        assertEquals("Stored files", 1, directory.list().length);
+
+        // read from disk after clearing memory:
+        DiffCache.clearMemory();
+        assertChanges(expected, getChanges(new DiffCache(directory), key, text, createDocument()));
+    }
+
+    @Test
+    public void pruned() throws Exception {
+        DiffCache.setDiskStoreEnabled(true);
+        File directory = new File(folder.getRoot(), "diffs");
+        DiffCache cache = new DiffCache(directory);
+        getChanges(cache, DiffCache.getKey("earlier", "0"), " Lorem    amet,  consectetur 0.", createDocument());
+        long length = directory.listFiles()[0].length();
+        DiffCache.setDiskStoreLimit(3 * length);
+        for (int i = 1; i < 10; i++)
+            getChanges(cache, DiffCache.getKey("earlier", ""+i), " Lorem    amet,  consectetur "+i+".", createDocument());
+        assertTrue("Stored files are limited", directory.list().length <= 3);
+    }
+
+    @Test
+    public void sharedByCommittedRevisions() throws Exception {
+        ReaderWrapper[] versions = {
+                new CommittedReaderWrapper("Lorem ipsum.\n", "a"),
+                new CommittedReaderWrapper("Lorem ipsum dolor.\n", "b"),
+                new CommittedReaderWrapper("Lorem dolor sit.\n", "c"),
+                new StringReaderWrapper("Lorem dolor sit amet.\n")};
+        new Accumulate().perform(versions, null, EnumSet.noneOf(Change.Flag.class), null, 0);
+
+        // another session with other modifications compares the same committed revisions only once
+        // and does not read the earlier ones again:
+        versions[0] = new CommittedReaderWrapper(null, "a");
+        versions[1] = new CommittedReaderWrapper(null, "b");
+        long hits = Metrics.CACHE_HITS.get(Metrics.CACHE_DIFF_MEMORY);
+        long misses = Metrics.CACHE_MISSES.get(Metrics.CACHE_DIFF_MEMORY);
+        versions[3] = new StringReaderWrapper("Lorem dolor sit, consectetur.\n");
+        new Accumulate().perform(versions, null, EnumSet.noneOf(Change.Flag.class), null, 0);
+        assertEquals("changes between committed revisions from memory", hits + 2, Metrics.CACHE_HITS.get(Metrics.CACHE_DIFF_MEMORY));
+        assertEquals("changes to modified text not stored", misses, Metrics.CACHE_MISSES.get(Metrics.CACHE_DIFF_MEMORY));
+    }
+}
@@ -154,7 +154,7 @@ public class TestLatexDiff {
     @Test
     public void test3Diff() throws Exception {
         MarkedUpDocument document = new MarkedUpDocument();
-        document.insertString(0, "  Lorem ipsum   dolor sit. ", null);
+        document.insertString(0, "  Lorem ipsum   dolor sit. ");
         document.markupAddition(7, 16, EnumSet.noneOf(Flag.class));
         document.insertDeletion(25, "   amet", EnumSet.of(Flag.DELETION));
         changes = latexDiff.getChanges(
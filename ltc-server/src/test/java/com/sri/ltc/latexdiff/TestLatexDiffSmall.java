@@ -180,4 +180,24 @@ public final class TestLatexDiffSmall extends TestLatexDiff {
                 "  \\fiddle",
                 EnumSet.of(Change.Flag.DELETION, Change.Flag.COMMAND))));
     }
+
+    @Test
+    public void pairingLimit() throws Exception {
+        int limit = LatexDiff.getPairingLimit();
+        try {
+            LatexDiff.setPairingLimit(0);
+            changes = getChanges(
+                    "Lorem ipsum dolr sit amet. ",
+                    "Lorem ipsum dolor sit amet.");
+        } finally {
+            LatexDiff.setPairingLimit(limit);
+        }
+        // replacement too large to look for small changes
+        assertAddition(0, 11, Lists.newArrayList(new IndexFlagsPair<Integer>(
+                18,
+                EnumSet.noneOf(Change.Flag.class))));
+        assertDeletion(1, 11, Lists.newArrayList(new IndexFlagsPair<String>(
+                " dolr",
+                EnumSet.of(Change.Flag.DELETION))));
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author linda
+ */
+public class TestLevenshtein {
+
+    private static int bounded(String s, String t, int limit) {
+        return Levenshtein.getLevenshteinDistance(s.toCharArray(), 0, s.length(), t.toCharArray(), 0, t.length(), limit);
+    }
+
+    @Test
+    public void examples() {
+        assertEquals(3, Levenshtein.getLevenshteinDistance("kitten", "sitting"));
+        assertEquals(3, bounded("kitten", "sitting", 4));
+        assertEquals(3, bounded("kitten", "sitting", 3));
+        assertEquals(1, bounded("kitten", "sitting", 1));
+        assertEquals(0, bounded("", "", 1));
+        assertEquals(2, bounded("", "ab", 3));
+        assertEquals(3, bounded("abcdef", "", 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noLimit() {
+        bounded("a", "b", 0);
+    }
+
+    @Test
+    public void boundedAgreesWithFull() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String s = random(random), t = random(random);
+            int distance = Levenshtein.getLevenshteinDistance(s, t);
+            int limit = 1 + random.nextInt(6);
+            assertEquals("distance of \"" + s + "\" and \"" + t + "\" bounded by " + limit,
+                    Math.min(distance, limit), bounded(s, t, limit));
+        }
+    }
+
+    private static String random(Random random) {
+        char[] chars = new char[random.nextInt(12)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('a' + random.nextInt(3));
+        return new String(chars);
+    }
+}
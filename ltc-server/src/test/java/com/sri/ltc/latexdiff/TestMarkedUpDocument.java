@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.latexdiff;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the run-length markup of {@link MarkedUpDocument} against a reference based on
+ * {@link DefaultStyledDocument} on random sequences of changes and filters.
+ * @author linda
+ */
+public class TestMarkedUpDocument {
+
+    private final static Color[] COLORS = {Color.red, Color.blue, Color.green};
+    private final static Change.Flag[] FLAGS = Change.Flag.values();
+    private final static String CHARACTERS = "ab %\\\n";
+
+    // reference: mark up kept as character attributes of a styled document
+    @SuppressWarnings("serial")
+    private static final class Reference extends DefaultStyledDocument {
+
+        private final static String ADDITION_STYLE = "addition";
+        private final static String DELETION_STYLE = "deletion";
+        private final static String AUTHOR_INDEX = "author index";
+        private final static String REVISION_INDEX = "revision name";
+        private final static String FLAGS_ATTR = "flag attribute";
+
+        private Position caret = getStartPosition();
+
+        private Reference(String initialText) throws BadLocationException {
+            StyleConstants.setUnderline(addStyle(ADDITION_STYLE, null), true);
+            StyleConstants.setStrikeThrough(addStyle(DELETION_STYLE, null), true);
+            insertString(0, initialText, null);
+        }
+
+        private void updateStyles(int authorIndex, Color authorColor, Integer revisionIndex) {
+            for (String name : new String[] {DELETION_STYLE, ADDITION_STYLE}) {
+                Style style = getStyle(name);
+                StyleConstants.setForeground(style, authorColor);
+                style.addAttribute(AUTHOR_INDEX, authorIndex);
+                style.addAttribute(REVISION_INDEX, revisionIndex);
+            }
+        }
+
+        private void insertDeletion(int offset, String text, Set<Change.Flag> flags) throws BadLocationException {
+            Style style = getStyle(DELETION_STYLE);
+            style.addAttribute(FLAGS_ATTR, flags);
+            insertString(offset, text, style);
+        }
+
+        private void markupAddition(int start_position, int end_position, Set<Change.Flag> flags) {
+            for (int i = start_position; i < end_position; i++)
+                if (!isDeletion(i) && !isAddition(i)) {
+                    Style style = getStyle(ADDITION_STYLE);
+                    style.addAttribute(FLAGS_ATTR, flags);
+                    setCharacterAttributes(i, 1, style, true);
+                }
+        }
+
+        private Object getAttribute(int pos, Object key) {
+            return getCharacterElement(pos).getAttributes().getAttribute(key);
+        }
+
+        private boolean isAddition(int pos) {
+            return pos >= 0 && pos < getLength() && ADDITION_STYLE.equals(getAttribute(pos, StyleConstants.NameAttribute));
+        }
+
+        private boolean isDeletion(int pos) {
+            return pos >= 0 && pos < getLength() && DELETION_STYLE.equals(getAttribute(pos, StyleConstants.NameAttribute));
+        }
+
+        @SuppressWarnings("unchecked")
+        private int applyFiltering(Set<Change.Flag> flagsToHide, Set<Integer> limitedAuthors, int caretPosition)
+                throws BadLocationException {
+            caret = createPosition(caretPosition);
+            if (!flagsToHide.isEmpty() || (limitedAuthors != null && !limitedAuthors.isEmpty())) {
+                boolean inComment = false;
+                for (int i = 0; i < getLength(); i++) {
+                    String c = getText(i, 1);
+                    if (!inComment && !isDeletion(i))
+                        if ("%".equals(c) && (i == 0 || !"\\".equals(getText(i - 1, 1))))
+                            inComment = true;
+                    if (limitedAuthors != null && !limitedAuthors.isEmpty()) {
+                        Object index = getAttribute(i, AUTHOR_INDEX);
+                        if (index instanceof Integer && !limitedAuthors.contains(index)) {
+                            if (isDeletion(i)) {
+                                remove(i, 1);
+                                i--;
+                                continue;
+                            }
+                            if (isAddition(i))
+                                setCharacterAttributes(i, 1, SimpleAttributeSet.EMPTY, true);
+                        }
+                    }
+                    Set<Change.Flag> currentFlags = (Set<Change.Flag>) getAttribute(i, FLAGS_ATTR);
+                    if (currentFlags != null) {
+                        Set<Change.Flag> flags = Sets.newHashSet(currentFlags);
+                        if (inComment)
+                            flags.add(Change.Flag.COMMENT);
+                        if (!Sets.intersection(flags, flagsToHide).isEmpty())
+                            if (flags.contains(Change.Flag.DELETION)) {
+                                remove(i, 1);
+                                i--;
+                                continue;
+                            } else
+                                setCharacterAttributes(i, 1, SimpleAttributeSet.EMPTY, true);
+                    }
+                    if (inComment)
+                        if (c.matches("[\n\r]") && (currentFlags == null || !currentFlags.contains(Change.Flag.DELETION)))
+                            inComment = false;
+                }
+            }
+            return caret.getOffset();
+        }
+
+        private List<Integer> getSortedRevisionIndices() {
+            SortedSet<Integer> indices = Sets.newTreeSet();
+            for (int i = 0; i < getLength(); i++) {
+                Object index = getAttribute(i, REVISION_INDEX);
+                if (index instanceof Integer)
+                    indices.add((Integer) index);
+            }
+            return Lists.newArrayList(indices);
+        }
+
+        private List<Integer[]> getStyles() {
+            List<Integer[]> list = Lists.newArrayList();
+            Integer[] last = null;
+            Object[] lastKey = null;
+            Element root = getDefaultRootElement();
+            for (int p = 0; p < root.getElementCount(); p++) {
+                Element paragraph = root.getElement(p);
+                for (int l = 0; l < paragraph.getElementCount(); l++) {
+                    AttributeSet leaf = paragraph.getElement(l).getAttributes();
+                    String name = (String) leaf.getAttribute(StyleConstants.NameAttribute);
+                    Object[] key = {name, leaf.getAttribute(StyleConstants.Foreground),
+                            leaf.getAttribute(AUTHOR_INDEX), leaf.getAttribute(REVISION_INDEX)};
+                    if (Arrays.equals(key, lastKey))
+                        continue;
+                    int start = paragraph.getElement(l).getStartOffset();
+                    if (last != null) {
+                        last[1] = start;
+                        if (last[2] != 0)
+                            list.add(last);
+                    }
+                    last = new Integer[] {start, 0,
+                            ADDITION_STYLE.equals(name) ? 1 : DELETION_STYLE.equals(name) ? 2 : 0,
+                            key[2] == null ? 0 : (Integer) key[2],
+                            key[3] == null ? 0 : (Integer) key[3]};
+                    lastKey = key;
+                }
+            }
+            // styled document ends in an implicit newline, which belongs to the last chunk:
+            last[1] = getLength() + 1;
+            if (last[2] != 0)
+                list.add(last);
+            return list;
+        }
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(maxLength); i > 0; i--)
+            text.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        return text.toString();
+    }
+
+    private static Set<Change.Flag> randomFlags(Random random) {
+        Set<Change.Flag> flags = EnumSet.noneOf(Change.Flag.class);
+        for (Change.Flag flag : FLAGS)
+            if (random.nextInt(3) == 0)
+                flags.add(flag);
+        return flags;
+    }
+
+    private static void assertSame(String message, Reference expected, MarkedUpDocument actual) throws Exception {
+        assertEquals("text "+message, expected.getText(0, expected.getLength()), actual.getText(0, actual.getLength()));
+        for (int i = -1; i <= expected.getLength(); i++) {
+            assertEquals("addition at "+i+" "+message, expected.isAddition(i), actual.isAddition(i));
+            assertEquals("deletion at "+i+" "+message, expected.isDeletion(i), actual.isDeletion(i));
+        }
+        List<Integer[]> expectedStyles = expected.getStyles();
+        List<Integer[]> actualStyles = actual.getStyles();
+        assertEquals("number of styles "+message, expectedStyles.size(), actualStyles.size());
+        for (int i = 0; i < expectedStyles.size(); i++)
+            assertEquals("style ("+i+") "+message,
+                    Arrays.toString(expectedStyles.get(i)), Arrays.toString(actualStyles.get(i)));
+        assertEquals("revision indices "+message, expected.getSortedRevisionIndices(), actual.getSortedRevisionIndices());
+    }
+
+    @Test
+    public void random() throws Exception {
+        Random random = new Random(2);
+        for (int n = 0; n < 500; n++) {
+            String text = randomText(random, 30);
+            Reference expected = new Reference(text);
+            MarkedUpDocument actual = new MarkedUpDocument(text, null, 0);
+            String message = "in round "+n;
+            for (int revision = 0, revisions = random.nextInt(4) + 1; revision < revisions; revision++) {
+                int author = random.nextInt(COLORS.length);
+                expected.updateStyles(author, COLORS[author], revision);
+                actual.updateStyles(author, COLORS[author], revision);
+                for (int i = random.nextInt(5); i > 0; i--) {
+                    int start = random.nextInt(expected.getLength() + 1);
+                    Set<Change.Flag> flags = randomFlags(random);
+                    if (random.nextBoolean()) {
+                        flags.add(Change.Flag.DELETION);
+                        String deletion = randomText(random, 6) + "d";
+                        expected.insertDeletion(start, deletion, flags);
+                        actual.insertDeletion(start, deletion, flags);
+                    } else {
+                        int end = start + random.nextInt(expected.getLength() - start + 1);
+                        expected.markupAddition(start, end, flags);
+                        actual.markupAddition(start, end, flags);
+                    }
+                }
+                assertSame(message+" after revision "+revision, expected, actual);
+            }
+
+            Set<Change.Flag> flagsToHide = randomFlags(random);
+            Set<Integer> limitedAuthors = new HashSet<Integer>();
+            for (int author = 0; author < COLORS.length; author++)
+                if (random.nextInt(3) == 0)
+                    limitedAuthors.add(author);
+            int caretPosition = random.nextInt(expected.getLength() + 1);
+            message += " filtering "+flagsToHide+" and authors "+limitedAuthors+" with caret at "+caretPosition;
+            assertEquals("caret "+message,
+                    expected.applyFiltering(flagsToHide, limitedAuthors, caretPosition),
+                    actual.applyFiltering(flagsToHide, limitedAuthors, caretPosition));
+            assertSame(message, expected, actual);
+        }
+    }
+}
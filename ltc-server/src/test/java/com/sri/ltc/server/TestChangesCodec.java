@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author linda
+ */
+public final class TestChangesCodec {
+
+    @SuppressWarnings("unchecked")
+    private static Map createChanges(String text, List<Integer[]> styles) {
+        Map map = new HashMap();
+        map.put(LTCserverInterface.KEY_TEXT, Base64.encodeBase64(text.getBytes()));
+        map.put(LTCserverInterface.KEY_CARET, 7);
+        map.put(LTCserverInterface.KEY_STYLES, styles);
+        Map<Integer,Object[]> authors = new HashMap<Integer,Object[]>();
+        authors.put(0, new Object[] {"Anna", "anna@test.com", "#0000ff"});
+        authors.put(1, new Object[] {"Bérénice", "", "#ff0000"});
+        authors.put(-1, new Object[] {"Self", "self@test.com", "#009900"});
+        map.put(LTCserverInterface.KEY_AUTHORS, authors);
+        map.put(LTCserverInterface.KEY_REVS, Arrays.asList("modified", "3c2a9f1", "0b1d2e3"));
+        map.put(LTCserverInterface.KEY_LAST, "a1b2c3d");
+        map.put(LTCserverInterface.KEY_REV_INDICES, Arrays.asList(0, 2));
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertSameChanges(Map expected, Map actual) {
+        assertEquals("text",
+                new String(Base64.decodeBase64((byte[]) expected.get(LTCserverInterface.KEY_TEXT))),
+                new String(Base64.decodeBase64((byte[]) actual.get(LTCserverInterface.KEY_TEXT))));
+        assertEquals("caret", expected.get(LTCserverInterface.KEY_CARET), actual.get(LTCserverInterface.KEY_CARET));
+        List<Integer[]> expectedStyles = (List<Integer[]>) expected.get(LTCserverInterface.KEY_STYLES);
+        List<Integer[]> actualStyles = (List<Integer[]>) actual.get(LTCserverInterface.KEY_STYLES);
+        assertEquals("number of styles", expectedStyles.size(), actualStyles.size());
+        for (int i = 0; i < expectedStyles.size(); i++)
+            assertArrayEquals("style ("+i+")", expectedStyles.get(i), actualStyles.get(i));
+        Map<Integer,Object[]> expectedAuthors = (Map<Integer,Object[]>) expected.get(LTCserverInterface.KEY_AUTHORS);
+        Map<Integer,Object[]> actualAuthors = (Map<Integer,Object[]>) actual.get(LTCserverInterface.KEY_AUTHORS);
+        assertEquals("author indices", expectedAuthors.keySet(), actualAuthors.keySet());
+        for (Integer key : expectedAuthors.keySet())
+            assertArrayEquals("author "+key, expectedAuthors.get(key), actualAuthors.get(key));
+        assertEquals("revisions", expected.get(LTCserverInterface.KEY_REVS), actual.get(LTCserverInterface.KEY_REVS));
+        assertEquals("last revision", expected.get(LTCserverInterface.KEY_LAST), actual.get(LTCserverInterface.KEY_LAST));
+        assertEquals("revision indices", expected.get(LTCserverInterface.KEY_REV_INDICES), actual.get(LTCserverInterface.KEY_REV_INDICES));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        List<Integer[]> styles = new ArrayList<Integer[]>();
+        styles.add(new Integer[] {0, 5, 1, 0, 1});
+        styles.add(new Integer[] {5, 9, 2, 1, 0});
+        styles.add(new Integer[] {3, 4, 1, 0, 2}); // starts before previous style
+        Map changes = createChanges("Lorem ipsum dolor — sit amet.\n", styles);
+        assertSameChanges(changes, ChangesCodec.decode(new ByteArrayInputStream(ChangesCodec.encode(changes))));
+    }
+
+    @Test
+    public void largeDocument() throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<Integer[]> styles = new ArrayList<Integer[]>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int start = text.length();
+            text.append("word").append(i).append(' ');
+            styles.add(new Integer[] {start, text.length(), 1 + random.nextInt(2), random.nextInt(3), random.nextInt(3)});
+        }
+        Map changes = createChanges(text.toString(), styles);
+        byte[] bytes = ChangesCodec.encode(changes);
+        assertTrue("compact encoding", bytes.length < text.length() + 6 * styles.size());
+        assertSameChanges(changes, ChangesCodec.decode(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void varInts() throws IOException {
+        int[] numbers = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int n : numbers)
+            ChangesCodec.writeVarInt(out, ChangesCodec.zigZag(n));
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int n : numbers)
+            assertEquals("number", n, ChangesCodec.unZigZag(ChangesCodec.readVarInt(in)));
+        assertEquals("small numbers use one byte", 1, ChangesCodec.zigZag(-1));
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnEncoding() throws IOException {
+        ChangesCodec.decode(new ByteArrayInputStream("<?xml".getBytes()));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncated() throws IOException {
+        byte[] bytes = ChangesCodec.encode(createChanges("text", new ArrayList<Integer[]>()));
+        ChangesCodec.decode(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    public void deletions() {
+        assertTrue("no deletions", ChangesServlet.parseDeletions(null).isEmpty());
+        List<Object[]> deletions = ChangesServlet.parseDeletions("3:5,10:12");
+        assertEquals("number of deletions", 2, deletions.size());
+        assertArrayEquals("second deletion", new Object[] {10, 12}, deletions.get(1));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author linda
+ */
+public final class TestChangesDelta {
+
+    private final Random random = new Random(42);
+
+    private String randomText(int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            builder.append((char) ('a' + random.nextInt(4)));
+        return builder.toString();
+    }
+
+    private List<Integer[]> randomStyles(int length) {
+        List<Integer[]> styles = new ArrayList<Integer[]>();
+        for (int position = random.nextInt(5); position < length; position += 1 + random.nextInt(5)) {
+            int end = Math.min(length, position + 1 + random.nextInt(6));
+            styles.add(new Integer[] {position, end, 1 + random.nextInt(2), random.nextInt(3), random.nextInt(3)});
+            position = end;
+        }
+        return styles;
+    }
+
+    private static void assertStyles(List<Integer[]> expected, List<Integer[]> actual) {
+        assertEquals("number of styles", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertArrayEquals("style ("+i+")", expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void randomDeltas() {
+        for (int i = 0; i < 1000; i++) {
+            String oldText = randomText(random.nextInt(40));
+            List<Integer[]> oldStyles = randomStyles(oldText.length());
+            // splice some random text and keep some of the styles
+            int start = random.nextInt(oldText.length() + 1);
+            int end = Math.min(oldText.length(), start + random.nextInt(5));
+            String newText = oldText.substring(0, start) + randomText(random.nextInt(5)) + oldText.substring(end);
+            List<Integer[]> newStyles = random.nextBoolean() && newText.length() == oldText.length() ?
+                    oldStyles : randomStyles(newText.length());
+
+            ChangesDelta delta = ChangesDelta.create(oldText, oldStyles, newText, newStyles);
+            assertEquals("text", newText, delta.applyToText(oldText));
+            assertStyles(newStyles, delta.applyToStyles(oldStyles));
+            assertTrue("dirty range", 0 <= delta.dirtyStart && delta.dirtyStart <= delta.dirtyEnd &&
+                    delta.dirtyEnd <= newText.length());
+        }
+    }
+
+    @Test
+    public void smallChange() {
+        String oldText = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+        String newText = "Lorem ipsum dolor sit amet, consectetur elit.";
+        List<Integer[]> oldStyles = new ArrayList<Integer[]>();
+        oldStyles.add(new Integer[] {0, 5, 1, 0, 0});
+        oldStyles.add(new Integer[] {40, 50, 1, 1, 1});
+        oldStyles.add(new Integer[] {51, 56, 2, 1, 1});
+        List<Integer[]> newStyles = new ArrayList<Integer[]>();
+        newStyles.add(new Integer[] {0, 5, 1, 0, 0});
+        newStyles.add(new Integer[] {40, 45, 2, 1, 1});
+
+        ChangesDelta delta = ChangesDelta.create(oldText, oldStyles, newText, newStyles);
+        assertEquals("text start", 40, delta.textStart);
+        assertEquals("removed text", 11, delta.removedLength);
+        assertEquals("inserted text", "", delta.insertedText);
+        assertEquals("style index", 1, delta.styleIndex);
+        assertEquals("removed styles", 1, delta.removedStyles);
+        assertTrue("no inserted styles", delta.insertedStyles.isEmpty());
+        assertEquals("dirty start", 40, delta.dirtyStart);
+        assertEquals("dirty end", 40, delta.dirtyEnd);
+        assertStyles(newStyles, delta.applyToStyles(oldStyles));
+    }
+
+    @Test
+    public void viaMap() {
+        String oldText = randomText(30);
+        List<Integer[]> oldStyles = randomStyles(oldText.length());
+        String newText = "new " + oldText.substring(10);
+        List<Integer[]> newStyles = randomStyles(newText.length());
+        Map map = new HashMap();
+        ChangesDelta.create(oldText, oldStyles, newText, newStyles).putInto(map);
+        ChangesDelta delta = ChangesDelta.getFrom(map);
+        assertEquals("text", newText, delta.applyToText(oldText));
+        assertStyles(newStyles, delta.applyToStyles(oldStyles));
+
+        // styles as received via XML-RPC:
+        Object[] styles = (Object[]) map.get(LTCserverInterface.KEY_STYLE_SPLICE);
+        styles[2] = ((List) styles[2]).toArray();
+        assertStyles(newStyles, ChangesDelta.getFrom(map).applyToStyles(oldStyles));
+
+        assertNull("no delta", ChangesDelta.getFrom(new HashMap()));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.sri.ltc.CancellationToken;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author linda
+ */
+public final class TestChangesScheduler {
+
+    private final ChangesScheduler scheduler = new ChangesScheduler();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    // task that records being called and returns its name once the given latch is released
+    private ChangesScheduler.Task task(final String name, final CountDownLatch started, final CountDownLatch release) {
+        return new ChangesScheduler.Task() {
+            @Override
+            public Map call(CancellationToken token) throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                while (!release.await(1, TimeUnit.MILLISECONDS))
+                    token.check();
+                return Collections.singletonMap("name", name);
+            }
+        };
+    }
+
+    @Test
+    public void latestWins() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Map> first = scheduler.submit(task("first", started, release), new CancellationToken());
+        assertTrue("first task started", started.await(10, TimeUnit.SECONDS));
+
+        // while first is running, submit two more requests: the second is replaced by the third
+        // (holding the lock of the scheduler so that the abandoned first cannot finish in between)
+        CountDownLatch done = new CountDownLatch(0);
+        Future<Map> second, third;
+        synchronized (scheduler) {
+            second = scheduler.submit(task("second", new CountDownLatch(1), done), new CancellationToken());
+            third = scheduler.submit(task("third", new CountDownLatch(1), done), new CancellationToken());
+        }
+
+        for (Future<Map> future : new Future[] {first, second, third})
+            assertEquals("newest result", "third", future.get(10, TimeUnit.SECONDS).get("name"));
+        assertEquals("first abandoned and second never computed", 2, calls.get());
+    }
+
+    @Test
+    public void sequentialRequests() throws Exception {
+        CountDownLatch done = new CountDownLatch(0);
+        assertEquals("first result", "first",
+                scheduler.submit(task("first", new CountDownLatch(1), done), new CancellationToken()).get().get("name"));
+        assertEquals("second result", "second",
+                scheduler.submit(task("second", new CountDownLatch(1), done), new CancellationToken()).get().get("name"));
+        assertEquals("both computed", 2, calls.get());
+    }
+
+    @Test
+    public void cancelNewest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CancellationToken token = new CancellationToken();
+        Future<Map> future = scheduler.submit(task("cancelled", started, new CountDownLatch(1)), token);
+        assertTrue("task started", started.await(10, TimeUnit.SECONDS));
+        token.cancel();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("cancelled request should not have a result");
+        } catch (ExecutionException e) {
+            assertTrue("cancelled", e.getCause() instanceof CancellationException);
+        }
+    }
+
+    @Test
+    public void cancelNewestWithWaitingCaller() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Map> first = scheduler.submit(task("first", started, release), new CancellationToken());
+        assertTrue("first task started", started.await(10, TimeUnit.SECONDS));
+
+        // newest request abandons the first and is then cancelled by its caller
+        CountDownLatch newestStarted = new CountDownLatch(1);
+        CancellationToken token = new CancellationToken();
+        Future<Map> newest = scheduler.submit(task("newest", newestStarted, new CountDownLatch(1)), token);
+        assertTrue("newest task started", newestStarted.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        token.cancel();
+
+        // request of the caller still waiting is computed again and shared
+        for (Future<Map> future : new Future[] {first, newest})
+            assertEquals("result of waiting caller", "first", future.get(10, TimeUnit.SECONDS).get("name"));
+        assertEquals("first computed again", 3, calls.get());
+    }
+
+    @Test
+    public void background() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue("background started when idle",
+                scheduler.submitBackground(task("background", started, release)));
+        assertTrue("background task started", started.await(10, TimeUnit.SECONDS));
+        assertFalse("no second background while busy",
+                scheduler.submitBackground(task("other", new CountDownLatch(1), new CountDownLatch(0))));
+
+        // request abandons background computation and never receives its result
+        Future<Map> request = scheduler.submit(task("request", new CountDownLatch(1), new CountDownLatch(0)),
+                new CancellationToken());
+        assertEquals("result of request", "request", request.get(10, TimeUnit.SECONDS).get("name"));
+        assertEquals("background and request called", 2, calls.get());
+        release.countDown();
+    }
+
+    @Test
+    public void closeIfIdle() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Map> request = scheduler.submit(task("request", started, release), new CancellationToken());
+        assertTrue("task started", started.await(10, TimeUnit.SECONDS));
+        assertFalse("not closed while running", scheduler.closeIfIdle());
+        release.countDown();
+        assertEquals("result of request", "request", request.get(10, TimeUnit.SECONDS).get("name"));
+
+        assertTrue("closed when idle", scheduler.closeIfIdle());
+        try {
+            scheduler.submit(task("rejected", new CountDownLatch(1), new CountDownLatch(0)), new CancellationToken())
+                    .get(10, TimeUnit.SECONDS);
+            fail("closed scheduler should reject requests");
+        } catch (ExecutionException e) {
+            assertTrue("rejected", e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse("no background after closing",
+                scheduler.submitBackground(task("background", new CountDownLatch(1), new CountDownLatch(0))));
+        assertEquals("only request called", 1, calls.get());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the context of events for the Flight Recorder, which are not recorded during tests.
+ * @author linda
+ */
+public final class TestFlightRecorder {
+
+    @After
+    public void removeContext() {
+        FlightRecorder.setContext(null);
+    }
+
+    @Test
+    public void context() {
+        FlightRecorder.Context context = new FlightRecorder.Context(3, "paper.tex", Arrays.asList("a1", "b2", "c3"));
+        assertNull("no previous context", FlightRecorder.setContext(context));
+        assertSame("current context", context, FlightRecorder.getContext());
+        assertEquals("revision", "b2", context.getRevision(1));
+        assertEquals("unknown revision", "", context.getRevision(3));
+        FlightRecorder.Context step = context.withRevisions(Arrays.asList("a1", "b2"));
+        assertEquals("session of derived context", 3, step.sessionID);
+        assertEquals("path of derived context", "paper.tex", step.path);
+        assertEquals("previous context", context, FlightRecorder.setContext(step));
+        assertEquals("joined revisions", "a1 b2", FlightRecorder.join(FlightRecorder.getContext().getRevisions()));
+        assertEquals("joined revisions without empty ones", "a1 c3", FlightRecorder.join("a1", "", "c3"));
+    }
+
+    @Test
+    public void notRecording() {
+        FlightRecorder.Event event = FlightRecorder.DIFF.begin();
+        assertFalse("not recording", event.isEnabled());
+        event.set("changes", 3).set("unknown field", 1).commit(); // does nothing
+    }
+}
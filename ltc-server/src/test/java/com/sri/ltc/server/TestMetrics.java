@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test writing metrics in the text format of Prometheus.
+ * @author linda
+ */
+public final class TestMetrics {
+
+    private final static Metrics.Histogram HISTOGRAM = Metrics.histogram("test_duration_seconds",
+            "Duration of tests", "test", new double[] {0.1, 1});
+    private final static Metrics.Counter COUNTER = Metrics.counter("test_total", "Number of tests", null);
+
+    private static String write() throws Exception {
+        StringWriter writer = new StringWriter();
+        Metrics.write(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void histogram() throws Exception {
+        HISTOGRAM.observe("a", 0.05);
+        HISTOGRAM.observe("a", 0.5);
+        HISTOGRAM.observe("a", 5);
+        HISTOGRAM.observe("b\"", 0.1);
+        String metrics = write();
+        assertTrue("help", metrics.contains("# HELP test_duration_seconds Duration of tests\n"));
+        assertTrue("type", metrics.contains("# TYPE test_duration_seconds histogram\n"));
+        assertTrue("first bucket", metrics.contains("test_duration_seconds_bucket{test=\"a\",le=\"0.1\"} 1\n"));
+        assertTrue("second bucket", metrics.contains("test_duration_seconds_bucket{test=\"a\",le=\"1\"} 2\n"));
+        assertTrue("last bucket", metrics.contains("test_duration_seconds_bucket{test=\"a\",le=\"+Inf\"} 3\n"));
+        assertTrue("sum", metrics.contains("test_duration_seconds_sum{test=\"a\"} 5.55\n"));
+        assertTrue("count", metrics.contains("test_duration_seconds_count{test=\"a\"} 3\n"));
+        assertTrue("escaped label", metrics.contains("test_duration_seconds_bucket{test=\"b\\\"\",le=\"0.1\"} 1\n"));
+    }
+
+    @Test
+    public void concurrentLabels() throws Exception {
+        // observers of new labels and writers run at the same time:
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 500; i++) {
+                        HISTOGRAM.observe("concurrent"+(i % 50), 0.5);
+                        if (thread == 0)
+                            write();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get(); // fails if any observer or writer failed
+        executor.shutdown();
+        assertTrue("count", write().contains("test_duration_seconds_count{test=\"concurrent0\"} 40\n"));
+    }
+
+    @Test
+    public void counterAndGauges() throws Exception {
+        COUNTER.increment(null);
+        COUNTER.increment(null);
+        String metrics = write();
+        assertTrue("counter", metrics.contains("# TYPE test_total counter\ntest_total 2\n"));
+        assertTrue("sessions", metrics.contains("# TYPE ltc_sessions gauge\nltc_sessions "));
+        assertEquals("type of hit ratios written once", metrics.indexOf("# TYPE ltc_cache_hit_ratio gauge"),
+                metrics.lastIndexOf("# TYPE ltc_cache_hit_ratio gauge"));
+        assertTrue("hit ratio", metrics.contains("ltc_cache_hit_ratio{cache=\"accumulation\"} "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerTwice() {
+        Metrics.counter("test_total", "Number of tests", null);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.sri.ltc.git.TemporaryGitRepository;
+import com.sri.ltc.versioncontrol.Repository;
+import com.sri.ltc.versioncontrol.RepositoryRegistry;
+import com.sri.ltc.versioncontrol.TrackedFile;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test sharing repositories among sessions of files in the same working copy.
+ *
+ * @author linda
+ */
+public final class TestRepositoryRegistry {
+
+    private final static LTCserverInterface API = new LTCserverImpl();
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    private String createFile(String prefix) throws Exception {
+        TrackedFile trackedFile = temporaryGitRepository.createTestFileInRepository(prefix, ".tex", "contents of "+prefix, true);
+        trackedFile.commit("commit of "+prefix);
+        return trackedFile.getFile().getPath();
+    }
+
+    @Test
+    public void shared() throws Exception {
+        int sessionID1 = API.init_session(createFile("chapter1"));
+        int sessionID2 = API.init_session(createFile("chapter2"));
+        Repository repository = SessionManager.getSession(sessionID1).getTrackedFile().getRepository();
+        assertSame("same repository", repository, SessionManager.getSession(sessionID2).getTrackedFile().getRepository());
+        assertEquals("2 references", 2, RepositoryRegistry.getReferences(repository));
+
+        API.close_session(sessionID1, Base64.encodeBase64("contents of chapter1".getBytes()), null, 0);
+        assertEquals("1 reference", 1, RepositoryRegistry.getReferences(repository));
+        API.close_session(sessionID2, Base64.encodeBase64("contents of chapter2".getBytes()), null, 0);
+        assertEquals("closed", 0, RepositoryRegistry.getReferences(repository));
+    }
+
+    @Test
+    public void failed() throws Exception {
+        String path = createFile("chapter");
+        int sessionID = API.init_session(path);
+        Repository repository = SessionManager.getSession(sessionID).getTrackedFile().getRepository();
+        try {
+            API.init_session(path);
+            fail("second session of same file");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals("failed session does not hold repository", 1, RepositoryRegistry.getReferences(repository));
+        API.close_session(sessionID, Base64.encodeBase64("contents of chapter".getBytes()), null, 0);
+        assertEquals("closed", 0, RepositoryRegistry.getReferences(repository));
+    }
+}
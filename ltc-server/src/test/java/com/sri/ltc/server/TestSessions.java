@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * LaTeX Track Changes (LTC) allows collaborators on a version-controlled LaTeX writing project to view and query changes in the .tex documents.
+ * %%
+ * Copyright (C) 2009 - 2012 SRI International
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package com.sri.ltc.server;
+
+import com.sri.ltc.CancellationToken;
+import com.sri.ltc.Utils;
+import com.sri.ltc.git.TemporaryGitRepository;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test evicting idle sessions and jobs and keeping sessions within the memory budget.
+ * @author linda
+ */
+public final class TestSessions {
+
+    private final static LTCserverInterface API = new LTCserverImpl();
+    private final static String[] AUTHORS = {"Anna", "Berta", "Carla"};
+
+    @Rule
+    public TemporaryGitRepository temporaryGitRepository = new TemporaryGitRepository();
+
+    @After
+    public void resetLimits() {
+        SessionManager.setIdleTimeout(SessionManager.DEFAULT_IDLE_TIMEOUT);
+        SessionManager.setMemoryBudget(SessionManager.DEFAULT_MEMORY_BUDGET);
+        JobManager.setJobTimeoutMillis(TimeUnit.MINUTES.toMillis(JobManager.DEFAULT_JOB_TIMEOUT));
+    }
+
+    private int createSession(String... contents) throws Exception {
+        File file = Utils.createGitRepository(temporaryGitRepository, contents, AUTHORS);
+        int sessionID = API.init_session(file.getPath());
+        API.get_changes(sessionID, false, new byte[0], null, 0);
+        return sessionID;
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        int sessionID = createSession("content of first file", "more content of file");
+        Object[] statistics = null;
+        for (Object entry : API.get_session_stats())
+            if (sessionID == (Integer) ((Object[]) entry)[0])
+                statistics = (Object[]) entry;
+        assertNotNull("statistics of session", statistics);
+        assertTrue("path", ((String) statistics[1]).endsWith(".txt"));
+        assertTrue("idle time", (Integer) statistics[2] >= 0);
+        assertTrue("memory", (Integer) statistics[3] > 0);
+        API.close_session(sessionID, Base64.encodeBase64("more content of file".getBytes()), null, 0);
+    }
+
+    @Test
+    public void idleTimeout() throws Exception {
+        int sessionID = createSession("content of first file", "more content of file");
+        Session session = SessionManager.getSession(sessionID);
+        SessionManager.setIdleTimeoutMillis(1);
+        Thread.sleep(10);
+        SessionManager.evict();
+        assertNull("idle session is finished", SessionManager.getSession(sessionID));
+        assertFalse("file is no longer active", SessionManager.isActive(session.getTrackedFile()));
+    }
+
+    @Test
+    public void memoryBudget() throws Exception {
+        int sessionID1 = createSession("content of first file", "more content of file");
+        int sessionID2 = createSession("a third content of file", "again content of file");
+        Session session1 = SessionManager.getSession(sessionID1);
+        Thread.sleep(10);
+        Session session2 = SessionManager.getSession(sessionID2);
+        long memory1 = session1.estimateMemory(), memory2 = session2.estimateMemory();
+
+        // discard caches of least recently used session only (after those of sessions left by other tests):
+        long total = 0L;
+        for (Object entry : API.get_session_stats()) {
+            Session session = SessionManager.getSession((Integer) ((Object[]) entry)[0]);
+            if (session != session1 && session != session2)
+                session.clearCaches();
+            total += session.estimateMemory();
+        }
+        SessionManager.getSession(sessionID2); // most recent again
+        SessionManager.setMemoryBudgetBytes(total - 1);
+        SessionManager.evict();
+        assertTrue("caches of first session discarded", session1.estimateMemory() < memory1);
+        assertEquals("caches of second session kept", memory2, session2.estimateMemory());
+        assertNotNull("first session kept", SessionManager.getSession(sessionID1));
+
+        // finish sessions but the most recent one:
+        SessionManager.getSession(sessionID2);
+        SessionManager.setMemoryBudgetBytes(1);
+        SessionManager.evict();
+        assertNull("first session finished", SessionManager.getSession(sessionID1));
+        assertNotNull("most recent session kept", SessionManager.getSession(sessionID2));
+        assertTrue("caches of second session discarded", session2.estimateMemory() < memory2);
+        API.close_session(sessionID2, Base64.encodeBase64("again content of file".getBytes()), null, 0);
+    }
+
+    @Test
+    public void expiredJob() throws Exception {
+        int sessionID = createSession("content of first file", "more content of file");
+        int jobID = API.start_changes(sessionID, false, new byte[0], null, 0);
+        JobManager.getJob(jobID).getFuture().get(30, TimeUnit.SECONDS);
+        JobManager.expireJobs();
+        assertNotNull("finished job is kept until timeout", JobManager.getJob(jobID));
+        JobManager.setJobTimeoutMillis(1);
+        Thread.sleep(10);
+        JobManager.expireJobs();
+        assertNull("finished job is forgotten after timeout", JobManager.getJob(jobID));
+        API.close_session(sessionID, Base64.encodeBase64("more content of file".getBytes()), null, 0);
+    }
+
+    @Test
+    public void computingSession() throws Exception {
+        int sessionID1 = createSession("content of first file", "more content of file");
+        int sessionID2 = createSession("a third content of file", "again content of file");
+        Session session1 = SessionManager.getSession(sessionID1);
+        Thread.sleep(10);
+        SessionManager.getSession(sessionID2); // most recent
+
+        // session computing changes is not finished:
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        Future<Map> computation = session1.getScheduler().submit(new ChangesScheduler.Task() {
+            @Override
+            public Map call(CancellationToken token) throws Exception {
+                started.countDown();
+                release.await(30, TimeUnit.SECONDS);
+                return Collections.emptyMap();
+            }
+        }, new CancellationToken());
+        assertTrue("computation started", started.await(30, TimeUnit.SECONDS));
+        SessionManager.setMemoryBudgetBytes(1);
+        SessionManager.evict();
+        assertNotNull("computing session kept", SessionManager.getSession(sessionID1));
+
+        // but once computation is done:
+        release.countDown();
+        computation.get(30, TimeUnit.SECONDS);
+        SessionManager.getSession(sessionID2);
+        SessionManager.evict();
+        assertNull("idle session finished", SessionManager.getSession(sessionID1));
+        API.close_session(sessionID2, Base64.encodeBase64("again content of file".getBytes()), null, 0);
+    }
+}